@@ -0,0 +1,106 @@
+package com.purpose.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.apache.shiro.cache.Cache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.purpose.shiro.impl.JedisShiroCacheManager;
+/**
+ * 授权缓存的读写,包含缓存key拼接、编解码和网络往返。
+ * nearCache为true时读取命中一级缓存,用来对比只走redis的情况
+ * @version V1.0
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheBenchmark {
+
+	private static final String CACHE_NAME = "authorizationCache";
+
+	//预先写入的key数量
+	private static final int KEYS = 1024;
+
+	@State(Scope.Benchmark)
+	public static class CacheState {
+
+		@Param({ Fixtures.SMALL, Fixtures.LARGE })
+		public String size;
+
+		@Param({ "false", "true" })
+		public boolean nearCache;
+
+		public JedisShiroCacheManager cacheManager;
+
+		public Cache<Object, Object> cache;
+
+		public SimpleAuthorizationInfo value;
+
+		@Setup(Level.Trial)
+		public void setup(RedisState redis) {
+			cacheManager = new JedisShiroCacheManager();
+			cacheManager.setRedisManager(redis.redisManager);
+			if (nearCache) {
+				cacheManager.setNearCacheNames(Collections.singleton(CACHE_NAME));
+			}
+			cache = cacheManager.getCache(CACHE_NAME);
+			value = Fixtures.authorizationInfo(size);
+			for (int i = 0; i < KEYS; i++) {
+				cache.put("user" + i, value);
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			cache.clear();
+		}
+
+	}
+
+	@State(Scope.Thread)
+	public static class KeyState {
+
+		private int next;
+
+		String nextKey() {
+			next = (next + 1) & (KEYS - 1);
+			return "user" + next;
+		}
+
+	}
+
+	@Benchmark
+	public Object get(CacheState state, KeyState keys) {
+		return state.cache.get(keys.nextKey());
+	}
+
+	@Benchmark
+	public Object getMissing(CacheState state) {
+		return state.cache.get("missing");
+	}
+
+	/**
+	 * put会先读取旧值再写入
+	 */
+	@Benchmark
+	public Object put(CacheState state, KeyState keys) {
+		return state.cache.put(keys.nextKey(), state.value);
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.purpose.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.purpose.codec.Codec;
+import com.purpose.shiro.session.TrackedSession;
+/**
+ * session和授权信息的编解码,不涉及网络。
+ * java即SerializeUtils使用的java序列化(JavaSerializationCodec),compact为CompactCodec
+ * @version V1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+	@Param({ "java", "compact" })
+	private String codecName;
+
+	@Param({ Fixtures.SMALL, Fixtures.MEDIUM, Fixtures.LARGE })
+	private String size;
+
+	private Codec codec;
+
+	private TrackedSession session;
+
+	private SimpleAuthorizationInfo authorizationInfo;
+
+	private byte[] sessionBytes;
+
+	private byte[] authorizationInfoBytes;
+
+	@Setup
+	public void setup() {
+		codec = Fixtures.codec(codecName);
+		session = Fixtures.session(size);
+		authorizationInfo = Fixtures.authorizationInfo(size);
+		sessionBytes = codec.encode(session);
+		authorizationInfoBytes = codec.encode(authorizationInfo);
+	}
+
+	@Benchmark
+	public byte[] encodeSession() {
+		return codec.encode(session);
+	}
+
+	@Benchmark
+	public Object decodeSession() {
+		return codec.decode(sessionBytes);
+	}
+
+	@Benchmark
+	public byte[] encodeAuthorizationInfo() {
+		return codec.encode(authorizationInfo);
+	}
+
+	@Benchmark
+	public Object decodeAuthorizationInfo() {
+		return codec.decode(authorizationInfoBytes);
+	}
+
+}
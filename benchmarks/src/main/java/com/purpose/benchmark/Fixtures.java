@@ -0,0 +1,140 @@
+package com.purpose.benchmark;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+
+import com.purpose.cache.RedisManager;
+import com.purpose.codec.Codec;
+import com.purpose.codec.CompactCodec;
+import com.purpose.codec.JavaSerializationCodec;
+import com.purpose.shiro.session.TrackedSession;
+/**
+ * 基准测试和压测共用的测试数据和redisManager配置
+ * @version V1.0
+ */
+public class Fixtures {
+
+	public static final String SMALL = "small";
+
+	public static final String MEDIUM = "medium";
+
+	public static final String LARGE = "large";
+
+	private Fixtures() {
+	}
+
+	/**
+	 * 各规模session的业务属性个数
+	 * @param size small/medium/large
+	 * @return
+	 */
+	public static int attributeCount(String size) {
+		if (SMALL.equals(size)) {
+			return 4;
+		}
+		if (MEDIUM.equals(size)) {
+			return 32;
+		}
+		if (LARGE.equals(size)) {
+			return 256;
+		}
+		throw new IllegalArgumentException("未知的规模:" + size);
+	}
+
+	/**
+	 * 各规模授权信息的权限个数
+	 * @param size small/medium/large
+	 * @return
+	 */
+	public static int permissionCount(String size) {
+		return attributeCount(size) * 2;
+	}
+
+	/**
+	 * 已登录用户的session:包含身份、认证标记,以及字符串、数字、日期混合的业务属性
+	 * @param size small/medium/large
+	 * @return
+	 */
+	public static TrackedSession session(String size) {
+		TrackedSession session = new TrackedSession("192.168.1.10");
+		session.setId(UUID.randomUUID().toString());
+		session.setTimeout(1800000);
+		session.setAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY,
+				new SimplePrincipalCollection("user" + System.nanoTime() + "@example.com", "jdbcRealm"));
+		session.setAttribute(DefaultSubjectContext.AUTHENTICATED_SESSION_KEY, Boolean.TRUE);
+		int count = attributeCount(size);
+		for (int i = 0; i < count; i++) {
+			switch (i % 3) {
+			case 0:
+				session.setAttribute("attribute" + i, "value-" + i + "-" + UUID.randomUUID());
+				break;
+			case 1:
+				session.setAttribute("attribute" + i, Integer.valueOf(i));
+				break;
+			default:
+				session.setAttribute("attribute" + i, new Date());
+			}
+		}
+		return session;
+	}
+
+	/**
+	 * 授权信息:权限个数的十分之一作为角色,权限形如module3:update:17
+	 * @param size small/medium/large
+	 * @return
+	 */
+	public static SimpleAuthorizationInfo authorizationInfo(String size) {
+		int count = permissionCount(size);
+		Set<String> roles = new HashSet<String>();
+		for (int i = 0; i < count / 10 + 1; i++) {
+			roles.add("role" + i);
+		}
+		SimpleAuthorizationInfo info = new SimpleAuthorizationInfo(roles);
+		String[] actions = { "view", "create", "update", "delete" };
+		for (int i = 0; i < count; i++) {
+			info.addStringPermission("module" + (i / 4) + ":" + actions[i % 4] + ":" + i);
+		}
+		return info;
+	}
+
+	/**
+	 * @param name java/compact
+	 * @return
+	 */
+	public static Codec codec(String name) {
+		if ("java".equals(name)) {
+			return new JavaSerializationCodec();
+		}
+		if ("compact".equals(name)) {
+			return new CompactCodec();
+		}
+		throw new IllegalArgumentException("未知的codec:" + name);
+	}
+
+	/**
+	 * 连接到替身服务器(或真实redis)的redisManager
+	 * @param host
+	 * @param port
+	 * @param transport jedis/nio
+	 * @param connections jedis连接池大小
+	 * @return
+	 */
+	public static RedisManager redisManager(String host, int port, String transport, int connections) {
+		RedisManager redisManager = new RedisManager();
+		redisManager.setHost(host);
+		redisManager.setPort(port);
+		redisManager.setTransportType(transport);
+		redisManager.setMaxActive(connections);
+		redisManager.setMaxIdle(connections);
+		redisManager.setMaxWait(2000);
+		redisManager.init();
+		return redisManager;
+	}
+
+}
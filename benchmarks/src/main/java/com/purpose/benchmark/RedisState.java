@@ -0,0 +1,53 @@
+package com.purpose.benchmark;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.purpose.cache.RedisManager;
+/**
+ * 访问redis的基准测试共用的状态:默认启动进程内的RespStubServer,
+ * 设置了系统属性redis.host(可选redis.port)时改为连接真实的redis
+ * @version V1.0
+ */
+@State(Scope.Benchmark)
+public class RedisState {
+
+	//传输层:jedis连接池或nio共享连接
+	@Param({ RedisManager.TRANSPORT_JEDIS, RedisManager.TRANSPORT_NIO })
+	public String transport;
+
+	//jedis连接池大小
+	@Param({ "16" })
+	public int connections;
+
+	public RespStubServer server;
+
+	public RedisManager redisManager;
+
+	@Setup(Level.Trial)
+	public void start() throws IOException {
+		String host = System.getProperty("redis.host");
+		int port = Integer.getInteger("redis.port", 6379);
+		if (host == null) {
+			server = new RespStubServer();
+			host = server.getHost();
+			port = server.getPort();
+		}
+		redisManager = Fixtures.redisManager(host, port, transport, connections);
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() throws IOException {
+		redisManager.destroy();
+		if (server != null) {
+			server.close();
+		}
+	}
+
+}
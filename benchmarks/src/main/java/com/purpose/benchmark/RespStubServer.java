@@ -0,0 +1,667 @@
+package com.purpose.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+/**
+ * 进程内的RESP协议替身服务器,让基准测试和压测不依赖真实的redis。
+ * 只实现了本项目用到的命令(字符串、哈希、列表、过期、SCAN、MULTI/EXEC、发布订阅),
+ * 每条连接一个线程,数据保存在内存中。统计收到的命令数,用于计算每个请求产生的redis命令数。
+ * 不追求与redis的行为完全一致,不能用于功能测试之外的场合。
+ * @version V1.0
+ */
+public class RespStubServer implements Closeable {
+
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private final ServerSocket serverSocket;
+
+	private final ConcurrentMap<Integer, ConcurrentSkipListMap<String, Entry>> databases = new ConcurrentHashMap<Integer, ConcurrentSkipListMap<String, Entry>>();
+
+	private final ConcurrentMap<String, List<OutputStream>> subscribers = new ConcurrentHashMap<String, List<OutputStream>>();
+
+	private final AtomicLong commands = new AtomicLong();
+
+	private volatile boolean closed;
+
+	/**
+	 * 在随机端口上启动
+	 * @throws IOException
+	 */
+	public RespStubServer() throws IOException {
+		this(0);
+	}
+
+	/**
+	 * @param port 为0时使用随机端口
+	 * @throws IOException
+	 */
+	public RespStubServer(int port) throws IOException {
+		serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "resp-stub-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public String getHost() {
+		return serverSocket.getInetAddress().getHostAddress();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * 启动以来收到的命令数,MULTI/EXEC中的命令逐条计入
+	 * @return
+	 */
+	public long getCommandCount() {
+		return commands.get();
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		serverSocket.close();
+	}
+
+	private void accept() {
+		while (!closed) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+			} catch (IOException e) {
+				return;
+			}
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					serve(socket);
+				}
+			}, "resp-stub-" + socket.getPort());
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			InputStream in = new BufferedInputStream(socket.getInputStream(), 65536);
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 65536);
+			int database = 0;
+			List<List<byte[]>> queued = null;
+			List<byte[]> command;
+			while ((command = readCommand(in)) != null) {
+				commands.incrementAndGet();
+				String name = string(command.get(0)).toUpperCase();
+				Object reply;
+				if ("SELECT".equals(name)) {
+					database = Integer.parseInt(string(command.get(1)));
+					reply = Status.OK;
+				} else if ("MULTI".equals(name)) {
+					queued = new ArrayList<List<byte[]>>();
+					reply = Status.OK;
+				} else if ("EXEC".equals(name)) {
+					List<Object> replies = new ArrayList<Object>();
+					if (queued != null) {
+						for (List<byte[]> each : queued) {
+							replies.add(execute(database(database), each));
+						}
+					}
+					queued = null;
+					reply = replies;
+				} else if (queued != null) {
+					queued.add(command);
+					reply = new Status("QUEUED");
+				} else if ("SUBSCRIBE".equals(name)) {
+					for (int i = 1; i < command.size(); i++) {
+						String channel = string(command.get(i));
+						List<OutputStream> list = subscribers.get(channel);
+						if (list == null) {
+							subscribers.putIfAbsent(channel, new CopyOnWriteArrayList<OutputStream>());
+							list = subscribers.get(channel);
+						}
+						list.add(out);
+						synchronized (out) {
+							write(out, Arrays.<Object>asList(bytes("subscribe"), command.get(i), (long) i));
+							out.flush();
+						}
+					}
+					continue;
+				} else if ("PUBLISH".equals(name)) {
+					List<OutputStream> list = subscribers.get(string(command.get(1)));
+					if (list == null) {
+						list = Collections.emptyList();
+					}
+					for (OutputStream subscriber : list) {
+						synchronized (subscriber) {
+							write(subscriber, Arrays.<Object>asList(bytes("message"), command.get(1), command.get(2)));
+							subscriber.flush();
+						}
+					}
+					reply = (long) list.size();
+				} else {
+					reply = execute(database(database), command);
+				}
+				synchronized (out) {
+					write(out, reply);
+					//客户端pipeline时等读完一批命令再一起刷出
+					if (in.available() == 0) {
+						out.flush();
+					}
+				}
+			}
+		} catch (IOException e) {
+			//连接断开
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				//忽略
+			}
+		}
+	}
+
+	private ConcurrentSkipListMap<String, Entry> database(int index) {
+		ConcurrentSkipListMap<String, Entry> db = databases.get(index);
+		if (db == null) {
+			databases.putIfAbsent(index, new ConcurrentSkipListMap<String, Entry>());
+			db = databases.get(index);
+		}
+		return db;
+	}
+
+	private Object execute(ConcurrentSkipListMap<String, Entry> db, List<byte[]> command) {
+		try {
+			return doExecute(db, command);
+		} catch (ClassCastException e) {
+			return new Error("WRONGTYPE Operation against a key holding the wrong kind of value");
+		} catch (RuntimeException e) {
+			return new Error("ERR " + e);
+		}
+	}
+
+	private Object doExecute(ConcurrentSkipListMap<String, Entry> db, List<byte[]> c) {
+		String name = string(c.get(0)).toUpperCase();
+		String key = c.size() > 1 ? string(c.get(1)) : null;
+		long now = System.currentTimeMillis();
+		if ("PING".equals(name)) {
+			return new Status("PONG");
+		} else if ("AUTH".equals(name) || "READONLY".equals(name)) {
+			return Status.OK;
+		} else if ("GET".equals(name)) {
+			Entry entry = live(db, key);
+			return entry == null ? null : (byte[]) entry.value;
+		} else if ("SET".equals(name)) {
+			Entry entry = new Entry(c.get(2));
+			boolean nx = false;
+			for (int i = 3; i < c.size(); i++) {
+				String option = string(c.get(i)).toUpperCase();
+				if ("PX".equals(option)) {
+					entry.expireAt = now + Long.parseLong(string(c.get(++i)));
+				} else if ("EX".equals(option)) {
+					entry.expireAt = now + 1000 * Long.parseLong(string(c.get(++i)));
+				} else if ("NX".equals(option)) {
+					nx = true;
+				}
+			}
+			if (nx) {
+				synchronized (db) {
+					if (live(db, key) != null) {
+						return null;
+					}
+					db.put(key, entry);
+				}
+			} else {
+				db.put(key, entry);
+			}
+			return Status.OK;
+		} else if ("SETEX".equals(name)) {
+			Entry entry = new Entry(c.get(3));
+			entry.expireAt = now + 1000 * Long.parseLong(string(c.get(2)));
+			db.put(key, entry);
+			return Status.OK;
+		} else if ("DEL".equals(name)) {
+			long removed = 0;
+			for (int i = 1; i < c.size(); i++) {
+				String each = string(c.get(i));
+				if (live(db, each) != null && db.remove(each) != null) {
+					removed++;
+				}
+			}
+			return removed;
+		} else if ("EXISTS".equals(name)) {
+			return live(db, key) == null ? 0L : 1L;
+		} else if ("EXPIRE".equals(name) || "PEXPIRE".equals(name)) {
+			Entry entry = live(db, key);
+			if (entry == null) {
+				return 0L;
+			}
+			long amount = Long.parseLong(string(c.get(2)));
+			entry.expireAt = now + ("EXPIRE".equals(name) ? amount * 1000 : amount);
+			return 1L;
+		} else if ("PTTL".equals(name) || "TTL".equals(name)) {
+			Entry entry = live(db, key);
+			if (entry == null) {
+				return -2L;
+			}
+			if (entry.expireAt == 0) {
+				return -1L;
+			}
+			long ttl = entry.expireAt - now;
+			return "TTL".equals(name) ? ttl / 1000 : ttl;
+		} else if ("MGET".equals(name)) {
+			List<Object> values = new ArrayList<Object>();
+			for (int i = 1; i < c.size(); i++) {
+				Entry entry = live(db, string(c.get(i)));
+				values.add(entry == null ? null : entry.value);
+			}
+			return values;
+		} else if ("INCR".equals(name) || "INCRBY".equals(name)) {
+			synchronized (db) {
+				Entry entry = live(db, key);
+				long value = entry == null ? 0 : Long.parseLong(string((byte[]) entry.value));
+				value += "INCR".equals(name) ? 1 : Long.parseLong(string(c.get(2)));
+				if (entry == null) {
+					entry = new Entry(null);
+					db.put(key, entry);
+				}
+				entry.value = bytes(Long.toString(value));
+				return value;
+			}
+		} else if ("INCRBYFLOAT".equals(name)) {
+			synchronized (db) {
+				Entry entry = live(db, key);
+				double value = entry == null ? 0 : Double.parseDouble(string((byte[]) entry.value));
+				value += Double.parseDouble(string(c.get(2)));
+				if (entry == null) {
+					entry = new Entry(null);
+					db.put(key, entry);
+				}
+				entry.value = bytes(new java.math.BigDecimal(value).stripTrailingZeros().toPlainString());
+				return entry.value;
+			}
+		} else if ("HSET".equals(name) || "HMSET".equals(name)) {
+			Map<String, byte[]> hash = hash(db, key, true);
+			long added = 0;
+			synchronized (hash) {
+				for (int i = 2; i + 1 < c.size(); i += 2) {
+					if (hash.put(string(c.get(i)), c.get(i + 1)) == null) {
+						added++;
+					}
+				}
+			}
+			return "HSET".equals(name) ? (Object) added : Status.OK;
+		} else if ("HGET".equals(name)) {
+			Map<String, byte[]> hash = hash(db, key, false);
+			if (hash == null) {
+				return null;
+			}
+			synchronized (hash) {
+				return hash.get(string(c.get(2)));
+			}
+		} else if ("HEXISTS".equals(name)) {
+			Map<String, byte[]> hash = hash(db, key, false);
+			if (hash == null) {
+				return 0L;
+			}
+			synchronized (hash) {
+				return hash.containsKey(string(c.get(2))) ? 1L : 0L;
+			}
+		} else if ("HMGET".equals(name)) {
+			Map<String, byte[]> hash = hash(db, key, false);
+			List<Object> values = new ArrayList<Object>();
+			for (int i = 2; i < c.size(); i++) {
+				if (hash == null) {
+					values.add(null);
+				} else {
+					synchronized (hash) {
+						values.add(hash.get(string(c.get(i))));
+					}
+				}
+			}
+			return values;
+		} else if ("HGETALL".equals(name) || "HSCAN".equals(name)) {
+			Map<String, byte[]> hash = hash(db, key, false);
+			List<Object> items = new ArrayList<Object>();
+			if (hash != null) {
+				synchronized (hash) {
+					for (Map.Entry<String, byte[]> field : hash.entrySet()) {
+						items.add(bytes(field.getKey()));
+						items.add(field.getValue());
+					}
+				}
+			}
+			//HSCAN一次返回全部字段
+			return "HSCAN".equals(name) ? Arrays.<Object>asList(bytes("0"), items) : items;
+		} else if ("HDEL".equals(name)) {
+			Map<String, byte[]> hash = hash(db, key, false);
+			long removed = 0;
+			if (hash != null) {
+				synchronized (hash) {
+					for (int i = 2; i < c.size(); i++) {
+						if (hash.remove(string(c.get(i))) != null) {
+							removed++;
+						}
+					}
+					if (hash.isEmpty()) {
+						db.remove(key);
+					}
+				}
+			}
+			return removed;
+		} else if ("HLEN".equals(name)) {
+			Map<String, byte[]> hash = hash(db, key, false);
+			if (hash == null) {
+				return 0L;
+			}
+			synchronized (hash) {
+				return (long) hash.size();
+			}
+		} else if ("HINCRBY".equals(name)) {
+			Map<String, byte[]> hash = hash(db, key, true);
+			synchronized (hash) {
+				byte[] old = hash.get(string(c.get(2)));
+				long value = (old == null ? 0 : Long.parseLong(string(old))) + Long.parseLong(string(c.get(3)));
+				hash.put(string(c.get(2)), bytes(Long.toString(value)));
+				return value;
+			}
+		} else if ("LPUSH".equals(name) || "RPUSH".equals(name)) {
+			List<byte[]> list = list(db, key, true);
+			synchronized (list) {
+				for (int i = 2; i < c.size(); i++) {
+					if ("LPUSH".equals(name)) {
+						list.add(0, c.get(i));
+					} else {
+						list.add(c.get(i));
+					}
+				}
+				return (long) list.size();
+			}
+		} else if ("LLEN".equals(name)) {
+			List<byte[]> list = list(db, key, false);
+			if (list == null) {
+				return 0L;
+			}
+			synchronized (list) {
+				return (long) list.size();
+			}
+		} else if ("LRANGE".equals(name)) {
+			List<byte[]> list = list(db, key, false);
+			List<Object> values = new ArrayList<Object>();
+			if (list != null) {
+				synchronized (list) {
+					int size = list.size();
+					int start = Math.max(0, index(Integer.parseInt(string(c.get(2))), size));
+					int stop = Math.min(size - 1, index(Integer.parseInt(string(c.get(3))), size));
+					for (int i = start; i <= stop; i++) {
+						values.add(list.get(i));
+					}
+				}
+			}
+			return values;
+		} else if ("LTRIM".equals(name)) {
+			List<byte[]> list = list(db, key, false);
+			if (list != null) {
+				synchronized (list) {
+					int size = list.size();
+					int start = Math.max(0, index(Integer.parseInt(string(c.get(2))), size));
+					int stop = Math.min(size - 1, index(Integer.parseInt(string(c.get(3))), size));
+					List<byte[]> kept = start <= stop ? new ArrayList<byte[]>(list.subList(start, stop + 1)) : new ArrayList<byte[]>();
+					list.clear();
+					list.addAll(kept);
+					if (list.isEmpty()) {
+						db.remove(key);
+					}
+				}
+			}
+			return Status.OK;
+		} else if ("SCAN".equals(name)) {
+			return scan(db, c);
+		} else if ("FLUSHDB".equals(name)) {
+			db.clear();
+			return Status.OK;
+		} else if ("DBSIZE".equals(name)) {
+			return (long) db.size();
+		} else if ("INFO".equals(name)) {
+			return bytes("# Replication\r\nrole:master\r\n");
+		}
+		return new Error("ERR unknown command '" + name + "'");
+	}
+
+	/**
+	 * 游标是上一页最后一个key的base64,按key的顺序遍历
+	 */
+	private Object scan(ConcurrentSkipListMap<String, Entry> db, List<byte[]> c) {
+		String cursor = string(c.get(1));
+		String pattern = "*";
+		int count = 10;
+		for (int i = 2; i + 1 < c.size(); i += 2) {
+			String option = string(c.get(i)).toUpperCase();
+			if ("MATCH".equals(option)) {
+				pattern = string(c.get(i + 1));
+			} else if ("COUNT".equals(option)) {
+				count = Integer.parseInt(string(c.get(i + 1)));
+			}
+		}
+		Pattern regex = Pattern.compile(glob(pattern));
+		NavigableMap<String, Entry> tail = "0".equals(cursor) ? db
+				: db.tailMap(string(Base64.getDecoder().decode(cursor)), false);
+		List<Object> keys = new ArrayList<Object>();
+		String last = null;
+		int seen = 0;
+		for (String key : tail.keySet()) {
+			last = key;
+			if (live(db, key) != null && regex.matcher(key).matches()) {
+				keys.add(bytes(key));
+			}
+			if (++seen >= count) {
+				break;
+			}
+		}
+		String next = (last == null || db.higherKey(last) == null) ? "0" : Base64.getEncoder().encodeToString(bytes(last));
+		return Arrays.<Object>asList(bytes(next), keys);
+	}
+
+	private static String glob(String pattern) {
+		StringBuilder regex = new StringBuilder();
+		for (char ch : pattern.toCharArray()) {
+			if (ch == '*') {
+				regex.append(".*");
+			} else if (ch == '?') {
+				regex.append('.');
+			} else {
+				regex.append(Pattern.quote(String.valueOf(ch)));
+			}
+		}
+		return regex.toString();
+	}
+
+	private static int index(int index, int size) {
+		return index < 0 ? size + index : index;
+	}
+
+	private Entry live(Map<String, Entry> db, String key) {
+		Entry entry = db.get(key);
+		if (entry != null && entry.expireAt > 0 && entry.expireAt <= System.currentTimeMillis()) {
+			db.remove(key, entry);
+			return null;
+		}
+		return entry;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, byte[]> hash(ConcurrentSkipListMap<String, Entry> db, String key, boolean create) {
+		Entry entry = live(db, key);
+		if (entry == null) {
+			if (!create) {
+				return null;
+			}
+			Entry created = new Entry(new LinkedHashMap<String, byte[]>());
+			entry = db.putIfAbsent(key, created);
+			if (entry == null) {
+				entry = created;
+			}
+		}
+		return (Map<String, byte[]>) entry.value;
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<byte[]> list(ConcurrentSkipListMap<String, Entry> db, String key, boolean create) {
+		Entry entry = live(db, key);
+		if (entry == null) {
+			if (!create) {
+				return null;
+			}
+			Entry created = new Entry(new ArrayList<byte[]>());
+			entry = db.putIfAbsent(key, created);
+			if (entry == null) {
+				entry = created;
+			}
+		}
+		return (List<byte[]>) entry.value;
+	}
+
+	private static List<byte[]> readCommand(InputStream in) throws IOException {
+		int type = in.read();
+		if (type < 0) {
+			return null;
+		}
+		if (type != '*') {
+			throw new IOException("只支持数组形式的命令");
+		}
+		int count = Integer.parseInt(readLine(in));
+		List<byte[]> command = new ArrayList<byte[]>(count);
+		for (int i = 0; i < count; i++) {
+			if (in.read() != '$') {
+				throw new IOException("命令参数必须是批量字符串");
+			}
+			int length = Integer.parseInt(readLine(in));
+			byte[] arg = new byte[length];
+			int offset = 0;
+			while (offset < length) {
+				int read = in.read(arg, offset, length - offset);
+				if (read < 0) {
+					throw new EOFException();
+				}
+				offset += read;
+			}
+			in.read();
+			in.read();
+			command.add(arg);
+		}
+		return command;
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int ch;
+		while ((ch = in.read()) != '\r') {
+			if (ch < 0) {
+				throw new EOFException();
+			}
+			sb.append((char) ch);
+		}
+		in.read();
+		return sb.toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void write(OutputStream out, Object reply) throws IOException {
+		if (reply == null) {
+			out.write(bytes("$-1\r\n"));
+		} else if (reply instanceof Status) {
+			out.write('+');
+			out.write(bytes(((Status) reply).text));
+			out.write(CRLF);
+		} else if (reply instanceof Error) {
+			out.write('-');
+			out.write(bytes(((Error) reply).text));
+			out.write(CRLF);
+		} else if (reply instanceof Long) {
+			out.write(bytes(":" + reply + "\r\n"));
+		} else if (reply instanceof byte[]) {
+			byte[] value = (byte[]) reply;
+			out.write(bytes("$" + value.length + "\r\n"));
+			out.write(value);
+			out.write(CRLF);
+		} else {
+			List<Object> list = (List<Object>) reply;
+			out.write(bytes("*" + list.size() + "\r\n"));
+			for (Object each : list) {
+				write(out, each);
+			}
+		}
+	}
+
+	private static String string(byte[] bytes) {
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	private static byte[] bytes(String string) {
+		return string.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	private static class Entry {
+
+		volatile Object value;
+
+		volatile long expireAt;
+
+		Entry(Object value) {
+			this.value = value;
+		}
+
+	}
+
+	private static class Status {
+
+		static final Status OK = new Status("OK");
+
+		final String text;
+
+		Status(String text) {
+			this.text = text;
+		}
+
+	}
+
+	private static class Error {
+
+		final String text;
+
+		Error(String text) {
+			this.text = text;
+		}
+
+	}
+
+}
@@ -0,0 +1,110 @@
+package com.purpose.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.shiro.session.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.purpose.shiro.ShiroSessionRepository;
+import com.purpose.shiro.impl.JedisShiroHashSessionRepository;
+import com.purpose.shiro.impl.JedisShiroSessionRepository;
+import com.purpose.shiro.session.TrackedSession;
+/**
+ * session的保存和读取,包含编解码和一次(或一批)网络往返。
+ * 每个线程操作自己的session,repository为string时整体保存,为hash时按字段保存
+ * @version V1.0
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class RepositoryState {
+
+		@Param({ "string", "hash" })
+		public String repository;
+
+		@Param({ "java" })
+		public String codecName;
+
+		public ShiroSessionRepository sessionRepository;
+
+		@Setup(Level.Trial)
+		public void setup(RedisState redis) {
+			if ("hash".equals(repository)) {
+				JedisShiroHashSessionRepository hashRepository = new JedisShiroHashSessionRepository();
+				hashRepository.setRedisManager(redis.redisManager);
+				hashRepository.setCodec(Fixtures.codec(codecName));
+				sessionRepository = hashRepository;
+			} else {
+				JedisShiroSessionRepository stringRepository = new JedisShiroSessionRepository();
+				stringRepository.setRedisManager(redis.redisManager);
+				stringRepository.setCodec(Fixtures.codec(codecName));
+				stringRepository.setDirtyTracking(true);
+				sessionRepository = stringRepository;
+			}
+		}
+
+	}
+
+	@State(Scope.Thread)
+	public static class SessionState {
+
+		@Param({ Fixtures.SMALL, Fixtures.LARGE })
+		public String size;
+
+		public TrackedSession session;
+
+		public int counter;
+
+		@Setup(Level.Trial)
+		public void setup(RepositoryState state) {
+			session = Fixtures.session(size);
+			state.sessionRepository.saveSession(session);
+		}
+
+	}
+
+	/**
+	 * 修改一个属性后保存
+	 */
+	@Benchmark
+	public void save(RepositoryState state, SessionState session) {
+		session.session.setAttribute("counter", session.counter++);
+		state.sessionRepository.saveSession(session.session);
+	}
+
+	/**
+	 * 读取并读一个属性(hash存储时会触发属性的懒加载)
+	 */
+	@Benchmark
+	public Object read(RepositoryState state, SessionState session) {
+		Session read = state.sessionRepository.getSession(session.session.getId());
+		return read.getAttribute("attribute0");
+	}
+
+	/**
+	 * 一次典型请求:读取、修改一个属性、保存
+	 */
+	@Benchmark
+	public void readUpdateSave(RepositoryState state, SessionState session) {
+		Session read = state.sessionRepository.getSession(session.session.getId());
+		read.setAttribute("counter", session.counter++);
+		state.sessionRepository.saveSession(read);
+	}
+
+}
@@ -0,0 +1,379 @@
+package com.purpose.benchmark;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.cache.Cache;
+import org.apache.shiro.session.InvalidSessionException;
+import org.apache.shiro.session.Session;
+import org.apache.shiro.session.mgt.DefaultSessionContext;
+import org.apache.shiro.session.mgt.DefaultSessionKey;
+import org.apache.shiro.session.mgt.DefaultSessionManager;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+
+import com.purpose.cache.CustomShiroCacheManager;
+import com.purpose.cache.CustomShiroSessionDao;
+import com.purpose.cache.RedisManager;
+import com.purpose.metrics.HitRatio;
+import com.purpose.metrics.LatencyHistogram;
+import com.purpose.metrics.RedisMetrics;
+import com.purpose.shiro.ShiroSessionRepository;
+import com.purpose.shiro.impl.JedisShiroCacheManager;
+import com.purpose.shiro.impl.JedisShiroHashSessionRepository;
+import com.purpose.shiro.impl.JedisShiroSessionRepository;
+import com.purpose.shiro.session.TrackedSessionFactory;
+/**
+ * 端到端的session压测:模拟N个并发用户,按shiro的SessionManager的方式驱动CustomShiroSessionDao和CustomShiroCacheManager。
+ * 每个用户依次:登录创建session → 若干次请求(读取、touch、读身份、查授权缓存,偶尔修改属性) → 退出或放任过期,然后换一个用户重来。
+ * 定时输出每秒请求数和请求延迟的分位数,结束时汇总每个请求的redis往返次数;
+ * 连接替身服务器时还能统计每个请求产生的redis命令数。
+ * 参数为key=value形式,例如:users=200 duration=60 transport=nio repository=hash
+ * @version V1.0
+ */
+public class SessionLoadHarness {
+
+	private static final String AUTHORIZATION_CACHE = "authorizationCache";
+
+	//并发用户数(线程数)
+	private int users = 100;
+	//压测时间(秒),不含预热
+	private int duration = 30;
+	//预热时间(秒),期间的数据不计入结果
+	private int warmup = 5;
+	//输出间隔(秒)
+	private int reportInterval = 5;
+	//每个用户登录后的请求数范围
+	private int minRequests = 5;
+	private int maxRequests = 50;
+	//请求中修改session属性的比例
+	private double writeRatio = 0.1;
+	//主动退出的比例,其余的放任过期
+	private double logoutRatio = 0.7;
+	//用户名的范围,决定授权缓存的命中率
+	private int population = 10000;
+	//两次请求之间的思考时间(毫秒)
+	private int thinkTime = 0;
+	//session超时时间(秒)
+	private int sessionTimeout = 1800;
+	//授权信息的规模
+	private String size = Fixtures.SMALL;
+	private String transport = RedisManager.TRANSPORT_JEDIS;
+	//string为整体保存,hash为按字段保存
+	private String repository = "string";
+	private String codec = "java";
+	private int connections = 32;
+	//为空时启动进程内的替身服务器
+	private String host;
+	private int port = 6379;
+
+	private final LatencyHistogram total = new LatencyHistogram();
+
+	private final LatencyHistogram interval = new LatencyHistogram();
+
+	private final LongAdder sessionsCreated = new LongAdder();
+
+	private final LongAdder logouts = new LongAdder();
+
+	private final LongAdder abandoned = new LongAdder();
+
+	private final LongAdder errors = new LongAdder();
+
+	private final RedisMetrics metrics = new RedisMetrics();
+
+	private RespStubServer server;
+
+	private RedisManager redisManager;
+
+	private DefaultSessionManager sessionManager;
+
+	private Cache<Object, AuthorizationInfo> authorizationCache;
+
+	private volatile boolean running = true;
+
+	public static void main(String[] args) throws Exception {
+		SessionLoadHarness harness = new SessionLoadHarness();
+		harness.configure(args);
+		harness.run();
+	}
+
+	private void configure(String[] args) {
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+			if (index <= 0) {
+				throw new IllegalArgumentException("参数格式应为key=value:" + arg);
+			}
+			options.put(arg.substring(0, index).replaceFirst("^-+", ""), arg.substring(index + 1));
+		}
+		users = intOption(options, "users", users);
+		duration = intOption(options, "duration", duration);
+		warmup = intOption(options, "warmup", warmup);
+		reportInterval = intOption(options, "reportInterval", reportInterval);
+		minRequests = intOption(options, "minRequests", minRequests);
+		maxRequests = Math.max(minRequests, intOption(options, "maxRequests", maxRequests));
+		writeRatio = Double.parseDouble(stringOption(options, "writeRatio", String.valueOf(writeRatio)));
+		logoutRatio = Double.parseDouble(stringOption(options, "logoutRatio", String.valueOf(logoutRatio)));
+		population = intOption(options, "population", population);
+		thinkTime = intOption(options, "thinkTime", thinkTime);
+		sessionTimeout = intOption(options, "sessionTimeout", sessionTimeout);
+		size = stringOption(options, "size", size);
+		transport = stringOption(options, "transport", transport);
+		repository = stringOption(options, "repository", repository);
+		codec = stringOption(options, "codec", codec);
+		connections = intOption(options, "connections", connections);
+		host = stringOption(options, "host", host);
+		port = intOption(options, "port", port);
+		if (!options.isEmpty()) {
+			throw new IllegalArgumentException("未知的参数:" + options.keySet());
+		}
+	}
+
+	private static int intOption(Map<String, String> options, String name, int defaultValue) {
+		String value = options.remove(name);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+
+	private static String stringOption(Map<String, String> options, String name, String defaultValue) {
+		String value = options.remove(name);
+		return value == null ? defaultValue : value;
+	}
+
+	private void setUp() throws IOException {
+		String redisHost = host;
+		int redisPort = port;
+		if (redisHost == null) {
+			server = new RespStubServer();
+			redisHost = server.getHost();
+			redisPort = server.getPort();
+		}
+		metrics.init();
+		redisManager = new RedisManager();
+		redisManager.setMetrics(metrics);
+		redisManager.setCodec(Fixtures.codec(codec));
+		redisManager.setHost(redisHost);
+		redisManager.setPort(redisPort);
+		redisManager.setTransportType(transport);
+		redisManager.setMaxActive(connections);
+		redisManager.setMaxIdle(connections);
+		redisManager.setMaxWait(2000);
+		redisManager.init();
+
+		ShiroSessionRepository sessionRepository;
+		if ("hash".equals(repository)) {
+			JedisShiroHashSessionRepository hashRepository = new JedisShiroHashSessionRepository();
+			hashRepository.setRedisManager(redisManager);
+			sessionRepository = hashRepository;
+		} else {
+			JedisShiroSessionRepository stringRepository = new JedisShiroSessionRepository();
+			stringRepository.setRedisManager(redisManager);
+			stringRepository.setDirtyTracking(true);
+			sessionRepository = stringRepository;
+		}
+		CustomShiroSessionDao sessionDao = new CustomShiroSessionDao();
+		sessionDao.setShiroSessionRepository(sessionRepository);
+		sessionDao.setMetrics(metrics);
+
+		sessionManager = new DefaultSessionManager();
+		sessionManager.setSessionDAO(sessionDao);
+		sessionManager.setSessionFactory(new TrackedSessionFactory());
+		sessionManager.setGlobalSessionTimeout(sessionTimeout * 1000L);
+		sessionManager.setSessionValidationSchedulerEnabled(false);
+		sessionManager.setDeleteInvalidSessions(true);
+
+		JedisShiroCacheManager jedisCacheManager = new JedisShiroCacheManager();
+		jedisCacheManager.setRedisManager(redisManager);
+		CustomShiroCacheManager cacheManager = new CustomShiroCacheManager();
+		cacheManager.setShrioCacheManager(jedisCacheManager);
+		authorizationCache = cacheManager.getCache(AUTHORIZATION_CACHE);
+	}
+
+	private void tearDown() throws IOException {
+		redisManager.destroy();
+		metrics.destroy();
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	private void run() throws Exception {
+		setUp();
+		System.out.println(String.format("users=%d duration=%ds transport=%s repository=%s codec=%s redis=%s",
+				users, duration, transport, repository, codec, server == null ? host + ":" + port : "stub"));
+		Thread[] workers = new Thread[users];
+		for (int i = 0; i < users; i++) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (running) {
+						simulateUser();
+					}
+				}
+			}, "load-user-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+
+		TimeUnit.SECONDS.sleep(warmup);
+		total.reset();
+		interval.reset();
+		metrics.reset();
+		long startCommands = commandCount();
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(duration);
+		long lastReport = start;
+		while (System.nanoTime() < end) {
+			TimeUnit.MILLISECONDS.sleep(Math.min(TimeUnit.SECONDS.toMillis(reportInterval),
+					Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()))));
+			long now = System.nanoTime();
+			long count = interval.getCount();
+			System.out.println(String.format("[%4ds] %8.0f req/s  p50=%6dus  p99=%6dus  p999=%6dus  max=%6dus",
+					TimeUnit.NANOSECONDS.toSeconds(now - start), count * 1e9 / (now - lastReport),
+					micros(interval.getPercentile(0.5)), micros(interval.getPercentile(0.99)),
+					micros(interval.getPercentile(0.999)), micros(interval.getMax())));
+			interval.reset();
+			lastReport = now;
+		}
+		long elapsed = System.nanoTime() - start;
+		long commands = commandCount() - startCommands;
+		long requests = total.getCount();
+		Map<String, Number> snapshot = metrics.snapshot();
+		running = false;
+		for (Thread worker : workers) {
+			worker.join(TimeUnit.SECONDS.toMillis(10));
+		}
+
+		System.out.println("---- summary ----");
+		System.out.println(String.format("requests=%d  throughput=%.0f req/s  sessions=%d  logouts=%d  abandoned=%d  errors=%d",
+				requests, requests * 1e9 / elapsed, sessionsCreated.sum(), logouts.sum(), abandoned.sum(), errors.sum()));
+		System.out.println(String.format("latency p50=%dus p99=%dus p999=%dus max=%dus mean=%dus",
+				micros(total.getPercentile(0.5)), micros(total.getPercentile(0.99)),
+				micros(total.getPercentile(0.999)), micros(total.getMax()), micros(total.getMean())));
+		System.out.println(String.format("redis round trips/request=%.2f  commands/request=%s",
+				(double) roundTrips(snapshot) / Math.max(1, requests),
+				server == null ? "n/a" : String.format("%.2f", (double) commands / Math.max(1, requests))));
+		HitRatio sessionReads = metrics.hitRatio("session.getSession");
+		HitRatio cacheReads = metrics.hitRatio("cache." + AUTHORIZATION_CACHE);
+		System.out.println(String.format("session reads=%d (hit %.3f)  authorization cache reads=%d (hit %.3f)",
+				sessionReads.getHits() + sessionReads.getMisses(), sessionReads.getRatio(),
+				cacheReads.getHits() + cacheReads.getMisses(), cacheReads.getRatio()));
+		tearDown();
+	}
+
+	/**
+	 * 一个用户从登录到退出(或放任过期)的过程,登录、每次请求和退出各算一次请求
+	 */
+	private void simulateUser() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		String username = "user" + random.nextInt(population);
+		Serializable sessionId;
+		try {
+			long start = System.nanoTime();
+			DefaultSessionContext context = new DefaultSessionContext();
+			context.setHost("10.0." + random.nextInt(256) + "." + random.nextInt(256));
+			Session session = sessionManager.start(context);
+			session.setAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY, new SimplePrincipalCollection(username, "jdbcRealm"));
+			session.setAttribute(DefaultSubjectContext.AUTHENTICATED_SESSION_KEY, Boolean.TRUE);
+			sessionId = session.getId();
+			sessionsCreated.increment();
+			record(start);
+		} catch (RuntimeException e) {
+			errors.increment();
+			return;
+		}
+		int requests = minRequests + random.nextInt(maxRequests - minRequests + 1);
+		for (int i = 0; i < requests && running; i++) {
+			think();
+			long start = System.nanoTime();
+			try {
+				request(sessionId, i);
+				record(start);
+			} catch (InvalidSessionException e) {
+				errors.increment();
+				return;
+			} catch (RuntimeException e) {
+				errors.increment();
+			}
+		}
+		if (random.nextDouble() < logoutRatio) {
+			long start = System.nanoTime();
+			try {
+				sessionManager.getSession(new DefaultSessionKey(sessionId)).stop();
+				logouts.increment();
+				record(start);
+			} catch (RuntimeException e) {
+				errors.increment();
+			}
+		} else {
+			abandoned.increment();
+		}
+	}
+
+	/**
+	 * 一次web请求对session和授权缓存的访问:
+	 * 取session并touch,读取身份,查授权信息(未命中时由realm加载后写入),偶尔修改属性
+	 * @param sessionId
+	 * @param sequence
+	 */
+	private void request(Serializable sessionId, int sequence) {
+		Session session = sessionManager.getSession(new DefaultSessionKey(sessionId));
+		session.touch();
+		PrincipalCollection principals = (PrincipalCollection) session.getAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY);
+		Object principal = principals.getPrimaryPrincipal();
+		AuthorizationInfo info = authorizationCache.get(principal);
+		if (info == null) {
+			authorizationCache.put(principal, Fixtures.authorizationInfo(size));
+		}
+		if (ThreadLocalRandom.current().nextDouble() < writeRatio) {
+			session.setAttribute("lastPage", "/page/" + sequence);
+		}
+	}
+
+	private void think() {
+		if (thinkTime > 0) {
+			try {
+				TimeUnit.MILLISECONDS.sleep(thinkTime);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void record(long start) {
+		long elapsed = System.nanoTime() - start;
+		total.record(elapsed);
+		interval.record(elapsed);
+	}
+
+	private long commandCount() {
+		return server == null ? 0 : server.getCommandCount();
+	}
+
+	/**
+	 * 传输层记录的命令和pipeline次数之和,即网络往返次数
+	 * @param snapshot
+	 * @return
+	 */
+	private static long roundTrips(Map<String, Number> snapshot) {
+		long count = 0;
+		for (Map.Entry<String, Number> entry : snapshot.entrySet()) {
+			String name = entry.getKey();
+			if (name.startsWith("redis.") && name.endsWith(".count") && !name.contains(".pool.")) {
+				count += entry.getValue().longValue();
+			}
+		}
+		return count;
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+}
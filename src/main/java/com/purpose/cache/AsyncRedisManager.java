@@ -0,0 +1,304 @@
+package com.purpose.cache;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+/**
+ * RedisManager的异步版本,每个方法在executor上执行对应的同步方法并返回CompletableFuture,
+ * 调用线程不会阻塞在借连接和网络读写上,互不依赖的操作可以并行发出,例如同时读取session和授权缓存:
+ * <pre>
+ * CompletableFuture&lt;byte[]&gt; session = async.get(sessionKey);
+ * CompletableFuture&lt;byte[]&gt; authz = async.get(authzKey);
+ * session.thenCombine(authz, ...);
+ * </pre>
+ * 操作仍然占用连接池中的连接,并发度受maxActive和maxWait限制。
+ * 未设置executor时,virtualThreads为true且运行在支持虚拟线程的JDK上时每个操作使用一个虚拟线程,
+ * 否则使用与连接池同样大小的固定线程池。
+ * @version V1.0
+ */
+public class AsyncRedisManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(AsyncRedisManager.class);
+
+	private RedisManager redisManager;
+
+	//执行操作的线程池,为null时在第一次使用时创建
+	private Executor executor;
+	//自己创建的线程池,destroy时关闭
+	private ExecutorService ownedExecutor;
+	//未设置executor时是否优先使用虚拟线程
+	private boolean virtualThreads = false;
+	//未设置executor且不使用虚拟线程时的线程数,为0时等于redisManager的maxActive
+	private int threads = 0;
+
+	public AsyncRedisManager() {
+
+	}
+
+	public AsyncRedisManager(RedisManager redisManager) {
+		this.redisManager = redisManager;
+	}
+
+	/**
+	 * 关闭自己创建的线程池,外部设置的executor由调用方负责关闭
+	 */
+	public synchronized void destroy() {
+		if (ownedExecutor != null) {
+			ownedExecutor.shutdown();
+			ownedExecutor = null;
+			executor = null;
+		}
+	}
+
+	/**
+	 * 等待所有future完成,结果与参数的顺序一一对应;任何一个失败时返回的future也失败
+	 * @param futures
+	 * @return
+	 */
+	public static <T> CompletableFuture<List<T>> allOf(final List<CompletableFuture<T>> futures) {
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+				.thenApply(ignored -> {
+					List<T> result = new ArrayList<T>(futures.size());
+					for (CompletableFuture<T> future : futures) {
+						result.add(future.join());
+					}
+					return result;
+				});
+	}
+
+	public CompletableFuture<byte[]> get(byte[] key) {
+		return submit(() -> redisManager.get(key));
+	}
+
+	public CompletableFuture<String> get(String key) {
+		return submit(() -> redisManager.get(key));
+	}
+
+	public CompletableFuture<ExpiringValue> getWithTtl(byte[] key) {
+		return submit(() -> redisManager.getWithTtl(key));
+	}
+
+	public CompletableFuture<byte[]> set(byte[] key, byte[] value) {
+		return submit(() -> redisManager.set(key, value));
+	}
+
+	public CompletableFuture<byte[]> set(byte[] key, byte[] value, int expire) {
+		return submit(() -> redisManager.set(key, value, expire));
+	}
+
+	public CompletableFuture<String> set(String key, String value) {
+		return submit(() -> redisManager.set(key, value));
+	}
+
+	public CompletableFuture<String> set(String key, String value, int expire) {
+		return submit(() -> redisManager.set(key, value, expire));
+	}
+
+	public CompletableFuture<Void> del(byte[] key) {
+		return submit(() -> {
+			redisManager.del(key);
+			return null;
+		});
+	}
+
+	public CompletableFuture<Void> del(String key) {
+		return submit(() -> {
+			redisManager.del(key);
+			return null;
+		});
+	}
+
+	public CompletableFuture<Long> expire(byte[] key, int seconds) {
+		return submit(() -> redisManager.expire(key, seconds));
+	}
+
+	public CompletableFuture<List<byte[]>> multiGet(List<byte[]> keys) {
+		return submit(() -> redisManager.multiGet(keys));
+	}
+
+	public CompletableFuture<Void> multiSet(List<BatchEntry<byte[], byte[]>> entries) {
+		return submit(() -> {
+			redisManager.multiSet(entries);
+			return null;
+		});
+	}
+
+	public CompletableFuture<Long> multiDel(List<byte[]> keys) {
+		return submit(() -> redisManager.multiDel(keys));
+	}
+
+	public CompletableFuture<Boolean> xlExists(String key) {
+		return submit(() -> redisManager.xlExists(key));
+	}
+
+	public CompletableFuture<Long> xlExpire(String key, int seconds) {
+		return submit(() -> redisManager.xlExpire(key, seconds));
+	}
+
+	public CompletableFuture<Long> xlDel(String key) {
+		return submit(() -> redisManager.xlDel(key));
+	}
+
+	public CompletableFuture<String> xlSet(String key, Object value) {
+		return submit(() -> redisManager.xlSet(key, value));
+	}
+
+	public CompletableFuture<Object> xlGet(String key) {
+		return submit(() -> redisManager.xlGet(key));
+	}
+
+	public CompletableFuture<String> xlSetMap(String key, Map<String, Object> value) {
+		return submit(() -> redisManager.xlSetMap(key, value));
+	}
+
+	public CompletableFuture<Map<String, Object>> xlGetMap(String key) {
+		return submit(() -> redisManager.xlGetMap(key));
+	}
+
+	public CompletableFuture<String> xlMapAppend(String key, Map<String, Object> value) {
+		return submit(() -> redisManager.xlMapAppend(key, value));
+	}
+
+	public CompletableFuture<String> xlMapRemove(String key, String[] mapkey) {
+		return submit(() -> redisManager.xlMapRemove(key, mapkey));
+	}
+
+	public <T> CompletableFuture<Long> xlSetListObject(String key, List<T> list) {
+		return submit(() -> redisManager.xlSetListObject(key, list));
+	}
+
+	public <T> CompletableFuture<List<T>> xlGetListObject(String key) {
+		return submit(() -> redisManager.<T>xlGetListObject(key));
+	}
+
+	public <T> CompletableFuture<Long> xlListObjectAppend(String key, List<T> value) {
+		return submit(() -> redisManager.xlListObjectAppend(key, value));
+	}
+
+	public CompletableFuture<List<Object>> xlMultiGet(List<String> keys) {
+		return submit(() -> redisManager.xlMultiGet(keys));
+	}
+
+	public CompletableFuture<Void> xlMultiSet(List<BatchEntry<String, Object>> entries) {
+		return submit(() -> {
+			redisManager.xlMultiSet(entries);
+			return null;
+		});
+	}
+
+	public CompletableFuture<Long> xlMultiDel(List<String> keys) {
+		return submit(() -> redisManager.xlMultiDel(keys));
+	}
+
+	/**
+	 * 在executor上执行操作,executor拒绝时返回失败的future而不是抛出异常
+	 * @param task
+	 * @return
+	 */
+	private <T> CompletableFuture<T> submit(Supplier<T> task) {
+		redisManager.init();
+		try {
+			return CompletableFuture.supplyAsync(task, getExecutor());
+		} catch (RejectedExecutionException e) {
+			CompletableFuture<T> failed = new CompletableFuture<T>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+	}
+
+	/**
+	 * 获取executor,未设置时创建一个
+	 * @return
+	 */
+	public Executor getExecutor() {
+		Executor current = executor;
+		if (current != null) {
+			return current;
+		}
+		synchronized (this) {
+			if (executor == null) {
+				ownedExecutor = virtualThreads ? newVirtualThreadExecutor() : null;
+				if (ownedExecutor == null) {
+					int size = threads > 0 ? threads : Math.max(1, redisManager.getMaxActive());
+					ownedExecutor = Executors.newFixedThreadPool(size, new DaemonThreadFactory());
+				}
+				executor = ownedExecutor;
+			}
+			return executor;
+		}
+	}
+
+	/**
+	 * 通过反射创建虚拟线程executor,以便在java 8上编译运行;JDK不支持时返回null
+	 * @return
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (Exception e) {
+			logger.warn("当前JDK不支持虚拟线程,改用固定线程池");
+			return null;
+		}
+	}
+
+	/**
+	 * 创建守护线程,避免阻止应用退出
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+
+		private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+		private final int poolNumber = POOL_NUMBER.incrementAndGet();
+
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "redis-async-" + poolNumber + "-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	}
+
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public RedisManager getRedisManager() {
+		return redisManager;
+	}
+
+	public void setRedisManager(RedisManager redisManager) {
+		this.redisManager = redisManager;
+	}
+
+}
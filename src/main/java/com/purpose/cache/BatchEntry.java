@@ -0,0 +1,38 @@
+package com.purpose.cache;
+
+/**
+ * 批量写入时的单个条目,每个条目可以有自己的过期时间
+ * @version V1.0
+ */
+public class BatchEntry<K, V> {
+
+	private final K key;
+
+	private final V value;
+
+	//过期时间(秒),为0时不过期
+	private final int expire;
+
+	public BatchEntry(K key, V value) {
+		this(key, value, 0);
+	}
+
+	public BatchEntry(K key, V value, int expire) {
+		this.key = key;
+		this.value = value;
+		this.expire = expire;
+	}
+
+	public K getKey() {
+		return key;
+	}
+
+	public V getValue() {
+		return value;
+	}
+
+	public int getExpire() {
+		return expire;
+	}
+
+}
@@ -2,11 +2,17 @@ package com.purpose.cache;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import org.apache.shiro.session.Session;
 import org.apache.shiro.session.UnknownSessionException;
 import org.apache.shiro.session.mgt.eis.AbstractSessionDAO;
+import org.apache.shiro.util.ThreadContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import com.purpose.metrics.HitRatio;
+import com.purpose.metrics.RedisMetrics;
 import com.purpose.shiro.ShiroSessionRepository;
 /**
  * 自定义Session处理类
@@ -20,6 +26,23 @@ public class CustomShiroSessionDao extends AbstractSessionDAO {
 	
 	private ShiroSessionRepository shiroSessionRepository;
 
+	//读取session的命中率,设置metrics后才统计
+	private HitRatio readHitRatio;
+
+	//请求内的session缓存命中率,设置metrics后才统计
+	private HitRatio memoHitRatio;
+
+	/**
+	 * 是否在一次请求内缓存读到的session。Shiro在一次请求中会多次readSession(touch、getAttribute、校验等),
+	 * 开启后只有第一次读redis,之后直接返回同一个已解码的session,update、doCreate和delete同步更新缓存。
+	 * 缓存放在Shiro的ThreadContext中,只在beginMemo和clearMemo之间(或callWithMemo内)生效,
+	 * 由调用方在请求的边界(例如ShiroFilter之内的过滤器或Subject.execute的Callable)开启和清除,
+	 * 其他时候(包括只绑定了Subject的线程)每次都读redis
+	 */
+	private boolean requestMemo = false;
+
+	private final String memoKey = CustomShiroSessionDao.class.getName() + "_MEMO_" + System.identityHashCode(this);
+
 	public ShiroSessionRepository getShiroSessionRepository() {
 		return shiroSessionRepository;
 	}
@@ -28,6 +51,59 @@ public class CustomShiroSessionDao extends AbstractSessionDAO {
 		this.shiroSessionRepository = shiroSessionRepository;
 	}
 
+	/**
+	 * 设置指标注册中心,读取session的命中/未命中记为session.getSession
+	 * @param metrics
+	 */
+	public void setMetrics(RedisMetrics metrics) {
+		this.readHitRatio = metrics == null ? null : metrics.hitRatio("session.getSession");
+		this.memoHitRatio = metrics == null ? null : metrics.hitRatio("session.requestMemo");
+	}
+
+	public boolean isRequestMemo() {
+		return requestMemo;
+	}
+
+	public void setRequestMemo(boolean requestMemo) {
+		this.requestMemo = requestMemo;
+	}
+
+	/**
+	 * 在当前线程开启请求内的session缓存,需要在finally中调用clearMemo
+	 * @return 是否新开启;未设置requestMemo或已经开启时返回false,此时不应调用clearMemo,由外层清除
+	 */
+	public boolean beginMemo() {
+		if (!requestMemo || ThreadContext.get(memoKey) != null) {
+			return false;
+		}
+		ThreadContext.put(memoKey, new HashMap<Serializable, Session>(4));
+		return true;
+	}
+
+	/**
+	 * 清除当前线程的请求内session缓存
+	 */
+	public void clearMemo() {
+		ThreadContext.remove(memoKey);
+	}
+
+	/**
+	 * 在请求内的session缓存中执行callable,结束后清除缓存;已经开启时沿用外层的缓存
+	 * @param callable
+	 * @return callable的结果
+	 * @throws Exception callable抛出的异常
+	 */
+	public <V> V callWithMemo(Callable<V> callable) throws Exception {
+		boolean begun = beginMemo();
+		try {
+			return callable.call();
+		} finally {
+			if (begun) {
+				clearMemo();
+			}
+		}
+	}
+
 	@Override
 	public void delete(Session session) {
 		if (session == null) {
@@ -35,8 +111,12 @@ public class CustomShiroSessionDao extends AbstractSessionDAO {
 			return;
 		}
 		Serializable id = session.getId();
-		if (id != null)
+		if (id != null) {
 			getShiroSessionRepository().deleteSession(id);
+			Map<Serializable, Session> memo = memo();
+			if (memo != null)
+				memo.remove(id);
+		}
 	}
 
 	@Override
@@ -47,6 +127,7 @@ public class CustomShiroSessionDao extends AbstractSessionDAO {
 	@Override
 	public void update(Session session) throws UnknownSessionException {
 		getShiroSessionRepository().saveSession(session);
+		remember(session);
 	}
 
 	@Override
@@ -54,12 +135,49 @@ public class CustomShiroSessionDao extends AbstractSessionDAO {
 		Serializable sessionId = this.generateSessionId(session);
 		this.assignSessionId(session, sessionId);
 		getShiroSessionRepository().saveSession(session);
+		remember(session);
 		return sessionId;
 	}
 
 	@Override
 	protected Session doReadSession(Serializable sessionId) {
-		return getShiroSessionRepository().getSession(sessionId);
+		Map<Serializable, Session> memo = memo();
+		Session session = memo == null ? null : memo.get(sessionId);
+		if (memo != null && memoHitRatio != null) {
+			memoHitRatio.record(session != null);
+		}
+		if (session != null) {
+			return session;
+		}
+		session = getShiroSessionRepository().getSession(sessionId);
+		if (readHitRatio != null) {
+			readHitRatio.record(session != null);
+		}
+		remember(session);
+		return session;
+	}
+
+	/**
+	 * 把session放入当前请求的缓存
+	 * @param session
+	 */
+	private void remember(Session session) {
+		if (session == null || session.getId() == null) {
+			return;
+		}
+		Map<Serializable, Session> memo = memo();
+		if (memo != null) {
+			memo.put(session.getId(), session);
+		}
+	}
+
+	/**
+	 * 当前请求的session缓存,没有通过beginMemo开启时返回null
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<Serializable, Session> memo() {
+		return (Map<Serializable, Session>) ThreadContext.get(memoKey);
 	}
 
 }
\ No newline at end of file
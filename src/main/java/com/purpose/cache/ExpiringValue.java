@@ -0,0 +1,27 @@
+package com.purpose.cache;
+
+/**
+ * 值和它的剩余存活时间
+ * @version V1.0
+ */
+public class ExpiringValue {
+
+	private final byte[] value;
+
+	//剩余存活时间(毫秒),-1表示没有过期时间,-2表示key不存在
+	private final long ttl;
+
+	public ExpiringValue(byte[] value, long ttl) {
+		this.value = value;
+		this.ttl = ttl;
+	}
+
+	public byte[] getValue() {
+		return value;
+	}
+
+	public long getTtl() {
+		return ttl;
+	}
+
+}
@@ -0,0 +1,32 @@
+package com.purpose.cache;
+
+/**
+ * getOrLoad的结果:值和它是否命中。
+ * redis中有未逻辑过期的值时算命中,包括自己提前刷新的情况;值不存在或已逻辑过期、由自己或其他调用方加载时不算命中。
+ * 本进程内合并的调用方共享同一个结果
+ * @version V1.0
+ */
+public class LoadResult {
+
+	private final byte[] value;
+
+	private final boolean hit;
+
+	public LoadResult(byte[] value, boolean hit) {
+		this.value = value;
+		this.hit = hit;
+	}
+
+	/**
+	 * 值本身,loader返回null时为null
+	 * @return
+	 */
+	public byte[] getValue() {
+		return value;
+	}
+
+	public boolean isHit() {
+		return hit;
+	}
+
+}
@@ -0,0 +1,117 @@
+package com.purpose.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.purpose.codec.Codec;
+/**
+ * getOrLoad写入redis的值:2字节标记、8字节逻辑过期时间(毫秒时间戳)、4字节上次加载耗时(毫秒),之后是值本身。
+ * redis中的实际存活时间比逻辑过期时间多出一段,逻辑过期后旧值仍然可以在重新加载期间返回给其他调用方。
+ * 不以标记开头的值(例如通过set、put写入的)视为永不逻辑过期,只受redis的存活时间限制。
+ * @version V1.0
+ */
+public final class LoadedValue {
+
+	private static final byte MAGIC0 = (byte) 0xE7;
+
+	private static final byte MAGIC1 = (byte) 0x5F;
+
+	private static final int HEADER = 14;
+
+	private final byte[] stored;
+
+	private final int offset;
+
+	private final long expireAt;
+
+	private final int loadMillis;
+
+	private LoadedValue(byte[] stored, int offset, long expireAt, int loadMillis) {
+		this.stored = stored;
+		this.offset = offset;
+		this.expireAt = expireAt;
+		this.loadMillis = loadMillis;
+	}
+
+	/**
+	 * 加上逻辑过期时间和加载耗时
+	 * @param payload
+	 * @param expireAt
+	 * @param loadMillis
+	 * @return
+	 */
+	static byte[] wrap(byte[] payload, long expireAt, int loadMillis) {
+		return ByteBuffer.allocate(HEADER + payload.length).put(MAGIC0).put(MAGIC1).putLong(expireAt).putInt(loadMillis)
+				.put(payload).array();
+	}
+
+	/**
+	 * 解析redis中读到的值
+	 * @param stored
+	 * @return stored为null时返回null
+	 */
+	public static LoadedValue parse(byte[] stored) {
+		if (stored == null) {
+			return null;
+		}
+		if (stored.length < HEADER || stored[0] != MAGIC0 || stored[1] != MAGIC1) {
+			return new LoadedValue(stored, 0, Long.MAX_VALUE, 0);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(stored, 2, HEADER - 2);
+		return new LoadedValue(stored, HEADER, buffer.getLong(), buffer.getInt());
+	}
+
+	/**
+	 * 直接从原始数据中解码值,不复制
+	 * @param codec
+	 * @return
+	 */
+	public Object decode(Codec codec) {
+		return codec.decode(stored, offset, stored.length - offset);
+	}
+
+	/**
+	 * 值本身
+	 * @return
+	 */
+	public byte[] getPayload() {
+		return offset == 0 ? stored : Arrays.copyOfRange(stored, offset, stored.length);
+	}
+
+	public long getExpireAt() {
+		return expireAt;
+	}
+
+	public int getLoadMillis() {
+		return loadMillis;
+	}
+
+	/**
+	 * 是否已经逻辑过期
+	 * @param now
+	 * @return
+	 */
+	public boolean isExpired(long now) {
+		return now >= expireAt;
+	}
+
+	/**
+	 * 是否应该重新加载:逻辑过期后总是需要;过期前按 now - loadMillis * beta * ln(rand) >= expireAt 随机提前,
+	 * 加载越慢、离过期越近,提前刷新的概率越大,各个调用方的提前量不同,通常只有一个调用方提前刷新
+	 * @param now
+	 * @param beta 为0时不提前
+	 * @return
+	 */
+	public boolean shouldRefresh(long now, double beta) {
+		if (isExpired(now)) {
+			return true;
+		}
+		if (beta <= 0 || expireAt == Long.MAX_VALUE) {
+			return false;
+		}
+		double random = 1.0 - ThreadLocalRandom.current().nextDouble();
+		return now - Math.max(loadMillis, 1) * beta * Math.log(random) >= expireAt;
+	}
+
+}
@@ -0,0 +1,180 @@
+package com.purpose.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * 进程内的一级缓存,放在redis前面。按最近最少使用淘汰,超过ttl的条目在读取时失效。
+ * 不缓存null值,命中/未命中次数用于评估容量设置。
+ * @version V1.0
+ */
+public class NearCache<V> {
+
+	private final int maxSize;
+
+	//毫秒,为0时只按容量淘汰
+	private final long ttl;
+
+	private final LinkedHashMap<String, Entry<V>> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	//失效序号,每次失效加一,由entries的锁保护
+	private long invalidations;
+
+	public NearCache(final int maxSize, long ttlMillis) {
+		this.maxSize = maxSize;
+		this.ttl = ttlMillis;
+		this.entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+				if (size() > NearCache.this.maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * 获取缓存值
+	 * @param key
+	 * @return 不存在或已过期时返回null
+	 */
+	public V get(String key) {
+		Entry<V> entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+			if (entry != null && entry.isExpired()) {
+				entries.remove(key);
+				entry = null;
+			}
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.value;
+	}
+
+	public void put(String key, V value) {
+		if (value == null) {
+			invalidate(key);
+			return;
+		}
+		long expireAt = ttl > 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE;
+		synchronized (entries) {
+			entries.put(key, new Entry<V>(value, expireAt));
+		}
+	}
+
+	/**
+	 * 用redis中读到的值填充:获取version之后发生过失效时不填充。
+	 * 读取和填充之间其他线程或节点可能写入并发出失效,这时读到的值已经过时,填充后会一直留到ttl结束
+	 * @param key
+	 * @param value
+	 * @param version 读取redis之前通过version()获取
+	 * @return 是否填充
+	 */
+	public boolean putIfNotInvalidatedSince(String key, V value, long version) {
+		if (value == null) {
+			return false;
+		}
+		long expireAt = ttl > 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE;
+		synchronized (entries) {
+			if (invalidations != version) {
+				return false;
+			}
+			entries.put(key, new Entry<V>(value, expireAt));
+			return true;
+		}
+	}
+
+	/**
+	 * 当前的失效序号,任何key失效后都会变化
+	 * @return
+	 */
+	public long version() {
+		synchronized (entries) {
+			return invalidations;
+		}
+	}
+
+	public void invalidate(String key) {
+		synchronized (entries) {
+			invalidations++;
+			entries.remove(key);
+		}
+	}
+
+	public void invalidateAll() {
+		synchronized (entries) {
+			invalidations++;
+			entries.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * 命中率
+	 * @return 没有请求时返回0
+	 */
+	public double getHitRatio() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	@Override
+	public String toString() {
+		return "NearCache[size=" + size() + "/" + maxSize + ", hits=" + hits.get() + ", misses=" + misses.get()
+				+ ", evictions=" + evictions.get() + "]";
+	}
+
+	private static class Entry<V> {
+
+		final V value;
+
+		final long expireAt;
+
+		Entry(V value, long expireAt) {
+			this.value = value;
+			this.expireAt = expireAt;
+		}
+
+		boolean isExpired() {
+			return System.currentTimeMillis() >= expireAt;
+		}
+
+	}
+
+}
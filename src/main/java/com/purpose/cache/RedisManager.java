@@ -1,18 +1,47 @@
 package com.purpose.cache;
 
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import com.purpose.utils.SerializeUtils;
+import com.purpose.codec.Codec;
+import com.purpose.codec.JavaSerializationCodec;
+import com.purpose.codec.MetricsCodec;
+import com.purpose.codec.ValueCompressor;
+import com.purpose.transport.ClusterTransport;
+import com.purpose.transport.Commands;
+import com.purpose.transport.DeadlineTransport;
+import com.purpose.metrics.RedisMetrics;
+import com.purpose.transport.JedisTransport;
+import com.purpose.transport.MetricsTransport;
+import com.purpose.transport.NioTransport;
+import com.purpose.transport.RedisReplies;
+import com.purpose.transport.RedisTransport;
+import com.purpose.transport.ReplicaTransport;
+import com.purpose.transport.ShardedTransport;
+import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.util.SafeEncoder;
 /**
  * 通过jedis管理redis内存数据库
  * @author: Yuanbo
@@ -22,10 +51,31 @@ import redis.clients.jedis.JedisPoolConfig;
 public class RedisManager {
 
 	private static final Logger logger = LoggerFactory.getLogger(RedisManager.class);
+
+	//按内容比较字节数组,byte[]本身的equals只比较引用
+	private static final Comparator<byte[]> BYTES_ORDER = (a, b) -> {
+		int length = Math.min(a.length, b.length);
+		for (int i = 0; i < length; i++) {
+			int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		return a.length - b.length;
+	};
+
+	//getOrLoad的加载锁仍然属于自己时才删除,比较和删除在服务端原子执行
+	private static final byte[] UNLOCK_SCRIPT = SafeEncoder.encode(
+			"if redis.call('get',KEYS[1])==ARGV[1] then return redis.call('del',KEYS[1]) end return 0");
+
+	public static final String TRANSPORT_JEDIS = "jedis";
+
+	public static final String TRANSPORT_NIO = "nio";
 	//下面属性都定义在了properties文件中，这里通过spring的注解方式来直接使用
-	@Value("${redis.host}")
+	//配置了redis.nodes时可以不配置host和port
+	@Value("${redis.host:}")
 	private String host;
-	@Value("${redis.port}")
+	@Value("${redis.port:0}")
 	private int port;
 	@Value("${redis.pass}")
 	private String pass;
@@ -39,51 +89,329 @@ public class RedisManager {
 	private boolean testOnBorrow;
 	@Value("${redis.testOnReturn}")
 	private boolean testOnReturn;
+	//连接和读写超时时间(毫秒)
+	@Value("${redis.timeout:2000}")
+	private int timeout = 2000;
+	//store库连接池的大小,为0时沿用maxActive/maxIdle
+	@Value("${redis.store.maxActive:0}")
+	private int storeMaxActive;
+	@Value("${redis.store.maxIdle:0}")
+	private int storeMaxIdle;
+	//传输方式:jedis为连接池,每个操作独占一条连接;nio为少量共享连接,并发的命令自动合并成pipeline
+	@Value("${redis.transport:jedis}")
+	private String transportType = TRANSPORT_JEDIS;
+	//nio传输每个库的连接数
+	@Value("${redis.nio.connections:2}")
+	private int nioConnections = 2;
+	//分片节点列表,形如host1:port1,host2:port2;设置后按一致性哈希把key分布到各节点,host/port不再使用
+	@Value("${redis.nodes:}")
+	private String nodes;
+	//从节点列表,形如host1:port1,host2:port2;设置后只读命令发给从节点,只能与host/port一起使用,不能与nodes同时配置
+	@Value("${redis.replicas:}")
+	private String replicas;
+	//本进程写入某个key后,在这段时间(毫秒)内仍从主节点读这个key,为0时不启用
+	@Value("${redis.replica.readYourWrites:1000}")
+	private int readYourWritesMillis = 1000;
+	//从节点落后主节点的复制偏移量(字节)超过这个值时暂停从它读
+	@Value("${redis.replica.maxLag:1048576}")
+	private long maxReplicaLag = 1048576;
+	//检查从节点复制状态的间隔(毫秒)
+	@Value("${redis.replica.checkInterval:1000}")
+	private int replicaCheckInterval = 1000;
+	//redis cluster的初始节点,形如host1:port1,host2:port2;设置后按槽路由。集群只有0号库,index和store不再生效,flushDB会清空xl*的数据
+	@Value("${redis.cluster:}")
+	private String cluster;
+	//后台刷新集群槽表的间隔(毫秒),MOVED和连接失败时也会触发刷新
+	@Value("${redis.cluster.refreshInterval:10000}")
+	private int clusterRefreshInterval = 10000;
+	//每次调用的截止时间(毫秒),超过后调用线程不再等待,为0时只受timeout限制
+	@Value("${redis.deadline:0}")
+	private int deadline;
+	//只读命令在对冲延迟(近期耗时的p95)内没有返回时再发一次,取先返回的结果
+	@Value("${redis.hedge:false}")
+	private boolean hedge;
+	//对冲延迟的下限(毫秒)
+	@Value("${redis.hedge.minDelay:1}")
+	private int hedgeMinDelay = 1;
+	//getOrLoad加载锁的存活时间(毫秒),加载超过这个时间时其他节点可能同时加载
+	@Value("${redis.load.lockMillis:3000}")
+	private int loadLockMillis = 3000;
+	//没有旧值可用时等待其他节点加载完成的最长时间(毫秒),超时后自己加载
+	@Value("${redis.load.waitMillis:500}")
+	private int loadWaitMillis = 500;
+	//getOrLoad的值逻辑过期后在redis中继续保留的时间(秒),重新加载期间其他调用方得到旧值
+	@Value("${redis.load.staleSeconds:60}")
+	private int loadStaleSeconds = 60;
+	//提前刷新的力度,越大越早刷新,为0时只在逻辑过期后刷新
+	@Value("${redis.load.beta:1.0}")
+	private double loadBeta = 1.0;
+
+	//xl*列表是否沿用旧的写法插入到列表头部(LPUSH),读出的顺序与写入的list相反,追加的元素在最前面;
+	//已有旧数据时保持true,用xlReverseListObject把旧列表逐个反转后再改为false,改为false后按写入顺序读出
+	@Value("${redis.list.headPush:true}")
+	private boolean listHeadPush = true;
 
+	//xl*系列方法的值编解码方式,默认使用java序列化
+	private Codec codec = new JavaSerializationCodec();
+	//大值压缩,为null时不压缩;作用于byte[]的get/set、multi*以及xlGet/xlSet/xlMulti*
+	private ValueCompressor compressor;
+	//SCAN每页的COUNT提示
+	private int scanCount = 1000;
+	//批量操作时每个MGET/DEL/pipeline包含的最大key数量
+	private int batchSize = 500;
 	//设置为0的话就是永远都不会过期
 	private int expire = 0;
 	//setting session or cache's database
 	private int index = 1;
 	//setting store's database
 	private int store = 0;
-	//定义一个管理池，所有的redisManager共同使用。
-	private JedisPool jedisPool = null;
+	//session/cache使用的传输层，所有的redisManager共同使用。连接在创建时完成auth和select，固定在index库
+	private volatile RedisTransport transport = null;
+	//xl*系列方法使用的传输层，固定在store库
+	private volatile RedisTransport storeTransport = null;
+	//指标注册中心,为null时不统计。设置后init创建的传输层和codec都会记录耗时
+	private RedisMetrics metrics;
+	//合并本进程内getOrLoad对同一个key的并发加载,两个库各一个
+	private final SingleFlight<ByteBuffer, LoadResult> loads = new SingleFlight<ByteBuffer, LoadResult>();
+	private final SingleFlight<ByteBuffer, LoadResult> storeLoads = new SingleFlight<ByteBuffer, LoadResult>();
 
 	/**
-	 * 初始化方法,在这个方法中通过host和port来初始化jedispool。
+	 * 初始化方法,在这个方法中通过host和port来初始化传输层。
+	 * session/cache库和store库各自一个传输层，密码认证和select只在连接创建时执行一次，
+	 * 之后每个操作只需一次网络往返。通过setTransport/setStoreTransport设置的传输层不会被替换。
 	 */
 	public void init() {
-		if (null == host || 0 == port) {
+		if (transport != null && storeTransport != null) {
+			return;
+		}
+		if ((null == host || host.isEmpty() || 0 == port) && parseNodes().isEmpty()
+				&& parseNodes(cluster, "redis.cluster").isEmpty()) {
 			logger.info("请初始化redis配置文件");
 			throw new NullPointerException("找不到redis配置文件");
 		}
-		if (jedisPool == null) {
-			JedisPoolConfig poolConfig = new JedisPoolConfig();
-			poolConfig.setMaxActive(maxActive);
-			poolConfig.setMaxIdle(maxIdle);
-			poolConfig.setMaxWait(maxWait);
-			poolConfig.setTestOnBorrow(testOnBorrow);
-			poolConfig.setTestOnReturn(testOnReturn);
-			jedisPool = new JedisPool(poolConfig, host, port);
+		synchronized (this) {
+			if (transport == null) {
+				transport = instrument(withDeadline(createTransport(maxActive, maxIdle, index), maxActive), "redis.index");
+			}
+			if (storeTransport == null) {
+				int storeActive = storeMaxActive > 0 ? storeMaxActive : maxActive;
+				storeTransport = instrument(withDeadline(createTransport(storeActive,
+						storeMaxIdle > 0 ? storeMaxIdle : maxIdle, store), storeActive), "redis.store");
+			}
 		}
 	}
 
 	/**
-	 * get value from redis
-	 * @param key
+	 * 创建固定在某个库上的传输层,配置了nodes时每个节点一个传输层,由ShardedTransport路由;
+	 * 配置了replicas时主节点和每个从节点各一个传输层,由ReplicaTransport做读写分离;
+	 * 配置了cluster时由ClusterTransport按槽表为每个主节点创建传输层,database被忽略
+	 * @param active 每个节点jedis连接池的大小
+	 * @param idle
+	 * @param database
 	 * @return
 	 */
-	public byte[] get(byte[] key) {
-		byte[] value = null;
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(index);
+	private RedisTransport createTransport(final int active, final int idle, int database) {
+		List<HostAndPort> shards = parseNodes();
+		List<HostAndPort> followers = parseNodes(replicas, "redis.replicas");
+		List<HostAndPort> seeds = parseNodes(cluster, "redis.cluster");
+		if (!seeds.isEmpty()) {
+			if (!shards.isEmpty() || !followers.isEmpty()) {
+				throw new IllegalArgumentException("redis.cluster不能与redis.nodes或redis.replicas同时配置");
+			}
+			return new ClusterTransport(seeds, (nodeHost, nodePort) -> createTransport(nodeHost, nodePort, active, idle, 0),
+					clusterRefreshInterval);
+		}
+		if (!shards.isEmpty() && !followers.isEmpty()) {
+			throw new IllegalArgumentException("redis.replicas不能与redis.nodes同时配置");
+		}
+		if (!followers.isEmpty()) {
+			return createReplicaTransport(followers, active, idle, database);
+		}
+		if (shards.isEmpty()) {
+			return createTransport(host, port, active, idle, database);
+		}
+		List<String> names = new ArrayList<String>(shards.size());
+		List<RedisTransport> targets = new ArrayList<RedisTransport>(shards.size());
 		try {
-			value = jedis.get(key);
-		} finally {
-			jedisPool.returnResource(jedis);
+			for (HostAndPort shard : shards) {
+				names.add(shard.toString());
+				targets.add(createTransport(shard.getHost(), shard.getPort(), active, idle, database));
+			}
+		} catch (RuntimeException e) {
+			for (RedisTransport target : targets) {
+				target.close();
+			}
+			throw e;
 		}
-		return value;
+		return new ShardedTransport(names, targets);
+	}
+
+	private RedisTransport createReplicaTransport(List<HostAndPort> followers, int active, int idle, int database) {
+		RedisTransport master = createTransport(host, port, active, idle, database);
+		List<String> names = new ArrayList<String>(followers.size());
+		List<RedisTransport> targets = new ArrayList<RedisTransport>(followers.size());
+		try {
+			for (HostAndPort follower : followers) {
+				names.add(follower.toString());
+				targets.add(createTransport(follower.getHost(), follower.getPort(), active, idle, database));
+			}
+			return new ReplicaTransport(master, names, targets, readYourWritesMillis, maxReplicaLag, replicaCheckInterval);
+		} catch (RuntimeException e) {
+			for (RedisTransport target : targets) {
+				target.close();
+			}
+			master.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * 解析分片节点列表
+	 * @return 未配置时为空
+	 */
+	private List<HostAndPort> parseNodes() {
+		return parseNodes(nodes, "redis.nodes");
+	}
+
+	/**
+	 * 解析host:port,host:port形式的节点列表
+	 * @param value
+	 * @param property 配置项名称,用于错误信息
+	 * @return 未配置时为空
+	 */
+	private static List<HostAndPort> parseNodes(String value, String property) {
+		List<HostAndPort> result = new ArrayList<HostAndPort>();
+		if (value == null || value.trim().isEmpty()) {
+			return result;
+		}
+		for (String node : value.split(",")) {
+			node = node.trim();
+			int index = node.lastIndexOf(':');
+			if (index <= 0) {
+				throw new IllegalArgumentException(property + "格式应为host:port,host:port:" + value);
+			}
+			result.add(new HostAndPort(node.substring(0, index), Integer.parseInt(node.substring(index + 1))));
+		}
+		return result;
+	}
+
+	private RedisTransport createTransport(String host, int port, int active, int idle, int database) {
+		String password = (pass == null || pass.length() == 0) ? null : pass;
+		if (TRANSPORT_NIO.equalsIgnoreCase(transportType)) {
+			return new NioTransport(host, port, timeout, password, database, nioConnections);
+		}
+		if (!TRANSPORT_JEDIS.equalsIgnoreCase(transportType)) {
+			throw new IllegalArgumentException("不支持的redis.transport:" + transportType);
+		}
+		JedisPoolConfig poolConfig = new JedisPoolConfig();
+		poolConfig.setMaxTotal(active);
+		poolConfig.setMaxIdle(idle);
+		poolConfig.setMaxWaitMillis(maxWait);
+		poolConfig.setTestOnBorrow(testOnBorrow);
+		poolConfig.setTestOnReturn(testOnReturn);
+		return new JedisTransport(poolConfig, host, port, timeout, password, database);
+	}
+
+	/**
+	 * 设置了deadline或开启了hedge时给传输层加上截止时间和对冲请求
+	 * @param target
+	 * @param maxThreads 阻塞的传输层执行命令的最大线程数,与连接池大小相同
+	 * @return
+	 */
+	private RedisTransport withDeadline(RedisTransport target, int maxThreads) {
+		if (deadline <= 0 && !hedge) {
+			return target;
+		}
+		return new DeadlineTransport(target, deadline, hedge, hedgeMinDelay, maxThreads);
+	}
+
+	/**
+	 * 设置了metrics时给传输层加上指标统计
+	 * @param target
+	 * @param prefix 指标名前缀
+	 * @return
+	 */
+	private RedisTransport instrument(RedisTransport target, String prefix) {
+		return metrics == null ? target : new MetricsTransport(target, metrics, prefix);
+	}
+
+	/**
+	 * 设置了metrics时给codec加上耗时统计
+	 * @param target
+	 * @return
+	 */
+	private Codec instrument(Codec target) {
+		if (metrics == null || target == null || target instanceof MetricsCodec) {
+			return target;
+		}
+		return new MetricsCodec(target, metrics, "codec");
+	}
+
+	/**
+	 * 关闭传输层
+	 */
+	public synchronized void destroy() {
+		if (transport != null) {
+			transport.close();
+			transport = null;
+		}
+		if (storeTransport != null) {
+			storeTransport.close();
+			storeTransport = null;
+		}
+		if (compressor != null) {
+			compressor.destroy();
+		}
+	}
+
+	/**
+	 * get value from redis。
+	 * 读取getOrLoad写入的key时得到的是带有过期信息的值,需要用LoadedValue.parse解析
+	 * @param key
+	 * @return
+	 */
+	public byte[] get(byte[] key) {
+		return decompress(RedisReplies.asBytes(transport.execute(Commands.of(Commands.GET, key))));
+	}
+
+	/**
+	 * 获取值和剩余存活时间,GET和PTTL通过pipeline一次发送
+	 * @param key
+	 * @return
+	 */
+	public ExpiringValue getWithTtl(byte[] key) {
+		List<Object> replies = RedisReplies.check(transport.pipeline(Arrays.asList(
+				Commands.of(Commands.GET, key), Commands.of(Commands.PTTL, key))));
+		return new ExpiringValue(decompress(RedisReplies.asBytes(replies.get(0))), RedisReplies.asLong(replies.get(1)));
+	}
+
+	/**
+	 * 读取值,不存在、已经逻辑过期或者按概率需要提前刷新时通过loader重新加载并写入。
+	 * 整个集群同一时间只有一个调用方加载:加载前用SET NX PX抢占一个短时的锁,没有抢到的调用方返回旧值;
+	 * 没有旧值时最多等待waitMillis,其他节点仍未写入就自己加载。本进程内对同一个key的并发调用只查询和加载一次,
+	 * 结果共享,调用方不能修改返回的数组。
+	 * 值在redis中比ttl多保留staleSeconds,并带有逻辑过期时间和加载耗时:JedisShiroCache.get会去掉这些信息,
+	 * get(byte[])等直接返回redis中字节的方法不会,需要用LoadedValue.parse解析。
+	 * 通过set写入的值视为永不逻辑过期
+	 * @param key
+	 * @param ttl 逻辑存活时间(秒),必须大于0
+	 * @param loader 返回null时不写入
+	 * @return
+	 */
+	public byte[] getOrLoad(byte[] key, int ttl, Supplier<byte[]> loader) {
+		return getOrLoadResult(key, ttl, loader).getValue();
+	}
+
+	/**
+	 * 与getOrLoad相同,同时返回是否命中,用于统计命中率
+	 * @param key
+	 * @param ttl 逻辑存活时间(秒),必须大于0
+	 * @param loader 返回null时不写入
+	 * @return
+	 */
+	public LoadResult getOrLoadResult(byte[] key, int ttl, Supplier<byte[]> loader) {
+		checkTtl(ttl);
+		return loads.load(ByteBuffer.wrap(key), () -> loadThrough(transport, key, ttl, loader));
 	}
 
 	/**
@@ -92,16 +420,8 @@ public class RedisManager {
 	 * @return
 	 */
 	public String get(String key) {
-		String value = null;
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(index);
-		try {
-			value = jedis.get(key);
-		} finally {
-			jedisPool.returnResource(jedis);
-		}
-		return value;
+		byte[] value = RedisReplies.asBytes(transport.execute(Commands.of(Commands.GET, SafeEncoder.encode(key))));
+		return value == null ? null : SafeEncoder.encode(value);
 	}
 
 	/**
@@ -111,17 +431,7 @@ public class RedisManager {
 	 * @return
 	 */
 	public byte[] set(byte[] key, byte[] value) {
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(index);
-		try {
-			jedis.set(key, value);
-			if (this.expire != 0) {
-				jedis.expire(key, this.expire);
-			}
-		} finally {
-			jedisPool.returnResource(jedis);
-		}
+		transport.execute(setCommand(key, compress(key, value), this.expire));
 		return value;
 	}
 
@@ -132,17 +442,7 @@ public class RedisManager {
 	 * @return
 	 */
 	public String set(String key, String value) {
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(index);
-		try {
-			jedis.set(key, value);
-			if (this.expire != 0) {
-				jedis.expire(key, this.expire);
-			}
-		} finally {
-			jedisPool.returnResource(jedis);
-		}
+		transport.execute(setCommand(SafeEncoder.encode(key), SafeEncoder.encode(value), this.expire));
 		return value;
 	}
 
@@ -154,17 +454,7 @@ public class RedisManager {
 	 * @return
 	 */
 	public byte[] set(byte[] key, byte[] value, int expire) {
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(index);
-		try {
-			jedis.set(key, value);
-			if (expire != 0) {
-				jedis.expire(key, expire);
-			}
-		} finally {
-			jedisPool.returnResource(jedis);
-		}
+		transport.execute(setCommand(key, compress(key, value), expire));
 		return value;
 	}
 
@@ -176,17 +466,7 @@ public class RedisManager {
 	 * @return
 	 */
 	public String set(String key, String value, int expire) {
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(index);
-		try {
-			jedis.set(key, value);
-			if (expire != 0) {
-				jedis.expire(key, expire);
-			}
-		} finally {
-			jedisPool.returnResource(jedis);
-		}
+		transport.execute(setCommand(SafeEncoder.encode(key), SafeEncoder.encode(value), expire));
 		return value;
 	}
 
@@ -195,14 +475,7 @@ public class RedisManager {
 	 * @param key
 	 */
 	public void del(byte[] key) {
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(index);
-		try {
-			jedis.del(key);
-		} finally {
-			jedisPool.returnResource(jedis);
-		}
+		transport.execute(Commands.of(Commands.DEL, key));
 	}
 
 	/**
@@ -210,400 +483,1590 @@ public class RedisManager {
 	 * @param key
 	 */
 	public void del(String key) {
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(index);
-		try {
-			jedis.del(key);
-		} finally {
-			jedisPool.returnResource(jedis);
+		transport.execute(Commands.of(Commands.DEL, SafeEncoder.encode(key)));
+	}
+
+	/**
+	 * 设置过期时间
+	 * @param key
+	 * @param seconds
+	 * @return key不存在时返回0
+	 */
+	public Long expire(byte[] key, int seconds) {
+		return RedisReplies.asLong(transport.execute(Commands.of(Commands.EXPIRE, key, Commands.toBytes(seconds))));
+	}
+
+	/**
+	 * 获取hash中的多个字段,返回值与字段的顺序一一对应
+	 * @param key
+	 * @param fields
+	 * @return
+	 */
+	public List<byte[]> hmget(byte[] key, byte[]... fields) {
+		return RedisReplies.asBytesList(transport.execute(Commands.withKey(Commands.HMGET, key, fields)));
+	}
+
+	/**
+	 * 获取hash中的单个字段
+	 * @param key
+	 * @param field
+	 * @return
+	 */
+	public byte[] hget(byte[] key, byte[] field) {
+		return RedisReplies.asBytes(transport.execute(Commands.of(Commands.HGET, key, field)));
+	}
+
+	/**
+	 * 获取整个hash
+	 * @param key
+	 * @return
+	 */
+	public Map<byte[], byte[]> hgetAll(byte[] key) {
+		return RedisReplies.asMap(transport.execute(Commands.of(Commands.HGETALL, key)));
+	}
+
+	/**
+	 * 部分更新hash:设置fields中的字段,删除removed中的字段,并设置过期时间,通过pipeline一次发送
+	 * @param key
+	 * @param fields
+	 * @param removed
+	 * @param expire 为0时不修改过期时间
+	 */
+	public void hupdate(byte[] key, Map<byte[], byte[]> fields, Collection<byte[]> removed, int expire) {
+		List<byte[][]> commands = new ArrayList<byte[][]>(3);
+		if (!fields.isEmpty()) {
+			commands.add(hmsetCommand(key, fields));
+		}
+		if (!removed.isEmpty()) {
+			commands.add(Commands.withKey(Commands.HDEL, key, removed.toArray(new byte[removed.size()][])));
+		}
+		if (expire != 0) {
+			commands.add(Commands.of(Commands.EXPIRE, key, Commands.toBytes(expire)));
+		}
+		RedisReplies.check(transport.pipeline(commands));
+	}
+
+	/**
+	 * 整体替换hash,DEL、HMSET和EXPIRE在一个事务中执行
+	 * @param key
+	 * @param fields
+	 * @param expire 为0时不过期
+	 */
+	public void hreplace(byte[] key, Map<byte[], byte[]> fields, int expire) {
+		List<byte[][]> commands = new ArrayList<byte[][]>(5);
+		commands.add(Commands.of(Commands.MULTI));
+		commands.add(Commands.of(Commands.DEL, key));
+		if (!fields.isEmpty()) {
+			commands.add(hmsetCommand(key, fields));
+			if (expire != 0) {
+				commands.add(Commands.of(Commands.EXPIRE, key, Commands.toBytes(expire)));
+			}
 		}
+		commands.add(Commands.of(Commands.EXEC));
+		RedisReplies.check(transport.pipeline(commands));
 	}
 
 	/**
 	 * flush value
 	 */
 	public void flushDB() {
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(index);
-		try {
-			jedis.flushDB();
-		} finally {
-			jedisPool.returnResource(jedis);
-		}
+		transport.execute(Commands.of(Commands.FLUSHDB));
 	}
 
 	/**
 	 * size
 	 */
 	public Long dbSize() {
-		Long dbSize = 0L;
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(index);
-		try {
-			dbSize = jedis.dbSize();
-		} finally {
-			jedisPool.returnResource(jedis);
-		}
-		return dbSize;
+		return RedisReplies.asLong(transport.execute(Commands.of(Commands.DBSIZE)));
 	}
 
 	/**
 	 * keys
-	 * @param regex
+	 * 通过SCAN增量遍历,不会像KEYS一样阻塞redis;结果会全部放入内存,大量key时请使用scan。
+	 * SCAN可能返回重复的key,返回的集合按内容去重
+	 * @param pattern
 	 * @return
 	 */
 	public Set<byte[]> keys(String pattern) {
-		Set<byte[]> keys = null;
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(index);
-		try {
-			//logger.info("调用keys方法--------Shiro");
-			keys = jedis.keys(pattern.getBytes());
-			if (null != keys)
-				System.out.println(keys.size());
-		} finally {
-			jedisPool.returnResource(jedis);
+		Set<byte[]> keys = new TreeSet<byte[]>(BYTES_ORDER);
+		for (byte[] key : scan(pattern)) {
+			keys.add(key);
 		}
 		return keys;
 	}
 
+	/**
+	 * 按pattern删除,每扫描一页就用一次DEL删除该页的key
+	 * @param pattern
+	 */
 	public void dels(String pattern) {
-		Set<byte[]> keys = null;
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(index);
-		try {
-			//logger.info("调用dels方法--------Shiro");
-			keys = jedis.keys(pattern.getBytes());
-			Iterator<byte[]> ito = keys.iterator();
-			while (ito.hasNext()) {
-				jedis.del(ito.next());
+		byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+		do {
+			ScanResult<byte[]> result = scan(transport, cursor, pattern);
+			List<byte[]> keys = result.getResult();
+			if (!keys.isEmpty()) {
+				transport.execute(Commands.of(Commands.DEL, keys.toArray(new byte[keys.size()][])));
 			}
-		} finally {
-			jedisPool.returnResource(jedis);
-		}
+			cursor = result.getCursorAsBytes();
+		} while (!Arrays.equals(cursor, ScanParams.SCAN_POINTER_START_BINARY));
 	}
 
-	public String getHost() {
-		return host;
+	/**
+	 * 扫描一页key
+	 * @param cursor 第一次传ScanParams.SCAN_POINTER_START_BINARY,之后传上一页返回的游标,返回的游标为"0"时表示结束
+	 * @param pattern
+	 * @return
+	 */
+	public ScanResult<byte[]> scan(byte[] cursor, String pattern) {
+		return scan(transport, cursor, pattern);
 	}
 
-	public void setHost(String host) {
-		this.host = host;
+	private ScanResult<byte[]> scan(RedisTransport target, byte[] cursor, String pattern) {
+		return RedisReplies.asScanResult(target.execute(Commands.of(Commands.SCAN, cursor,
+				Commands.MATCH, SafeEncoder.encode(pattern), Commands.COUNT, Commands.toBytes(scanCount))));
 	}
 
-	public int getPort() {
-		return port;
+	/**
+	 * 惰性遍历匹配的key,每次取一页(COUNT为scanCount),取页时才借用连接。
+	 * SCAN可能返回重复的key,遍历期间新增或删除的key不保证被返回。
+	 * @param pattern
+	 * @return
+	 */
+	public Iterable<byte[]> scan(final String pattern) {
+		return new Iterable<byte[]>() {
+			@Override
+			public Iterator<byte[]> iterator() {
+				return new ScanIterator<byte[]>(transport, pattern) {
+					@Override
+					protected List<byte[]> load(List<byte[]> keys) {
+						return keys;
+					}
+				};
+			}
+		};
 	}
 
-	public void setPort(int port) {
-		this.port = port;
+	/**
+	 * 惰性遍历匹配的key对应的值,每扫描一页就用一次MGET取回该页的值,已过期的key会被跳过
+	 * @param pattern
+	 * @return
+	 */
+	public Iterable<byte[]> scanValues(final String pattern) {
+		return new Iterable<byte[]>() {
+			@Override
+			public Iterator<byte[]> iterator() {
+				return new ScanIterator<byte[]>(transport, pattern) {
+					@Override
+					protected List<byte[]> load(List<byte[]> keys) {
+						List<byte[]> values = RedisReplies.asBytesList(transport.execute(
+								Commands.of(Commands.MGET, keys.toArray(new byte[keys.size()][]))));
+						for (int i = 0; i < values.size(); i++) {
+							values.set(i, decompress(values.get(i)));
+						}
+						return values;
+					}
+				};
+			}
+		};
 	}
 
-	public String getPass() {
-		return pass;
+	/**
+	 * 惰性遍历匹配的key对应的值和剩余存活时间,每页的GET和PTTL通过一次pipeline发送
+	 * @param pattern
+	 * @return
+	 */
+	public Iterable<ExpiringValue> scanValuesWithTtl(final String pattern) {
+		return new Iterable<ExpiringValue>() {
+			@Override
+			public Iterator<ExpiringValue> iterator() {
+				return new ScanIterator<ExpiringValue>(transport, pattern) {
+					@Override
+					protected List<ExpiringValue> load(List<byte[]> keys) {
+						List<byte[][]> commands = new ArrayList<byte[][]>(keys.size() * 2);
+						for (byte[] key : keys) {
+							commands.add(Commands.of(Commands.GET, key));
+							commands.add(Commands.of(Commands.PTTL, key));
+						}
+						List<Object> replies = RedisReplies.check(transport.pipeline(commands));
+						List<ExpiringValue> result = new ArrayList<ExpiringValue>(keys.size());
+						for (int i = 0; i < keys.size(); i++) {
+							byte[] value = RedisReplies.asBytes(replies.get(i * 2));
+							result.add(value == null ? null : new ExpiringValue(decompress(value), RedisReplies.asLong(replies.get(i * 2 + 1))));
+						}
+						return result;
+					}
+				};
+			}
+		};
 	}
 
-	public void setPass(String pass) {
-		this.pass = pass;
+	/**
+	 * 惰性遍历匹配的hash,每页对每个key执行HMGET取出指定字段,通过一次pipeline发送。
+	 * 返回的条目key为redis key,value与fields的顺序一一对应
+	 * @param pattern
+	 * @param fields
+	 * @return
+	 */
+	public Iterable<Map.Entry<byte[], List<byte[]>>> scanHashFields(final String pattern, final byte[]... fields) {
+		return new Iterable<Map.Entry<byte[], List<byte[]>>>() {
+			@Override
+			public Iterator<Map.Entry<byte[], List<byte[]>>> iterator() {
+				return new ScanIterator<Map.Entry<byte[], List<byte[]>>>(transport, pattern) {
+					@Override
+					protected List<Map.Entry<byte[], List<byte[]>>> load(List<byte[]> keys) {
+						List<byte[][]> commands = new ArrayList<byte[][]>(keys.size());
+						for (byte[] key : keys) {
+							commands.add(Commands.withKey(Commands.HMGET, key, fields));
+						}
+						List<Object> replies = RedisReplies.check(transport.pipeline(commands));
+						List<Map.Entry<byte[], List<byte[]>>> result = new ArrayList<Map.Entry<byte[], List<byte[]>>>(keys.size());
+						for (int i = 0; i < keys.size(); i++) {
+							result.add(new AbstractMap.SimpleImmutableEntry<byte[], List<byte[]>>(keys.get(i),
+									RedisReplies.asBytesList(replies.get(i))));
+						}
+						return result;
+					}
+				};
+			}
+		};
 	}
 
-	public int getExpire() {
-		return expire;
+	/**
+	 * 统计匹配的key数量
+	 * @param pattern
+	 * @return
+	 */
+	public long count(String pattern) {
+		long count = 0;
+		for (Iterator<byte[]> it = scan(pattern).iterator(); it.hasNext(); it.next()) {
+			count++;
+		}
+		return count;
 	}
 
-	public void setExpire(int expire) {
-		this.expire = expire;
-	}
-	
-	public int getIndex() {
-		return index;
+	/**
+	 * 发布消息
+	 * @param channel
+	 * @param message
+	 * @return 收到消息的订阅者数量
+	 */
+	public Long publish(String channel, String message) {
+		return RedisReplies.asLong(transport.execute(Commands.of(Commands.PUBLISH,
+				SafeEncoder.encode(channel), SafeEncoder.encode(message))));
 	}
 
-	public void setIndex(int index) {
-		this.index = index;
-	}
-	
-	public RedisManager() {  
-    }  
-	
-	/*********************add by 2016.10.22******************/
-	
 	/**
-	 * 判断键是否存在
-	 * @param key
-	 * @return
+	 * 订阅频道,阻塞直到listener取消订阅或连接断开,需要在单独的线程中调用。
+	 * 订阅使用单独创建的连接,不占用连接池。
+	 * @param listener
+	 * @param channels
 	 */
-	public Boolean xlExists(String key) {
-		boolean result = false;
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(store);
+	public void subscribe(JedisPubSub listener, String... channels) {
+		//订阅连接需要一直阻塞读取,不设置读超时;分片时与PUBLISH一样使用第一个节点,集群中消息会广播到所有节点
+		List<HostAndPort> shards = parseNodes(cluster, "redis.cluster");
+		if (shards.isEmpty()) {
+			shards = parseNodes();
+		}
+		Jedis jedis = shards.isEmpty() ? new Jedis(host, port, timeout, 0)
+				: new Jedis(shards.get(0).getHost(), shards.get(0).getPort(), timeout, 0);
 		try {
-			result = jedis.exists(key.getBytes());
+			if (pass != null && pass.length() > 0) {
+				jedis.auth(pass);
+			}
+			jedis.subscribe(listener, channels);
 		} finally {
-			jedisPool.returnResource(jedis);
+			jedis.disconnect();
 		}
-		return result;
 	}
-	
+
 	/**
-	 * 键在某段时间后失效
-	 * @param key
-	 * @param seconds
+	 * 批量获取,返回值与key的顺序一一对应,不存在的key对应null
+	 * @param keys
 	 * @return
 	 */
-	public Long xlExpire(String key, int seconds) {
-		Long result = null;
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(store);
-		try {
-			result = jedis.expire(key.getBytes(), seconds);
-		} finally {
-			jedisPool.returnResource(jedis);
-		}
-		return result;
+	public List<byte[]> multiGet(List<byte[]> keys) {
+		return multiGet(transport, keys);
 	}
-	
+
 	/**
-	 * 通过键删除值
-	 * @param key
+	 * 批量设置,每个条目使用各自的过期时间,通过pipeline一次发送
+	 * @param entries
 	 */
-	public Long xlDel(String key) {
-		Long result = null;
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(store);
-		try {
-			result = jedis.del(key.getBytes());
-		} finally {
-			jedisPool.returnResource(jedis);
+	public void multiSet(List<BatchEntry<byte[], byte[]>> entries) {
+		multiSet(transport, entries);
+	}
+
+	/**
+	 * 批量删除
+	 * @param keys
+	 * @return 删除的数量
+	 */
+	public Long multiDel(List<byte[]> keys) {
+		return multiDel(transport, keys);
+	}
+
+	private List<byte[]> multiGet(RedisTransport target, List<byte[]> keys) {
+		List<byte[]> values = new ArrayList<byte[]>(keys.size());
+		if (keys.isEmpty()) {
+			return values;
+		}
+		for (int from = 0; from < keys.size(); from += batchSize) {
+			List<byte[]> chunk = keys.subList(from, Math.min(from + batchSize, keys.size()));
+			for (byte[] value : RedisReplies.asBytesList(target.execute(Commands.of(Commands.MGET, chunk.toArray(new byte[chunk.size()][]))))) {
+				values.add(decompress(value));
+			}
+		}
+		return values;
+	}
+
+	private void multiSet(RedisTransport target, List<BatchEntry<byte[], byte[]>> entries) {
+		if (entries.isEmpty()) {
+			return;
+		}
+		for (int from = 0; from < entries.size(); from += batchSize) {
+			List<BatchEntry<byte[], byte[]>> chunk = entries.subList(from, Math.min(from + batchSize, entries.size()));
+			List<byte[][]> commands = new ArrayList<byte[][]>(chunk.size());
+			for (BatchEntry<byte[], byte[]> entry : chunk) {
+				commands.add(setCommand(entry.getKey(), compress(entry.getKey(), entry.getValue()), entry.getExpire()));
+			}
+			RedisReplies.check(target.pipeline(commands));
+		}
+	}
+
+	private Long multiDel(RedisTransport target, List<byte[]> keys) {
+		long result = 0;
+		if (keys.isEmpty()) {
+			return result;
+		}
+		for (int from = 0; from < keys.size(); from += batchSize) {
+			List<byte[]> chunk = keys.subList(from, Math.min(from + batchSize, keys.size()));
+			result += RedisReplies.asLong(target.execute(Commands.of(Commands.DEL, chunk.toArray(new byte[chunk.size()][]))));
 		}
 		return result;
 	}
-	
+
+	/**
+	 * getOrLoad的实现:值新鲜时直接返回;需要刷新时抢占加载锁,抢到的加载并写入,
+	 * 没抢到的返回旧值,没有旧值时等待其他节点写入,超时后自己加载
+	 * @param target
+	 * @param key
+	 * @param ttl
+	 * @param loader
+	 * @return redis中有未逻辑过期的值时算命中
+	 */
+	private LoadResult loadThrough(RedisTransport target, byte[] key, int ttl, Supplier<byte[]> loader) {
+		LoadedValue current = LoadedValue.parse(decompress(RedisReplies.asBytes(target.execute(Commands.of(Commands.GET, key)))));
+		long now = System.currentTimeMillis();
+		boolean hit = current != null && !current.isExpired(now);
+		if (current != null && !current.shouldRefresh(now, loadBeta)) {
+			return new LoadResult(current.getPayload(), true);
+		}
+		byte[] lockKey = lockKey(key);
+		byte[] token = SafeEncoder.encode(Long.toHexString(ThreadLocalRandom.current().nextLong()));
+		boolean locked = "OK".equals(RedisReplies.asStatus(target.execute(Commands.of(Commands.SET, lockKey, token,
+				Commands.NX, Commands.PX, Commands.toBytes(loadLockMillis)))));
+		if (!locked) {
+			if (current != null) {
+				return new LoadResult(current.getPayload(), hit);
+			}
+			current = awaitLoad(target, key);
+			if (current != null) {
+				return new LoadResult(current.getPayload(), false);
+			}
+			logger.warn("等待其他节点加载{}超时,自己加载", SafeEncoder.encode(key));
+		}
+		try {
+			long start = System.currentTimeMillis();
+			byte[] payload = loader.get();
+			if (payload == null) {
+				return new LoadResult(null, false);
+			}
+			long end = System.currentTimeMillis();
+			byte[] stored = LoadedValue.wrap(payload, end + ttl * 1000L, (int) Math.min(end - start, Integer.MAX_VALUE));
+			target.execute(Commands.of(Commands.SET, key, compress(key, stored), Commands.PX,
+					Commands.toBytes((ttl + (long) loadStaleSeconds) * 1000L)));
+			return new LoadResult(payload, hit);
+		} finally {
+			if (locked) {
+				unlock(target, lockKey, token);
+			}
+		}
+	}
+
+	/**
+	 * 等待其他节点加载并写入,最多等待loadWaitMillis
+	 * @param target
+	 * @param key
+	 * @return 超时返回null
+	 */
+	private LoadedValue awaitLoad(RedisTransport target, byte[] key) {
+		long deadline = System.currentTimeMillis() + loadWaitMillis;
+		long pause = 5;
+		while (System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(Math.min(pause, Math.max(1, deadline - System.currentTimeMillis())));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			pause = Math.min(pause * 2, 50);
+			LoadedValue value = LoadedValue.parse(decompress(RedisReplies.asBytes(target.execute(Commands.of(Commands.GET, key)))));
+			if (value != null) {
+				return value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 锁仍然属于自己时才删除,加载超过锁的存活时间后锁可能已经被其他调用方持有
+	 * @param target
+	 * @param lockKey
+	 * @param token
+	 */
+	private static void unlock(RedisTransport target, byte[] lockKey, byte[] token) {
+		target.execute(Commands.of(Commands.EVAL, UNLOCK_SCRIPT, Commands.toBytes(1), lockKey, token));
+	}
+
+	/**
+	 * getOrLoad的逻辑存活时间必须大于0,否则PX为0或负数,redis拒绝写入
+	 * @param ttl
+	 */
+	private static void checkTtl(int ttl) {
+		if (ttl <= 0) {
+			throw new IllegalArgumentException("存活时间必须大于0:" + ttl);
+		}
+	}
+
+	/**
+	 * getOrLoad加载锁的key,在值的key后加上后缀
+	 * @param key
+	 * @return
+	 */
+	private static byte[] lockKey(byte[] key) {
+		byte[] suffix = SafeEncoder.encode(":load-lock");
+		byte[] lockKey = Arrays.copyOf(key, key.length + suffix.length);
+		System.arraycopy(suffix, 0, lockKey, key.length, suffix.length);
+		return lockKey;
+	}
+
+	/**
+	 * SET或SETEX命令
+	 * @param key
+	 * @param value
+	 * @param expire 为0时不过期
+	 * @return
+	 */
+	private static byte[][] setCommand(byte[] key, byte[] value, int expire) {
+		if (expire != 0) {
+			return Commands.of(Commands.SETEX, key, Commands.toBytes(expire), value);
+		}
+		return Commands.of(Commands.SET, key, value);
+	}
+
+	/**
+	 * HMSET命令
+	 * @param key
+	 * @param fields
+	 * @return
+	 */
+	private static byte[][] hmsetCommand(byte[] key, Map<byte[], byte[]> fields) {
+		byte[][] command = new byte[fields.size() * 2 + 2][];
+		command[0] = Commands.HMSET;
+		command[1] = key;
+		int i = 2;
+		for (Map.Entry<byte[], byte[]> field : fields.entrySet()) {
+			command[i++] = field.getKey();
+			command[i++] = field.getValue();
+		}
+		return command;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public void setHost(String host) {
+		this.host = host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public String getPass() {
+		return pass;
+	}
+
+	public void setPass(String pass) {
+		this.pass = pass;
+	}
+
+	public int getExpire() {
+		return expire;
+	}
+
+	public void setExpire(int expire) {
+		this.expire = expire;
+	}
+	
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	public int getStore() {
+		return store;
+	}
+
+	public void setStore(int store) {
+		this.store = store;
+	}
+
+	public Codec getCodec() {
+		return codec;
+	}
+
+	public void setCodec(Codec codec) {
+		this.codec = instrument(codec);
+	}
+
+	public ValueCompressor getCompressor() {
+		return compressor;
+	}
+
+	public void setCompressor(ValueCompressor compressor) {
+		this.compressor = compressor;
+	}
+
+	public int getScanCount() {
+		return scanCount;
+	}
+
+	public void setScanCount(int scanCount) {
+		this.scanCount = scanCount;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	public int getMaxActive() {
+		return maxActive;
+	}
+
+	public void setMaxActive(int maxActive) {
+		this.maxActive = maxActive;
+	}
+
+	public int getMaxIdle() {
+		return maxIdle;
+	}
+
+	public void setMaxIdle(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+
+	public int getMaxWait() {
+		return maxWait;
+	}
+
+	public void setMaxWait(int maxWait) {
+		this.maxWait = maxWait;
+	}
+
+	public int getStoreMaxActive() {
+		return storeMaxActive;
+	}
+
+	public void setStoreMaxActive(int storeMaxActive) {
+		this.storeMaxActive = storeMaxActive;
+	}
+
+	public int getStoreMaxIdle() {
+		return storeMaxIdle;
+	}
+
+	public void setStoreMaxIdle(int storeMaxIdle) {
+		this.storeMaxIdle = storeMaxIdle;
+	}
+
+	public String getTransportType() {
+		return transportType;
+	}
+
+	public void setTransportType(String transportType) {
+		this.transportType = transportType;
+	}
+
+	public int getNioConnections() {
+		return nioConnections;
+	}
+
+	public void setNioConnections(int nioConnections) {
+		this.nioConnections = nioConnections;
+	}
+
+	public String getNodes() {
+		return nodes;
+	}
+
+	public void setNodes(String nodes) {
+		this.nodes = nodes;
+	}
+
+	public String getReplicas() {
+		return replicas;
+	}
+
+	public void setReplicas(String replicas) {
+		this.replicas = replicas;
+	}
+
+	public int getReadYourWritesMillis() {
+		return readYourWritesMillis;
+	}
+
+	public void setReadYourWritesMillis(int readYourWritesMillis) {
+		this.readYourWritesMillis = readYourWritesMillis;
+	}
+
+	public long getMaxReplicaLag() {
+		return maxReplicaLag;
+	}
+
+	public void setMaxReplicaLag(long maxReplicaLag) {
+		this.maxReplicaLag = maxReplicaLag;
+	}
+
+	public int getReplicaCheckInterval() {
+		return replicaCheckInterval;
+	}
+
+	public void setReplicaCheckInterval(int replicaCheckInterval) {
+		this.replicaCheckInterval = replicaCheckInterval;
+	}
+
+	public String getCluster() {
+		return cluster;
+	}
+
+	public void setCluster(String cluster) {
+		this.cluster = cluster;
+	}
+
+	public int getClusterRefreshInterval() {
+		return clusterRefreshInterval;
+	}
+
+	public void setClusterRefreshInterval(int clusterRefreshInterval) {
+		this.clusterRefreshInterval = clusterRefreshInterval;
+	}
+
+	public int getDeadline() {
+		return deadline;
+	}
+
+	public void setDeadline(int deadline) {
+		this.deadline = deadline;
+	}
+
+	public boolean isHedge() {
+		return hedge;
+	}
+
+	public void setHedge(boolean hedge) {
+		this.hedge = hedge;
+	}
+
+	public int getHedgeMinDelay() {
+		return hedgeMinDelay;
+	}
+
+	public void setHedgeMinDelay(int hedgeMinDelay) {
+		this.hedgeMinDelay = hedgeMinDelay;
+	}
+
+	public int getLoadLockMillis() {
+		return loadLockMillis;
+	}
+
+	public void setLoadLockMillis(int loadLockMillis) {
+		this.loadLockMillis = loadLockMillis;
+	}
+
+	public int getLoadWaitMillis() {
+		return loadWaitMillis;
+	}
+
+	public void setLoadWaitMillis(int loadWaitMillis) {
+		this.loadWaitMillis = loadWaitMillis;
+	}
+
+	public int getLoadStaleSeconds() {
+		return loadStaleSeconds;
+	}
+
+	public void setLoadStaleSeconds(int loadStaleSeconds) {
+		this.loadStaleSeconds = loadStaleSeconds;
+	}
+
+	public double getLoadBeta() {
+		return loadBeta;
+	}
+
+	public void setLoadBeta(double loadBeta) {
+		this.loadBeta = loadBeta;
+	}
+
+	public boolean isListHeadPush() {
+		return listHeadPush;
+	}
+
+	public void setListHeadPush(boolean listHeadPush) {
+		this.listHeadPush = listHeadPush;
+	}
+
+	public RedisMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * 设置指标注册中心,需要在init之前设置
+	 * @param metrics
+	 */
+	public void setMetrics(RedisMetrics metrics) {
+		this.metrics = metrics;
+		Codec current = codec instanceof MetricsCodec ? ((MetricsCodec) codec).getDelegate() : codec;
+		this.codec = instrument(current);
+	}
+
+	public RedisTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * 使用自定义的传输层,需要在init之前设置
+	 * @param transport
+	 */
+	public void setTransport(RedisTransport transport) {
+		this.transport = transport;
+	}
+
+	public RedisTransport getStoreTransport() {
+		return storeTransport;
+	}
+
+	public void setStoreTransport(RedisTransport storeTransport) {
+		this.storeTransport = storeTransport;
+	}
+	
+	public RedisManager() {  
+    }  
+	
+	/*********************add by 2016.10.22******************/
+	
+	/**
+	 * 判断键是否存在
+	 * @param key
+	 * @return
+	 */
+	public Boolean xlExists(String key) {
+		return RedisReplies.asLong(storeTransport.execute(Commands.of(Commands.EXISTS, key.getBytes()))) > 0;
+	}
+	
+	/**
+	 * 键在某段时间后失效
+	 * @param key
+	 * @param seconds
+	 * @return
+	 */
+	public Long xlExpire(String key, int seconds) {
+		return RedisReplies.asLong(storeTransport.execute(Commands.of(Commands.EXPIRE, key.getBytes(), Commands.toBytes(seconds))));
+	}
+	
+	/**
+	 * 通过键删除值
+	 * @param key
+	 */
+	public Long xlDel(String key) {
+		return RedisReplies.asLong(storeTransport.execute(Commands.of(Commands.DEL, key.getBytes())));
+	}
+	
+	/**
+	 * 设置单个值
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	public String xlSet(String key, Object value) {
+		byte[] byteKey = key.getBytes();
+		return RedisReplies.asStatus(storeTransport.execute(setCommand(byteKey, compress(byteKey, codec.encode(value)), 0)));
+	}
+	
+	/**
+	 * 获取单个值,也可以读取xlGetOrLoad写入的值
+	 * @param key
+	 * @return
+	 */
+	public Object xlGet(String key) {
+		LoadedValue value = LoadedValue.parse(decompress(RedisReplies.asBytes(storeTransport.execute(Commands.of(Commands.GET, key.getBytes())))));
+		return value == null ? null : value.decode(codec);
+	}
+
+	/**
+	 * 读取值,需要时通过loader加载,防止缓存击穿的方式与getOrLoad相同。每个调用方各自解码得到一个对象,
+	 * 写入的值也可以通过xlGet读取
+	 * @param key
+	 * @param ttl 逻辑存活时间(秒),必须大于0
+	 * @param loader 返回null时不写入
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T xlGetOrLoad(String key, int ttl, Supplier<T> loader) {
+		checkTtl(ttl);
+		byte[] byteKey = key.getBytes();
+		byte[] payload = storeLoads.load(ByteBuffer.wrap(byteKey), () -> loadThrough(storeTransport, byteKey, ttl, () -> {
+			T value = loader.get();
+			return value == null ? null : codec.encode(value);
+		})).getValue();
+		return payload == null ? null : (T) codec.decode(payload);
+	}
+	
+	/**
+	 * 设置Map类型的值
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	public String xlSetMap(String key, Map<String, Object> value) {
+		Map<byte[], byte[]> byteMap = new HashMap<byte[], byte[]>();
+		for (Map.Entry tempValue : value.entrySet()) {
+			String tmepKey = (String) tempValue.getKey();
+			byteMap.put(tmepKey.getBytes(), codec.encode(tempValue.getValue()));
+		}
+		return RedisReplies.asStatus(storeTransport.execute(hmsetCommand(key.getBytes(), byteMap)));
+	}
+	
+	/**
+	 * 获取Map类型的值
+	 * @param key
+	 * @return
+	 */
+	public Map<String, Object> xlGetMap(String key) {
+		Map<String, Object> values = new HashMap<String, Object>();
+		Map<byte[], byte[]> result = RedisReplies.asMap(storeTransport.execute(Commands.of(Commands.HGETALL, key.getBytes())));
+		for (Map.Entry tempValue : result.entrySet()) {
+			String tmepKey = new String((byte[]) tempValue.getKey());
+			Object tmepValue = decode((byte[]) tempValue.getValue());
+			values.put(tmepKey, tmepValue);
+		}
+		return values;
+	}
+	
+	/**
+	 * 通过键追加Map类型的值
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	public String xlMapAppend(String key, Map<String, Object> value) {
+		Map<byte[], byte[]> byteMap = new HashMap<byte[], byte[]>();
+		for (Map.Entry tempValue : value.entrySet()) {
+			String tmepKey = (String) tempValue.getKey();
+			Object tmepValue = tempValue.getValue();
+			byteMap.put(tmepKey.getBytes(), codec.encode(tmepValue));
+		}
+		return RedisReplies.asStatus(storeTransport.execute(hmsetCommand(key.getBytes(), byteMap)));
+	}
+	
+	/**
+	 * 去除Map类型的值,通过HDEL只删除指定的字段
+	 * @param key
+	 * @param mapkey
+	 * @return 总是返回OK,需要删除数量时使用xlMapDelete
+	 */
+	public String xlMapRemove(String key, String[] mapkey) {
+		xlMapDelete(key, mapkey);
+		return "OK";
+	}
+
+	/**
+	 * 删除Map中的字段
+	 * @param key
+	 * @param fields
+	 * @return 实际删除的字段数
+	 */
+	public Long xlMapDelete(String key, String... fields) {
+		if (fields.length == 0) {
+			return 0L;
+		}
+		return RedisReplies.asLong(storeTransport.execute(Commands.withKey(Commands.HDEL, key.getBytes(), toBytes(fields))));
+	}
+
+	/**
+	 * 获取Map中的部分字段,通过一次HMGET读取
+	 * @param key
+	 * @param fields
+	 * @return 只包含存在的字段
+	 */
+	public Map<String, Object> xlGetMap(String key, String... fields) {
+		Map<String, Object> values = new HashMap<String, Object>();
+		if (fields.length == 0) {
+			return values;
+		}
+		List<byte[]> result = RedisReplies.asBytesList(storeTransport.execute(Commands.withKey(Commands.HMGET, key.getBytes(), toBytes(fields))));
+		for (int i = 0; i < fields.length; i++) {
+			byte[] value = result.get(i);
+			if (value != null) {
+				values.put(fields[i], decode(value));
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * 获取Map中的单个字段
+	 * @param key
+	 * @param field
+	 * @return 不存在时返回null
+	 */
+	public Object xlMapGet(String key, String field) {
+		return decode(RedisReplies.asBytes(storeTransport.execute(Commands.of(Commands.HGET, key.getBytes(), field.getBytes()))));
+	}
+
+	/**
+	 * 设置Map中的单个字段
+	 * @param key
+	 * @param field
+	 * @param value
+	 * @return 是否新增了字段
+	 */
+	public Boolean xlMapPut(String key, String field, Object value) {
+		return RedisReplies.asLong(storeTransport.execute(Commands.of(Commands.HSET, key.getBytes(), field.getBytes(),
+				codec.encode(value)))) > 0;
+	}
+
+	/**
+	 * Map中的字段是否存在
+	 * @param key
+	 * @param field
+	 * @return
+	 */
+	public Boolean xlMapExists(String key, String field) {
+		return RedisReplies.asLong(storeTransport.execute(Commands.of(Commands.HEXISTS, key.getBytes(), field.getBytes()))) > 0;
+	}
+
+	/**
+	 * Map的字段数
+	 * @param key
+	 * @return
+	 */
+	public Long xlMapSize(String key) {
+		return RedisReplies.asLong(storeTransport.execute(Commands.of(Commands.HLEN, key.getBytes())));
+	}
+
+	/**
+	 * 给Map中的计数字段加上delta,字段不存在时从0开始。
+	 * 计数字段以十进制数字保存,不经过codec,需要用xlMapGetLong读取,xlGetMap等方法无法解码
+	 * @param key
+	 * @param field
+	 * @param delta
+	 * @return 加上之后的值
+	 */
+	public Long xlMapIncrBy(String key, String field, long delta) {
+		return RedisReplies.asLong(storeTransport.execute(Commands.of(Commands.HINCRBY, key.getBytes(), field.getBytes(),
+				Commands.toBytes(delta))));
+	}
+
 	/**
-	 * 设置单个值
+	 * 读取xlMapIncrBy写入的计数字段
+	 * @param key
+	 * @param field
+	 * @return 不存在时返回null
+	 */
+	public Long xlMapGetLong(String key, String field) {
+		byte[] value = RedisReplies.asBytes(storeTransport.execute(Commands.of(Commands.HGET, key.getBytes(), field.getBytes())));
+		return value == null ? null : Long.valueOf(SafeEncoder.encode(value));
+	}
+
+	/**
+	 * 惰性遍历Map的字段,每次HSCAN取一页(COUNT为scanCount),值在next时才解码。
+	 * 与SCAN相同,可能返回重复的字段,遍历期间新增或删除的字段不保证被返回
 	 * @param key
-	 * @param value
 	 * @return
 	 */
-	public String xlSet(String key, Object value) {
-		String result = null;
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(store);
-		try {
-			result = jedis.set(key.getBytes(), SerializeUtils.serialize(value));
-		} finally {
-			jedisPool.returnResource(jedis);
+	public Iterable<Map.Entry<String, Object>> xlIterateMap(String key) {
+		final byte[] byteKey = key.getBytes();
+		return new Iterable<Map.Entry<String, Object>>() {
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new HashScanIterator(byteKey);
+			}
+		};
+	}
+
+	private static byte[][] toBytes(String[] values) {
+		byte[][] bytes = new byte[values.length][];
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = values[i].getBytes();
 		}
-		return result;
+		return bytes;
+	}
+	
+	/**
+	 * 设置List<Object>类型的值,替换原有的列表,list为空时删除。
+	 * DEL和每batchSize个元素一条的RPUSH(listHeadPush为true时是LPUSH)在一个事务中执行
+	 * @param <T>
+	 * @param key
+	 * @param list
+	 * @return 列表长度
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Long xlSetListObject(String key, List<T> list) {
+		byte[] byteKey = key.getBytes();
+		List<byte[][]> commands = new ArrayList<byte[][]>(list.size() / batchSize + 4);
+		commands.add(Commands.of(Commands.MULTI));
+		commands.add(Commands.of(Commands.DEL, byteKey));
+		commands.addAll(pushCommands(byteKey, list));
+		commands.add(Commands.of(Commands.EXEC));
+		List<Object> replies = RedisReplies.check(storeTransport.pipeline(commands));
+		List<Object> results = RedisReplies.check((List<Object>) replies.get(replies.size() - 1));
+		return list.isEmpty() ? 0L : RedisReplies.asLong(results.get(results.size() - 1));
 	}
 	
 	/**
-	 * 获取单个值
+	 * 获取List<Entity>类型的值,按页读取整个列表
+	 * @param <T>
 	 * @param key
 	 * @return
 	 */
-	public Object xlGet(String key) {
-		Object result = null;
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(store);
-		try {
-			result = SerializeUtils.deserialize((byte[])jedis.get(key.getBytes()));
-		} finally {
-			jedisPool.returnResource(jedis);
+	public <T> List<T> xlGetListObject(String key) {
+		List<T> result = new ArrayList<T>();
+		for (T value : this.<T>xlIterateListObject(key)) {
+			result.add(value);
 		}
 		return result;
 	}
-	
+
 	/**
-	 * 设置Map类型的值
+	 * 获取列表中的一段,与LRANGE相同,下标从0开始,负数表示从尾部倒数,包含stop
+	 * @param <T>
 	 * @param key
-	 * @param value
+	 * @param start
+	 * @param stop
 	 * @return
 	 */
-	public String xlSetMap(String key, Map<String, Object> value) {
-		String result = null;
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(store);
-		try {
-			Map<byte[], byte[]> byteMap = new HashMap<byte[], byte[]>();
-			for (Map.Entry tempValue : value.entrySet()) {
-				String tmepKey = (String) tempValue.getKey();
-				byteMap.put(tmepKey.getBytes(), SerializeUtils.serialize(tempValue.getValue()));
-			}
-			result = jedis.hmset(key.getBytes(), byteMap);
-		} finally {
-			jedisPool.returnResource(jedis);
+	@SuppressWarnings("unchecked")
+	public <T> List<T> xlGetListObject(String key, long start, long stop) {
+		List<byte[]> values = RedisReplies.asBytesList(storeTransport.execute(Commands.of(Commands.LRANGE, key.getBytes(),
+				Commands.toBytes(start), Commands.toBytes(stop))));
+		List<T> result = new ArrayList<T>(values.size());
+		for (byte[] value : values) {
+			result.add((T) decode(value));
 		}
 		return result;
-	};
-	
+	}
+
 	/**
-	 * 获取Map类型的值
+	 * 惰性遍历列表,每次LRANGE取batchSize个元素,元素在next时才解码。
+	 * 遍历期间列表被修改时可能漏掉或重复元素
+	 * @param <T>
 	 * @param key
 	 * @return
 	 */
-	public Map<String, Object> xlGetMap(String key) {
-		Map<String, Object> values = new HashMap<String, Object>();
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(store);
-		try {
-			Map<byte[], byte[]> result = jedis.hgetAll(key.getBytes());
-			for (Map.Entry tempValue : result.entrySet()) {
-				String tmepKey = new String((byte[]) tempValue.getKey());
-				Object tmepValue = SerializeUtils.deserialize((byte[]) tempValue.getValue());
-				values.put(tmepKey, tmepValue);
+	public <T> Iterable<T> xlIterateListObject(final String key) {
+		final byte[] byteKey = key.getBytes();
+		return new Iterable<T>() {
+			@Override
+			public Iterator<T> iterator() {
+				return new ListPageIterator<T>(byteKey);
 			}
-		} finally {
-			jedisPool.returnResource(jedis);
-		}
-		return values;
+		};
 	}
 	
 	/**
-	 * 通过键追加Map类型的值
+	 * 追加List<Entity>类型的值,按value的顺序追加到列表尾部;listHeadPush为true时逐个插入到列表头部。
+	 * 每batchSize个元素一条RPUSH(LPUSH),通过一次pipeline发送
+	 * @param <T>
+	 * @param key
+	 * @param value
+	 * @return 列表长度,value为空时返回null
+	 */
+	public <T> Long xlListObjectAppend(String key, List<T> value) {
+		if (value.isEmpty()) {
+			return null;
+		}
+		List<Object> replies = storeTransport.pipeline(pushCommands(key.getBytes(), value));
+		RedisReplies.check(replies);
+		return RedisReplies.asLong(replies.get(replies.size() - 1));
+	}
+
+	/**
+	 * 追加并只保留最新的maxLength个元素,RPUSH(LPUSH)和LTRIM通过一次pipeline发送
+	 * @param <T>
 	 * @param key
 	 * @param value
+	 * @param maxLength 大于0
+	 * @return 裁剪后的列表长度,value为空时返回null
+	 */
+	public <T> Long xlListObjectAppend(String key, List<T> value, int maxLength) {
+		if (maxLength <= 0) {
+			throw new IllegalArgumentException("maxLength必须大于0:" + maxLength);
+		}
+		if (value.isEmpty()) {
+			return null;
+		}
+		byte[] byteKey = key.getBytes();
+		List<byte[][]> commands = pushCommands(byteKey, value);
+		int pushes = commands.size();
+		commands.add(listHeadPush ? Commands.of(Commands.LTRIM, byteKey, Commands.toBytes(0), Commands.toBytes(maxLength - 1))
+				: Commands.of(Commands.LTRIM, byteKey, Commands.toBytes(-maxLength), Commands.toBytes(-1)));
+		List<Object> replies = storeTransport.pipeline(commands);
+		RedisReplies.check(replies);
+		return Math.min(RedisReplies.asLong(replies.get(pushes - 1)), maxLength);
+	}
+
+	/**
+	 * 把listHeadPush为true时写入的旧列表反转成按写入顺序存放,之后可以把listHeadPush改为false。
+	 * 读出整个列表后DEL和RPUSH在一个事务中执行,迁移期间不能有其他调用方写入这个列表
+	 * @param key
+	 * @return 列表长度
+	 */
+	@SuppressWarnings("unchecked")
+	public Long xlReverseListObject(String key) {
+		byte[] byteKey = key.getBytes();
+		List<byte[]> values = RedisReplies.asBytesList(storeTransport.execute(Commands.of(Commands.LRANGE, byteKey,
+				Commands.toBytes(0), Commands.toBytes(-1))));
+		if (values.isEmpty()) {
+			return 0L;
+		}
+		Collections.reverse(values);
+		List<byte[][]> commands = new ArrayList<byte[][]>(values.size() / batchSize + 4);
+		commands.add(Commands.of(Commands.MULTI));
+		commands.add(Commands.of(Commands.DEL, byteKey));
+		commands.addAll(pushCommands(byteKey, values, Commands.RPUSH));
+		commands.add(Commands.of(Commands.EXEC));
+		List<Object> replies = RedisReplies.check(storeTransport.pipeline(commands));
+		List<Object> results = RedisReplies.check((List<Object>) replies.get(replies.size() - 1));
+		return RedisReplies.asLong(results.get(results.size() - 1));
+	}
+
+	/**
+	 * 编码后每batchSize个元素一条RPUSH,listHeadPush为true时是LPUSH
+	 * @param key
+	 * @param values
 	 * @return
 	 */
-	public String xlMapAppend(String key, Map<String, Object> value) {
-		String result = null;
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(store);
-		try {
-			Map<byte[], byte[]> byteMap = new HashMap<byte[], byte[]>();
-			for (Map.Entry tempValue : value.entrySet()) {
-				String tmepKey = (String) tempValue.getKey();
-				Object tmepValue = tempValue.getValue();
-				byteMap.put(tmepKey.getBytes(), SerializeUtils.serialize(tmepValue));
-			}
-			result = jedis.hmset(key.getBytes(), byteMap);
-		} finally {
-			jedisPool.returnResource(jedis);
+	private List<byte[][]> pushCommands(byte[] key, List<?> values) {
+		List<byte[]> encoded = new ArrayList<byte[]>(values.size());
+		for (Object value : values) {
+			encoded.add(codec.encode(value));
 		}
-		return result;
+		return pushCommands(key, encoded, listHeadPush ? Commands.LPUSH : Commands.RPUSH);
 	}
-	
+
 	/**
-	 * 去除Map类型的值
+	 * 每batchSize个元素一条push命令
 	 * @param key
-	 * @param mapkey
+	 * @param values 已编码的元素
+	 * @param push LPUSH或RPUSH
 	 * @return
 	 */
-	public String xlMapRemove(String key, String[] mapkey) {
-		String result = null;
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(store);
-		try {
-			Map<byte[], byte[]> byteMap = jedis.hgetAll(key.getBytes());
-			Map<byte[], byte[]> newMap = new HashMap<byte[], byte[]>();
-			for (Map.Entry tempValue : byteMap.entrySet()) {
-				boolean value = true;
-				byte[] tmepKey = (byte[]) tempValue.getKey();
-				byte[] tmepv = (byte[]) tempValue.getValue();
-				for (String delKey : mapkey) {
-					if (new String(tmepKey).equals(delKey)) {
-						value = false;
-					}
-				}
-				if (value == true) {
-					newMap.put(tmepKey, tmepv);
-				}
-			}
-			this.xlDel(key);
-			result = jedis.hmset(key.getBytes(), newMap);
-		} finally {
-			jedisPool.returnResource(jedis);
+	private List<byte[][]> pushCommands(byte[] key, List<byte[]> values, byte[] push) {
+		List<byte[][]> commands = new ArrayList<byte[][]>(values.size() / batchSize + 2);
+		for (int from = 0; from < values.size(); from += batchSize) {
+			List<byte[]> chunk = values.subList(from, Math.min(from + batchSize, values.size()));
+			commands.add(Commands.withKey(push, key, chunk.toArray(new byte[chunk.size()][])));
 		}
-		return result;
+		return commands;
 	}
 	
 	/**
-	 * 设置List<Object>类型的值
-	 * @param <T>
-	 * @param key
-	 * @param list
+	 * 批量获取值,返回值与key的顺序一一对应,不存在的key对应null
+	 * @param keys
 	 * @return
 	 */
-	public <T> Long xlSetListObject(String key, List<T> list) {
-		Long result = null;
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(store);
-		try {
-			byte[] keyTemp = key.getBytes();
-			for (int i = 0; i < list.size(); i++) {
-				T temp = list.get(i);
-				byte[] valueTemp = SerializeUtils.serialize(temp);
-				result = jedis.lpush(keyTemp, valueTemp);
-			}
-		} finally {
-			jedisPool.returnResource(jedis);
+	public List<Object> xlMultiGet(List<String> keys) {
+		List<byte[]> byteKeys = new ArrayList<byte[]>(keys.size());
+		for (String key : keys) {
+			byteKeys.add(key.getBytes());
+		}
+		List<byte[]> values = multiGet(storeTransport, byteKeys);
+		List<Object> result = new ArrayList<Object>(values.size());
+		for (byte[] value : values) {
+			result.add(decode(value));
 		}
 		return result;
 	}
+
+	/**
+	 * 批量设置值,每个条目使用各自的过期时间
+	 * @param entries
+	 */
+	public void xlMultiSet(List<BatchEntry<String, Object>> entries) {
+		List<BatchEntry<byte[], byte[]>> byteEntries = new ArrayList<BatchEntry<byte[], byte[]>>(entries.size());
+		for (BatchEntry<String, Object> entry : entries) {
+			byteEntries.add(new BatchEntry<byte[], byte[]>(entry.getKey().getBytes(),
+					codec.encode(entry.getValue()), entry.getExpire()));
+		}
+		multiSet(storeTransport, byteEntries);
+	}
+
+	/**
+	 * 批量删除
+	 * @param keys
+	 * @return 删除的数量
+	 */
+	public Long xlMultiDel(List<String> keys) {
+		List<byte[]> byteKeys = new ArrayList<byte[]>(keys.size());
+		for (String key : keys) {
+			byteKeys.add(key.getBytes());
+		}
+		return multiDel(storeTransport, byteKeys);
+	}
 	
 	/**
-	 * 设置List<Entity>类型的值
-	 * @param <T>
+	 * 以redis的整数形式保存long值,不经过codec,可以用xlIncrBy原子地修改
 	 * @param key
 	 * @param value
 	 * @return
 	 */
-	public <T> List<T> xlGetListObject(String key) {
-		List<T> result = new ArrayList<T>();
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(store);
-		try {
-			List<byte[]> reponse = jedis.lrange(key.getBytes(), 0, -1);
-			for (int i = 0; i < reponse.size(); i++) {
-				byte[] temp = reponse.get(i);
-				T value = (T) SerializeUtils.deserialize(temp);
-				result.add(i, value);
-			}
-		} finally {
-			jedisPool.returnResource(jedis);
-		}
-		return result;
+	public String xlSetLong(String key, long value) {
+		return xlSetLong(key, value, 0);
 	}
-	
+
 	/**
-	 * 追加List<Entity>类型的值
-	 * @param <T>
+	 * 以redis的整数形式保存long值并设置过期时间
 	 * @param key
 	 * @param value
+	 * @param expire 过期时间(秒),为0时不过期
 	 * @return
 	 */
-	public <T> Long xlListObjectAppend(String key, List<T> value) {
-		Long result = null;
-		Jedis jedis = jedisPool.getResource();
-		jedis.auth(pass);
-		jedis.select(store);
-		try {
-			byte[] keyTemp = key.getBytes();
-			for (int i = 0; i < value.size(); i++) {
-				T temp = value.get(i);
-				byte[] valueTemp = SerializeUtils.serialize(temp);
-				result = jedis.lpush(keyTemp, valueTemp);
+	public String xlSetLong(String key, long value, int expire) {
+		return RedisReplies.asStatus(storeTransport.execute(setCommand(key.getBytes(), Commands.toBytes(value), expire)));
+	}
+
+	/**
+	 * 读取xlSetLong、xlIncrBy写入的值
+	 * @param key
+	 * @return 不存在时返回null
+	 * @throws NumberFormatException 值不是整数(例如由xlSet写入)时抛出
+	 */
+	public Long xlGetLong(String key) {
+		byte[] value = RedisReplies.asBytes(storeTransport.execute(Commands.of(Commands.GET, key.getBytes())));
+		return value == null ? null : Long.valueOf(SafeEncoder.encode(value));
+	}
+
+	/**
+	 * 在服务端原子地加上delta,key不存在时从0开始
+	 * @param key
+	 * @param delta
+	 * @return 加上之后的值
+	 */
+	public Long xlIncrBy(String key, long delta) {
+		return RedisReplies.asLong(storeTransport.execute(Commands.of(Commands.INCRBY, key.getBytes(), Commands.toBytes(delta))));
+	}
+
+	/**
+	 * 以十进制字符串保存double值,不经过codec,可以用xlIncrByFloat原子地修改
+	 * @param key
+	 * @param value 不能是NaN或无穷大
+	 * @return
+	 */
+	public String xlSetDouble(String key, double value) {
+		return RedisReplies.asStatus(storeTransport.execute(setCommand(key.getBytes(), toBytes(value), 0)));
+	}
+
+	/**
+	 * 读取xlSetDouble、xlIncrByFloat、xlSetLong或xlIncrBy写入的值
+	 * @param key
+	 * @return 不存在时返回null
+	 * @throws NumberFormatException 值不是数字时抛出
+	 */
+	public Double xlGetDouble(String key) {
+		byte[] value = RedisReplies.asBytes(storeTransport.execute(Commands.of(Commands.GET, key.getBytes())));
+		return value == null ? null : Double.valueOf(SafeEncoder.encode(value));
+	}
+
+	/**
+	 * 在服务端原子地加上浮点数delta,key不存在时从0开始
+	 * @param key
+	 * @param delta 不能是NaN或无穷大
+	 * @return 加上之后的值
+	 */
+	public Double xlIncrByFloat(String key, double delta) {
+		return Double.valueOf(SafeEncoder.encode(RedisReplies.asBytes(storeTransport.execute(Commands.of(Commands.INCRBYFLOAT,
+				key.getBytes(), toBytes(delta))))));
+	}
+
+	/**
+	 * 批量读取计数,每batchSize个key一次MGET,返回值与key的顺序一一对应,不存在的key对应null
+	 * @param keys
+	 * @return
+	 * @throws NumberFormatException 有值不是整数时抛出
+	 */
+	public List<Long> xlMultiGetLong(List<String> keys) {
+		List<byte[]> byteKeys = new ArrayList<byte[]>(keys.size());
+		for (String key : keys) {
+			byteKeys.add(key.getBytes());
+		}
+		List<byte[]> values = multiGet(storeTransport, byteKeys);
+		List<Long> result = new ArrayList<Long>(values.size());
+		for (byte[] value : values) {
+			result.add(value == null ? null : Long.valueOf(SafeEncoder.encode(value)));
+		}
+		return result;
+	}
+
+	/**
+	 * 批量加上计数,每batchSize个INCRBY通过一次pipeline发送
+	 * @param deltas key和要加上的值
+	 * @return key和加上之后的值,顺序与deltas的遍历顺序相同
+	 */
+	public Map<String, Long> xlMultiIncrBy(Map<String, Long> deltas) {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(deltas.entrySet());
+		for (int from = 0; from < entries.size(); from += batchSize) {
+			List<Map.Entry<String, Long>> chunk = entries.subList(from, Math.min(from + batchSize, entries.size()));
+			List<byte[][]> commands = new ArrayList<byte[][]>(chunk.size());
+			for (Map.Entry<String, Long> entry : chunk) {
+				commands.add(Commands.of(Commands.INCRBY, entry.getKey().getBytes(), Commands.toBytes(entry.getValue())));
+			}
+			List<Object> replies = RedisReplies.check(storeTransport.pipeline(commands));
+			for (int i = 0; i < chunk.size(); i++) {
+				result.put(chunk.get(i).getKey(), RedisReplies.asLong(replies.get(i)));
 			}
-		} finally {
-			jedisPool.returnResource(jedis);
 		}
 		return result;
 	}
+
+	/**
+	 * double参数,redis不接受NaN和无穷大
+	 * @param value
+	 * @return
+	 */
+	private static byte[] toBytes(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException("不支持的数值:" + value);
+		}
+		return SafeEncoder.encode(Double.toString(value));
+	}
 	
+	/**
+	 * 基于SCAN游标的迭代器,只保存游标和当前页,每取一页执行一次SCAN。
+	 * 每页的key由load转换成返回的元素,转换结果中的null会被跳过。
+	 */
+	private abstract class ScanIterator<T> implements Iterator<T> {
+
+		private final RedisTransport target;
+
+		private final String pattern;
+
+		private byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+
+		private boolean finished = false;
+
+		private Iterator<T> page = Collections.<T>emptyList().iterator();
+
+		private T next;
+
+		ScanIterator(RedisTransport target, String pattern) {
+			this.target = target;
+			this.pattern = pattern;
+		}
+
+		/**
+		 * 把一页key转换成返回的元素
+		 * @param keys 不为空
+		 * @return
+		 */
+		protected abstract List<T> load(List<byte[]> keys);
+
+		@Override
+		public boolean hasNext() {
+			while (next == null) {
+				if (page.hasNext()) {
+					next = page.next();
+				} else if (finished) {
+					return false;
+				} else {
+					page = fetchPage().iterator();
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			T result = next;
+			next = null;
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private List<T> fetchPage() {
+			ScanResult<byte[]> result = scan(target, cursor, pattern);
+			cursor = result.getCursorAsBytes();
+			finished = Arrays.equals(cursor, ScanParams.SCAN_POINTER_START_BINARY);
+			List<byte[]> keys = result.getResult();
+			if (keys.isEmpty()) {
+				return Collections.emptyList();
+			}
+			return load(keys);
+		}
+
+	}
+
+	/**
+	 * 基于HSCAN游标遍历hash的迭代器,只保存游标和当前页的原始字节
+	 */
+	private class HashScanIterator implements Iterator<Map.Entry<String, Object>> {
+
+		private final byte[] key;
+
+		private byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+
+		private boolean finished = false;
+
+		private Iterator<byte[]> page = Collections.<byte[]>emptyList().iterator();
+
+		HashScanIterator(byte[] key) {
+			this.key = key;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!page.hasNext()) {
+				if (finished) {
+					return false;
+				}
+				ScanResult<byte[]> result = RedisReplies.asScanResult(storeTransport.execute(Commands.of(Commands.HSCAN, key, cursor,
+						Commands.COUNT, Commands.toBytes(scanCount))));
+				cursor = result.getCursorAsBytes();
+				finished = Arrays.equals(cursor, ScanParams.SCAN_POINTER_START_BINARY);
+				page = result.getResult().iterator();
+			}
+			return true;
+		}
+
+		@Override
+		public Map.Entry<String, Object> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			//回复中字段和值交替出现
+			String field = new String(page.next());
+			return new AbstractMap.SimpleImmutableEntry<String, Object>(field, decode(page.next()));
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+	/**
+	 * 按LRANGE窗口分页遍历列表的迭代器,只保存当前页的原始字节
+	 */
+	private class ListPageIterator<T> implements Iterator<T> {
+
+		private final byte[] key;
+
+		private long offset = 0;
+
+		private boolean finished = false;
+
+		private Iterator<byte[]> page = Collections.<byte[]>emptyList().iterator();
+
+		ListPageIterator(byte[] key) {
+			this.key = key;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!page.hasNext()) {
+				if (finished) {
+					return false;
+				}
+				List<byte[]> values = RedisReplies.asBytesList(storeTransport.execute(Commands.of(Commands.LRANGE, key,
+						Commands.toBytes(offset), Commands.toBytes(offset + batchSize - 1))));
+				offset += values.size();
+				finished = values.size() < batchSize;
+				page = values.iterator();
+			}
+			return true;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return (T) decode(page.next());
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+	/**
+	 * 写入前压缩
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	private byte[] compress(byte[] key, byte[] value) {
+		return compressor == null ? value : compressor.compress(key, value);
+	}
+
+	/**
+	 * 读取后解压
+	 * @param value
+	 * @return
+	 */
+	private byte[] decompress(byte[] value) {
+		return compressor == null ? value : compressor.decompress(value);
+	}
+
+	/**
+	 * 解码xl*系列方法读到的值
+	 * @param bytes
+	 * @return key不存在时返回null
+	 */
+	private Object decode(byte[] bytes) {
+		return bytes == null ? null : codec.decode(bytes);
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,153 @@
+package com.purpose.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+/**
+ * 合并同一个key上并发的读取:第一个线程执行加载,加载期间到达的线程等待并共享它的结果(或异常),
+ * 加载完成后的读取重新加载。没有并发时只有一次ConcurrentHashMap的putIfAbsent和remove,不加锁也不等待。
+ * 共享的结果可能被调用方修改时(例如session)需要提供copier:发生了合并时每个调用方各得到一份副本,
+ * 原始结果不交给任何调用方;没有合并时直接返回原始结果,不复制。
+ * 写入之后必须调用forget:否则写入之后开始的读取可能加入写入之前开始的加载,拿到写入之前的值。
+ * @version V1.0
+ */
+public class SingleFlight<K, V> {
+
+	private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<K, Flight<V>>();
+
+	private final LongAdder coalesced = new LongAdder();
+
+	/**
+	 * 加载或等待正在进行的加载,结果在调用方之间共享
+	 * @param key
+	 * @param loader
+	 * @return
+	 */
+	public V load(K key, Supplier<V> loader) {
+		return load(key, loader, null);
+	}
+
+	/**
+	 * 加载或等待正在进行的加载
+	 * @param key
+	 * @param loader
+	 * @param copier 为null时共享同一个结果
+	 * @return
+	 */
+	public V load(K key, Supplier<V> loader, UnaryOperator<V> copier) {
+		for (;;) {
+			Flight<V> flight = new Flight<V>();
+			Flight<V> existing = flights.putIfAbsent(key, flight);
+			if (existing == null) {
+				return lead(key, flight, loader, copier);
+			}
+			if (existing.enter()) {
+				coalesced.increment();
+				V value = existing.await(loader);
+				return value == null || copier == null ? value : copier.apply(value);
+			}
+			//加载刚刚结束,结果可能已经交给了调用方,重新开始
+		}
+	}
+
+	/**
+	 * 写入key之后调用,正在进行的加载不再接受新的调用方,之后的读取重新加载;已经加入的调用方仍然得到它的结果
+	 * @param key
+	 */
+	public void forget(K key) {
+		flights.remove(key);
+	}
+
+	/**
+	 * 清空所有key之后调用,与对每个key调用forget相同
+	 */
+	public void forgetAll() {
+		flights.clear();
+	}
+
+	/**
+	 * 等待并共享了其他线程加载结果的次数
+	 * @return
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	private V lead(K key, Flight<V> flight, Supplier<V> loader, UnaryOperator<V> copier) {
+		V value;
+		try {
+			value = loader.get();
+			flight.complete(value);
+		} catch (RuntimeException e) {
+			flight.completeExceptionally(e);
+			throw e;
+		} catch (Error e) {
+			flight.completeExceptionally(e);
+			throw e;
+		} finally {
+			flights.remove(key, flight);
+		}
+		//没有人加入时原始结果归自己,否则也使用副本
+		if (flight.close() || value == null || copier == null) {
+			return value;
+		}
+		return copier.apply(value);
+	}
+
+	/**
+	 * 一次加载,joiners为加入等待的线程数,加载者结束后置为CLOSED,之后不能再加入
+	 */
+	private static class Flight<V> extends CompletableFuture<V> {
+
+		private static final int CLOSED = -1;
+
+		@SuppressWarnings("rawtypes")
+		private static final AtomicIntegerFieldUpdater<Flight> JOINERS = AtomicIntegerFieldUpdater.newUpdater(Flight.class, "joiners");
+
+		private volatile int joiners;
+
+		boolean enter() {
+			for (;;) {
+				int current = joiners;
+				if (current == CLOSED) {
+					return false;
+				}
+				if (JOINERS.compareAndSet(this, current, current + 1)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * @return 是否没有任何线程加入
+		 */
+		boolean close() {
+			return JOINERS.compareAndSet(this, 0, CLOSED);
+		}
+
+		/**
+		 * 等待加载结果,被中断时自己加载
+		 */
+		V await(Supplier<V> loader) {
+			try {
+				return get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return loader.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				throw (Error) cause;
+			}
+		}
+
+	}
+
+}
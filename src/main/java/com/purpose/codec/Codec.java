@@ -0,0 +1,41 @@
+package com.purpose.codec;
+
+import java.util.Arrays;
+/**
+ * 值的编解码接口,负责对象和redis中存储的字节数组之间的转换
+ * @version V1.0
+ */
+public interface Codec {
+
+	/**
+	 * 编码
+	 * @param value
+	 * @return
+	 * @throws CodecException 无法编码时抛出
+	 */
+	byte[] encode(Object value);
+
+	/**
+	 * 解码
+	 * @param bytes
+	 * @return
+	 * @throws CodecException 数据损坏或格式无法识别时抛出
+	 */
+	Object decode(byte[] bytes);
+
+	/**
+	 * 从数组的一段解码,默认复制出这一段再解码,实现类可以直接读取
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 * @throws CodecException 数据损坏或格式无法识别时抛出
+	 */
+	default Object decode(byte[] bytes, int offset, int length) {
+		if (offset == 0 && length == bytes.length) {
+			return decode(bytes);
+		}
+		return decode(Arrays.copyOfRange(bytes, offset, offset + length));
+	}
+
+}
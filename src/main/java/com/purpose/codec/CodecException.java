@@ -0,0 +1,19 @@
+package com.purpose.codec;
+
+/**
+ * 编解码失败时抛出的异常
+ * @version V1.0
+ */
+public class CodecException extends RuntimeException {
+
+	private static final long serialVersionUID = 4160367392447617318L;
+
+	public CodecException(String message) {
+		super(message);
+	}
+
+	public CodecException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -0,0 +1,452 @@
+package com.purpose.codec;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+/**
+ * 紧凑的二进制编解码。
+ * 常用类型(基本类型包装类、String、Date、byte[]、常用集合)直接按类型标记编码;
+ * 注册过的类型用注册号代替类描述,由TypeSerializer手工读写字段;
+ * 其他对象退回java序列化。解码时也能读取java序列化写入的旧数据。
+ * 注册号需要在所有节点上保持一致,1-99保留给内置的Shiro类型。
+ * 编码复用每个线程的缓冲区,内嵌的java序列化直接写入复用的缓冲区;解码时内嵌的java序列化数据直接从原数组读取。
+ * 开启lazySessionAttributes后,读出的SimpleSession和TrackedSession的属性表为LazyAttributes,
+ * 属性值在第一次访问时才解码,没有访问过的属性编码时直接写回原始字节;数据格式不变。
+ * @version V1.0
+ */
+public class CompactCodec implements Codec {
+
+	//数据头,不能与java序列化的0xAC冲突
+	static final byte MAGIC = (byte) 0xC1;
+
+	static final int TAG_NULL = 0;
+	static final int TAG_TRUE = 1;
+	static final int TAG_FALSE = 2;
+	static final int TAG_INT = 3;
+	static final int TAG_LONG = 4;
+	static final int TAG_DOUBLE = 5;
+	static final int TAG_FLOAT = 6;
+	static final int TAG_SHORT = 7;
+	static final int TAG_BYTE = 8;
+	static final int TAG_CHAR = 9;
+	static final int TAG_STRING = 10;
+	static final int TAG_BYTES = 11;
+	static final int TAG_DATE = 12;
+	static final int TAG_ARRAY_LIST = 13;
+	static final int TAG_HASH_SET = 14;
+	static final int TAG_LINKED_HASH_SET = 15;
+	static final int TAG_HASH_MAP = 16;
+	static final int TAG_LINKED_HASH_MAP = 17;
+	static final int TAG_REGISTERED = 30;
+	static final int TAG_JAVA = 31;
+
+	private static final int MAX_INITIAL_CAPACITY = 4096;
+
+	//小于这个字节数的属性值解码代价很小,读取时直接解码
+	private static final int LAZY_MIN_BYTES = 32;
+
+	public static final int ID_SIMPLE_SESSION = 1;
+	public static final int ID_SIMPLE_PRINCIPAL_COLLECTION = 2;
+	public static final int ID_SIMPLE_AUTHORIZATION_INFO = 3;
+	public static final int ID_TRACKED_SESSION = 4;
+
+	private final JavaSerializationCodec javaCodec = new JavaSerializationCodec();
+
+	private final ThreadLocal<CompactWriter> writers = new ThreadLocal<CompactWriter>() {
+		@Override
+		protected CompactWriter initialValue() {
+			return new CompactWriter(CompactCodec.this, initialBufferSize);
+		}
+	};
+
+	//内嵌java序列化的值时使用的缓冲区
+	private final ThreadLocal<ReusableOutputStream> javaBuffers = new ThreadLocal<ReusableOutputStream>() {
+		@Override
+		protected ReusableOutputStream initialValue() {
+			return new ReusableOutputStream(initialBufferSize, JavaSerializationCodec.MAX_RETAINED_BUFFER);
+		}
+	};
+
+	private final Map<Class<?>, Registration> byType = new ConcurrentHashMap<Class<?>, Registration>();
+
+	private final Map<Integer, Registration> byId = new ConcurrentHashMap<Integer, Registration>();
+
+	//编码缓冲区的初始大小,修改只对之后第一次编码的线程生效
+	private int initialBufferSize = 256;
+
+	//是否按需解码session的属性,属性值解码失败时在访问该属性时才抛出CodecException
+	private boolean lazySessionAttributes = false;
+
+	public CompactCodec() {
+		register(ID_SIMPLE_SESSION, new SimpleSessionSerializer());
+		register(ID_SIMPLE_PRINCIPAL_COLLECTION, new SimplePrincipalCollectionSerializer());
+		register(ID_SIMPLE_AUTHORIZATION_INFO, new SimpleAuthorizationInfoSerializer());
+		register(ID_TRACKED_SESSION, new TrackedSessionSerializer());
+	}
+
+	/**
+	 * 注册类型,同一个注册号或类型重复注册时后注册的生效
+	 * @param id 大于0的注册号
+	 * @param serializer
+	 */
+	public void register(int id, TypeSerializer<?> serializer) {
+		if (id <= 0) {
+			throw new IllegalArgumentException("注册号必须大于0:" + id);
+		}
+		Registration registration = new Registration(id, serializer);
+		Registration previous = byId.put(id, registration);
+		if (previous != null) {
+			byType.remove(previous.serializer.getType());
+		}
+		byType.put(serializer.getType(), registration);
+	}
+
+	/**
+	 * 用于spring配置,key为注册号
+	 * @param serializers
+	 */
+	public void setSerializers(Map<Integer, TypeSerializer<?>> serializers) {
+		for (Map.Entry<Integer, TypeSerializer<?>> entry : serializers.entrySet()) {
+			register(entry.getKey(), entry.getValue());
+		}
+	}
+
+	public int getInitialBufferSize() {
+		return initialBufferSize;
+	}
+
+	public void setInitialBufferSize(int initialBufferSize) {
+		this.initialBufferSize = initialBufferSize;
+	}
+
+	public boolean isLazySessionAttributes() {
+		return lazySessionAttributes;
+	}
+
+	public void setLazySessionAttributes(boolean lazySessionAttributes) {
+		this.lazySessionAttributes = lazySessionAttributes;
+	}
+
+	@Override
+	public byte[] encode(Object value) {
+		CompactWriter writer = writers.get();
+		boolean pooled = writer.tryAcquire();
+		if (!pooled) {
+			//TypeSerializer中又调用了encode
+			writer = new CompactWriter(this, initialBufferSize);
+		}
+		try {
+			writer.writeByte(MAGIC);
+			writeObject(writer, value);
+			return writer.toByteArray();
+		} finally {
+			if (pooled)
+				writer.release(JavaSerializationCodec.MAX_RETAINED_BUFFER);
+		}
+	}
+
+	@Override
+	public Object decode(byte[] bytes) {
+		return decode(bytes, 0, bytes.length);
+	}
+
+	@Override
+	public Object decode(byte[] bytes, int offset, int length) {
+		if (JavaSerializationCodec.isJavaSerialized(bytes, offset, length)) {
+			return javaCodec.decode(bytes, offset, length);
+		}
+		if (length == 0 || bytes[offset] != MAGIC) {
+			throw new CodecException("无法识别的数据格式");
+		}
+		CompactReader reader = new CompactReader(this, bytes, offset + 1, offset + length);
+		return readObject(reader);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	void writeObject(CompactWriter writer, Object value) {
+		if (value == null) {
+			writer.writeByte(TAG_NULL);
+			return;
+		}
+		Class<?> type = value.getClass();
+		if (type == String.class) {
+			writer.writeByte(TAG_STRING);
+			writer.writeString((String) value);
+		} else if (type == Boolean.class) {
+			writer.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+		} else if (type == Integer.class) {
+			writer.writeByte(TAG_INT);
+			writer.writeSignedVarInt((Integer) value);
+		} else if (type == Long.class) {
+			writer.writeByte(TAG_LONG);
+			writer.writeSignedVarLong((Long) value);
+		} else if (type == Double.class) {
+			writer.writeByte(TAG_DOUBLE);
+			writer.writeLong(Double.doubleToLongBits((Double) value));
+		} else if (type == Float.class) {
+			writer.writeByte(TAG_FLOAT);
+			writer.writeVarInt(Float.floatToIntBits((Float) value));
+		} else if (type == Short.class) {
+			writer.writeByte(TAG_SHORT);
+			writer.writeSignedVarInt((Short) value);
+		} else if (type == Byte.class) {
+			writer.writeByte(TAG_BYTE);
+			writer.writeByte((Byte) value);
+		} else if (type == Character.class) {
+			writer.writeByte(TAG_CHAR);
+			writer.writeVarInt((Character) value);
+		} else if (type == byte[].class) {
+			byte[] bytes = (byte[]) value;
+			writer.writeByte(TAG_BYTES);
+			writer.writeVarInt(bytes.length);
+			writer.writeBytes(bytes);
+		} else if (type == Date.class) {
+			writer.writeByte(TAG_DATE);
+			writer.writeSignedVarLong(((Date) value).getTime());
+		} else if (type == ArrayList.class) {
+			writer.writeByte(TAG_ARRAY_LIST);
+			writeElements(writer, (List<?>) value);
+		} else if (type == HashSet.class) {
+			writer.writeByte(TAG_HASH_SET);
+			writeElements(writer, (Set<?>) value);
+		} else if (type == LinkedHashSet.class) {
+			writer.writeByte(TAG_LINKED_HASH_SET);
+			writeElements(writer, (Set<?>) value);
+		} else if (type == HashMap.class) {
+			writer.writeByte(TAG_HASH_MAP);
+			writeEntries(writer, (Map<?, ?>) value);
+		} else if (type == LinkedHashMap.class) {
+			writer.writeByte(TAG_LINKED_HASH_MAP);
+			writeEntries(writer, (Map<?, ?>) value);
+		} else {
+			Registration registration = byType.get(type);
+			if (registration != null) {
+				writer.writeByte(TAG_REGISTERED);
+				writer.writeVarInt(registration.id);
+				((TypeSerializer) registration.serializer).write(writer, value);
+			} else {
+				writer.writeByte(TAG_JAVA);
+				ReusableOutputStream out = javaBuffers.get();
+				boolean pooled = out.tryAcquire();
+				if (!pooled) {
+					out = new ReusableOutputStream(initialBufferSize, JavaSerializationCodec.MAX_RETAINED_BUFFER);
+				}
+				try {
+					javaCodec.encodeTo(value, out);
+					writer.writeVarInt(out.size());
+					writer.writeBytes(out.buffer(), 0, out.size());
+				} finally {
+					if (pooled)
+						out.release();
+				}
+			}
+		}
+	}
+
+	Object readObject(CompactReader reader) {
+		int tag = reader.readByte();
+		switch (tag) {
+		case TAG_NULL:
+			return null;
+		case TAG_TRUE:
+			return Boolean.TRUE;
+		case TAG_FALSE:
+			return Boolean.FALSE;
+		case TAG_INT:
+			return reader.readSignedVarInt();
+		case TAG_LONG:
+			return reader.readSignedVarLong();
+		case TAG_DOUBLE:
+			return Double.longBitsToDouble(reader.readLong());
+		case TAG_FLOAT:
+			return Float.intBitsToFloat(reader.readVarInt());
+		case TAG_SHORT:
+			return (short) reader.readSignedVarInt();
+		case TAG_BYTE:
+			return (byte) reader.readByte();
+		case TAG_CHAR:
+			return (char) reader.readVarInt();
+		case TAG_STRING:
+			return reader.readString();
+		case TAG_BYTES:
+			return reader.readBytes(reader.readVarInt());
+		case TAG_DATE:
+			return new Date(reader.readSignedVarLong());
+		case TAG_ARRAY_LIST: {
+			int size = reader.readVarInt();
+			return readElements(reader, new ArrayList<Object>(capacity(size)), size);
+		}
+		case TAG_HASH_SET: {
+			int size = reader.readVarInt();
+			return readElements(reader, new HashSet<Object>(capacity(size)), size);
+		}
+		case TAG_LINKED_HASH_SET: {
+			int size = reader.readVarInt();
+			return readElements(reader, new LinkedHashSet<Object>(capacity(size)), size);
+		}
+		case TAG_HASH_MAP: {
+			int size = reader.readVarInt();
+			return readEntries(reader, new HashMap<Object, Object>(capacity(size)), size);
+		}
+		case TAG_LINKED_HASH_MAP: {
+			int size = reader.readVarInt();
+			return readEntries(reader, new LinkedHashMap<Object, Object>(capacity(size)), size);
+		}
+		case TAG_REGISTERED: {
+			int id = reader.readVarInt();
+			Registration registration = byId.get(id);
+			if (registration == null) {
+				throw new CodecException("未注册的类型:" + id);
+			}
+			return registration.serializer.read(reader);
+		}
+		case TAG_JAVA: {
+			int length = reader.readVarInt();
+			int start = reader.position();
+			reader.skip(length);
+			return javaCodec.decode(reader.buffer(), start, length);
+		}
+		default:
+			throw new CodecException("无法识别的类型标记:" + tag);
+		}
+	}
+
+	/**
+	 * 读取session的属性表,值只记录位置不解码;无法跳过的值(注册类型)和很小的值直接解码
+	 * @param reader
+	 * @param size
+	 * @return
+	 */
+	LazyAttributes readLazyEntries(CompactReader reader, int size) {
+		LazyAttributes attributes = new LazyAttributes(this, reader.buffer());
+		for (int i = 0; i < size; i++) {
+			Object key = readObject(reader);
+			int start = reader.position();
+			if (skipObject(reader) && reader.position() - start >= LAZY_MIN_BYTES) {
+				attributes.putRaw(key, start, reader.position() - start);
+			} else {
+				reader.position(start);
+				attributes.putDecoded(key, readObject(reader));
+			}
+		}
+		return attributes;
+	}
+
+	/**
+	 * 不解码地跳过一个对象
+	 * @param reader
+	 * @return 遇到注册类型无法跳过时返回false,此时读取位置不确定
+	 */
+	boolean skipObject(CompactReader reader) {
+		int tag = reader.readByte();
+		switch (tag) {
+		case TAG_NULL:
+		case TAG_TRUE:
+		case TAG_FALSE:
+			return true;
+		case TAG_INT:
+		case TAG_LONG:
+		case TAG_FLOAT:
+		case TAG_SHORT:
+		case TAG_CHAR:
+		case TAG_DATE:
+			reader.readVarLong();
+			return true;
+		case TAG_DOUBLE:
+			reader.skip(8);
+			return true;
+		case TAG_BYTE:
+			reader.skip(1);
+			return true;
+		case TAG_STRING:
+		case TAG_BYTES:
+		case TAG_JAVA:
+			reader.skip(reader.readVarInt());
+			return true;
+		case TAG_ARRAY_LIST:
+		case TAG_HASH_SET:
+		case TAG_LINKED_HASH_SET:
+			return skipObjects(reader, reader.readVarInt());
+		case TAG_HASH_MAP:
+		case TAG_LINKED_HASH_MAP:
+			return skipObjects(reader, 2L * reader.readVarInt());
+		case TAG_REGISTERED:
+			return false;
+		default:
+			throw new CodecException("无法识别的类型标记:" + tag);
+		}
+	}
+
+	private boolean skipObjects(CompactReader reader, long count) {
+		if (count < 0) {
+			throw new CodecException("集合大小错误:" + count);
+		}
+		for (long i = 0; i < count; i++) {
+			if (!skipObject(reader)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void writeElements(CompactWriter writer, Collection<?> values) {
+		writer.writeVarInt(values.size());
+		for (Object element : values) {
+			writeObject(writer, element);
+		}
+	}
+
+	private void writeEntries(CompactWriter writer, Map<?, ?> values) {
+		writer.writeVarInt(values.size());
+		for (Map.Entry<?, ?> entry : values.entrySet()) {
+			writeObject(writer, entry.getKey());
+			writeObject(writer, entry.getValue());
+		}
+	}
+
+	private <C extends Collection<Object>> C readElements(CompactReader reader, C target, int size) {
+		for (int i = 0; i < size; i++) {
+			target.add(readObject(reader));
+		}
+		return target;
+	}
+
+	private <M extends Map<Object, Object>> M readEntries(CompactReader reader, M target, int size) {
+		for (int i = 0; i < size; i++) {
+			Object key = readObject(reader);
+			target.put(key, readObject(reader));
+		}
+		return target;
+	}
+
+	/**
+	 * 集合的初始容量,数据损坏时size可能非常大,初始容量不超过MAX_INITIAL_CAPACITY
+	 * @param size
+	 * @return
+	 */
+	private static int capacity(int size) {
+		return Math.max(16, (int) (Math.min(size, MAX_INITIAL_CAPACITY) / 0.75f) + 1);
+	}
+
+	private static class Registration {
+
+		final int id;
+
+		final TypeSerializer<?> serializer;
+
+		Registration(int id, TypeSerializer<?> serializer) {
+			this.id = id;
+			this.serializer = serializer;
+		}
+
+	}
+
+}
@@ -0,0 +1,147 @@
+package com.purpose.codec;
+
+/**
+ * CompactCodec的输入,与CompactWriter对应
+ * @version V1.0
+ */
+public class CompactReader {
+
+	private final CompactCodec codec;
+
+	private final byte[] buffer;
+
+	private final int limit;
+
+	private int position;
+
+	CompactReader(CompactCodec codec, byte[] buffer, int offset, int limit) {
+		this.codec = codec;
+		this.buffer = buffer;
+		this.position = offset;
+		this.limit = limit;
+	}
+
+	public int readByte() {
+		require(1);
+		return buffer[position++];
+	}
+
+	public boolean readBoolean() {
+		return readByte() != 0;
+	}
+
+	public byte[] readBytes(int length) {
+		require(length);
+		byte[] bytes = new byte[length];
+		System.arraycopy(buffer, position, bytes, 0, length);
+		position += length;
+		return bytes;
+	}
+
+	public int readVarInt() {
+		int result = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = readByte();
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new CodecException("变长int格式错误");
+	}
+
+	public long readVarLong() {
+		long result = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			int b = readByte();
+			result |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new CodecException("变长long格式错误");
+	}
+
+	public int readSignedVarInt() {
+		int value = readVarInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public long readSignedVarLong() {
+		long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public long readLong() {
+		require(8);
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | (buffer[position++] & 0xFF);
+		}
+		return value;
+	}
+
+	public String readString() {
+		int length = readVarInt();
+		require(length);
+		String value = new String(buffer, position, length, CompactWriter.UTF8);
+		position += length;
+		return value;
+	}
+
+	public String readNullableString() {
+		int length = readVarInt();
+		if (length == 0) {
+			return null;
+		}
+		length--;
+		require(length);
+		String value = new String(buffer, position, length, CompactWriter.UTF8);
+		position += length;
+		return value;
+	}
+
+	/**
+	 * 读取带类型标记的对象
+	 * @return
+	 */
+	public Object readObject() {
+		return codec.readObject(this);
+	}
+
+	public boolean hasRemaining() {
+		return position < limit;
+	}
+
+	/**
+	 * 跳过指定的字节数
+	 * @param length
+	 */
+	public void skip(int length) {
+		require(length);
+		position += length;
+	}
+
+	int position() {
+		return position;
+	}
+
+	void position(int position) {
+		this.position = position;
+	}
+
+	byte[] buffer() {
+		return buffer;
+	}
+
+	CompactCodec codec() {
+		return codec;
+	}
+
+	private void require(int length) {
+		if (length < 0 || position + length > limit) {
+			throw new CodecException("数据不完整,需要" + length + "字节,剩余" + (limit - position) + "字节");
+		}
+	}
+
+}
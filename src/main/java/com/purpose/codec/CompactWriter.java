@@ -0,0 +1,160 @@
+package com.purpose.codec;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+/**
+ * CompactCodec的输出缓冲区,整数使用变长编码
+ * @version V1.0
+ */
+public class CompactWriter {
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final CompactCodec codec;
+
+	private byte[] buffer;
+
+	private int position;
+
+	private final int initialCapacity;
+
+	private boolean inUse;
+
+	CompactWriter(CompactCodec codec, int initialCapacity) {
+		this.codec = codec;
+		this.initialCapacity = initialCapacity;
+		this.buffer = new byte[initialCapacity];
+	}
+
+	/**
+	 * 借用复用的writer,同一线程中嵌套编码时返回false
+	 * @return
+	 */
+	boolean tryAcquire() {
+		if (inUse) {
+			return false;
+		}
+		inUse = true;
+		position = 0;
+		return true;
+	}
+
+	/**
+	 * 归还,超过maxRetained的缓冲区被丢弃
+	 * @param maxRetained
+	 */
+	void release(int maxRetained) {
+		inUse = false;
+		position = 0;
+		if (buffer.length > maxRetained) {
+			buffer = new byte[initialCapacity];
+		}
+	}
+
+	public void writeByte(int value) {
+		ensureCapacity(1);
+		buffer[position++] = (byte) value;
+	}
+
+	public void writeBoolean(boolean value) {
+		writeByte(value ? 1 : 0);
+	}
+
+	public void writeBytes(byte[] bytes) {
+		writeBytes(bytes, 0, bytes.length);
+	}
+
+	public void writeBytes(byte[] bytes, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, buffer, position, length);
+		position += length;
+	}
+
+	/**
+	 * 无符号变长int,每个字节7位
+	 * @param value
+	 */
+	public void writeVarInt(int value) {
+		ensureCapacity(5);
+		while ((value & ~0x7F) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+
+	/**
+	 * 无符号变长long,每个字节7位
+	 * @param value
+	 */
+	public void writeVarLong(long value) {
+		ensureCapacity(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+
+	/**
+	 * zigzag编码的有符号int,绝对值小的负数也只占很少的字节
+	 * @param value
+	 */
+	public void writeSignedVarInt(int value) {
+		writeVarInt((value << 1) ^ (value >> 31));
+	}
+
+	public void writeSignedVarLong(long value) {
+		writeVarLong((value << 1) ^ (value >> 63));
+	}
+
+	public void writeLong(long value) {
+		ensureCapacity(8);
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			buffer[position++] = (byte) (value >>> shift);
+		}
+	}
+
+	public void writeString(String value) {
+		byte[] bytes = value.getBytes(UTF8);
+		writeVarInt(bytes.length);
+		writeBytes(bytes);
+	}
+
+	/**
+	 * 可以为null的字符串
+	 * @param value
+	 */
+	public void writeNullableString(String value) {
+		if (value == null) {
+			writeVarInt(0);
+		} else {
+			byte[] bytes = value.getBytes(UTF8);
+			writeVarInt(bytes.length + 1);
+			writeBytes(bytes);
+		}
+	}
+
+	/**
+	 * 写入任意对象,带类型标记
+	 * @param value
+	 */
+	public void writeObject(Object value) {
+		codec.writeObject(this, value);
+	}
+
+	public int size() {
+		return position;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, position);
+	}
+
+	private void ensureCapacity(int length) {
+		if (position + length > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, position + length));
+		}
+	}
+
+}
@@ -0,0 +1,89 @@
+package com.purpose.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+/**
+ * 基于java序列化的编解码,兼容之前SerializeUtils写入的数据。
+ * 编码时复用每个线程的输出缓冲区,只在最后复制出一个大小正好的数组;解码时直接读取数组中的一段
+ * @version V1.0
+ */
+public class JavaSerializationCodec implements Codec {
+
+	private static final int INITIAL_BUFFER_SIZE = 512;
+
+	//编码缓冲区用完后保留的最大大小,编码更大的值时缓冲区用完即丢弃。
+	//缓冲区按线程保留,servlet线程池有几百个线程时保留的总量是这个值的几百倍,因此只保留较小的缓冲区
+	static final int MAX_RETAINED_BUFFER = 64 << 10;
+
+	private final ThreadLocal<ReusableOutputStream> buffers = new ThreadLocal<ReusableOutputStream>() {
+		@Override
+		protected ReusableOutputStream initialValue() {
+			return new ReusableOutputStream(INITIAL_BUFFER_SIZE, MAX_RETAINED_BUFFER);
+		}
+	};
+
+	/**
+	 * 判断是否是java序列化的数据(以0xACED开头)
+	 * @param bytes
+	 * @return
+	 */
+	public static boolean isJavaSerialized(byte[] bytes) {
+		return isJavaSerialized(bytes, 0, bytes.length);
+	}
+
+	public static boolean isJavaSerialized(byte[] bytes, int offset, int length) {
+		return length >= 2 && bytes[offset] == (byte) 0xAC && bytes[offset + 1] == (byte) 0xED;
+	}
+
+	@Override
+	public byte[] encode(Object value) {
+		ReusableOutputStream out = buffers.get();
+		boolean pooled = out.tryAcquire();
+		if (!pooled) {
+			//对象的writeObject中又使用了这个codec
+			out = new ReusableOutputStream(INITIAL_BUFFER_SIZE, MAX_RETAINED_BUFFER);
+		}
+		try {
+			encodeTo(value, out);
+			return out.toByteArray();
+		} finally {
+			if (pooled)
+				out.release();
+		}
+	}
+
+	/**
+	 * 序列化到给定的输出流,供CompactCodec内嵌java序列化的值时使用,省去中间数组
+	 * @param value
+	 * @param out
+	 */
+	void encodeTo(Object value, ReusableOutputStream out) {
+		try {
+			ObjectOutputStream outo = new ObjectOutputStream(out);
+			outo.writeObject(value);
+			outo.close();
+		} catch (IOException e) {
+			throw new CodecException("序列化失败:" + (value == null ? null : value.getClass().getName()), e);
+		}
+	}
+
+	@Override
+	public Object decode(byte[] bytes) {
+		return decode(bytes, 0, bytes.length);
+	}
+
+	@Override
+	public Object decode(byte[] bytes, int offset, int length) {
+		try {
+			ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(bytes, offset, length));
+			return oin.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new CodecException("反序列化失败,找不到类", e);
+		} catch (IOException e) {
+			throw new CodecException("反序列化失败", e);
+		}
+	}
+
+}
@@ -0,0 +1,239 @@
+package com.purpose.codec;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+/**
+ * 按需解码的session属性表,由开启了lazySessionAttributes的CompactCodec在读取session时创建。
+ * 属性名在读取时就已解码,属性值只记录在原始数据中的位置,第一次get时才解码;
+ * 编码时没有被访问过的属性直接写回原始字节,不重新序列化。
+ * 原始数据在所有属性被访问或session被丢弃之前一直被引用。
+ * put、remove需要按Map的约定返回原来的值,会解码被替换的属性;遍历entrySet、values会解码全部属性。
+ * java序列化时替换为解码后的LinkedHashMap。
+ * @version V1.0
+ */
+public class LazyAttributes extends AbstractMap<Object, Object> implements Serializable {
+
+	private static final long serialVersionUID = -2187620931479203411L;
+
+	private final transient CompactCodec codec;
+
+	private final transient byte[] source;
+
+	//值为Raw时表示尚未解码
+	private final transient Map<Object, Object> values;
+
+	LazyAttributes(CompactCodec codec, byte[] source) {
+		this(codec, source, new LinkedHashMap<Object, Object>());
+	}
+
+	private LazyAttributes(CompactCodec codec, byte[] source, Map<Object, Object> values) {
+		this.codec = codec;
+		this.source = source;
+		this.values = values;
+	}
+
+	void putRaw(Object key, int offset, int length) {
+		values.put(key, new Raw(offset, length));
+	}
+
+	void putDecoded(Object key, Object value) {
+		values.put(key, value);
+	}
+
+	/**
+	 * 属性是否已经解码,不存在的属性返回true
+	 * @param key
+	 * @return
+	 */
+	public boolean isDecoded(Object key) {
+		return !(values.get(key) instanceof Raw);
+	}
+
+	/**
+	 * 复制属性表,未解码的属性在副本中仍然未解码,与原表共享原始数据
+	 * @return
+	 */
+	public LazyAttributes copy() {
+		return new LazyAttributes(codec, source, new LinkedHashMap<Object, Object>(values));
+	}
+
+	@Override
+	public Object get(Object key) {
+		Object value = values.get(key);
+		if (value instanceof Raw) {
+			value = decode((Raw) value);
+			values.put(key, value);
+		}
+		return value;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return values.containsKey(key);
+	}
+
+	@Override
+	public Object put(Object key, Object value) {
+		return resolve(values.put(key, value));
+	}
+
+	@Override
+	public Object remove(Object key) {
+		return resolve(values.remove(key));
+	}
+
+	@Override
+	public int size() {
+		return values.size();
+	}
+
+	@Override
+	public void clear() {
+		values.clear();
+	}
+
+	@Override
+	public Set<Object> keySet() {
+		return values.keySet();
+	}
+
+	@Override
+	public Set<Map.Entry<Object, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<Object, Object>>() {
+			@Override
+			public Iterator<Map.Entry<Object, Object>> iterator() {
+				final Iterator<Map.Entry<Object, Object>> source = values.entrySet().iterator();
+				return new Iterator<Map.Entry<Object, Object>>() {
+					@Override
+					public boolean hasNext() {
+						return source.hasNext();
+					}
+
+					@Override
+					public Map.Entry<Object, Object> next() {
+						return new DecodingEntry(source.next());
+					}
+
+					@Override
+					public void remove() {
+						source.remove();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return values.size();
+			}
+		};
+	}
+
+	/**
+	 * 写入所有属性,未解码的属性直接写入原始字节
+	 * @param writer
+	 */
+	void write(CompactWriter writer) {
+		for (Map.Entry<Object, Object> entry : values.entrySet()) {
+			writer.writeObject(entry.getKey());
+			Object value = entry.getValue();
+			if (value instanceof Raw) {
+				Raw raw = (Raw) value;
+				writer.writeBytes(source, raw.offset, raw.length);
+			} else {
+				writer.writeObject(value);
+			}
+		}
+	}
+
+	private Object resolve(Object value) {
+		return value instanceof Raw ? decode((Raw) value) : value;
+	}
+
+	private Object decode(Raw raw) {
+		return new CompactReader(codec, source, raw.offset, raw.offset + raw.length).readObject();
+	}
+
+	/**
+	 * java序列化时写入解码后的普通Map
+	 * @return
+	 * @throws ObjectStreamException
+	 */
+	protected Object writeReplace() throws ObjectStreamException {
+		return new LinkedHashMap<Object, Object>(this);
+	}
+
+	/**
+	 * 未解码的属性值在原始数据中的位置
+	 */
+	private static final class Raw {
+
+		final int offset;
+
+		final int length;
+
+		Raw(int offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+
+	}
+
+	/**
+	 * 访问值时解码并替换原表中的值
+	 */
+	private class DecodingEntry implements Map.Entry<Object, Object> {
+
+		private final Map.Entry<Object, Object> entry;
+
+		DecodingEntry(Map.Entry<Object, Object> entry) {
+			this.entry = entry;
+		}
+
+		@Override
+		public Object getKey() {
+			return entry.getKey();
+		}
+
+		@Override
+		public Object getValue() {
+			Object value = entry.getValue();
+			if (value instanceof Raw) {
+				value = decode((Raw) value);
+				entry.setValue(value);
+			}
+			return value;
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			return resolve(entry.setValue(value));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+			Object key = getKey();
+			Object value = getValue();
+			return (key == null ? other.getKey() == null : key.equals(other.getKey()))
+					&& (value == null ? other.getValue() == null : value.equals(other.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			Object key = getKey();
+			Object value = getValue();
+			return (key == null ? 0 : key.hashCode()) ^ (value == null ? 0 : value.hashCode());
+		}
+
+	}
+
+}
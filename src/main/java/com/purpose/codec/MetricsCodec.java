@@ -0,0 +1,75 @@
+package com.purpose.codec;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.purpose.metrics.LatencyHistogram;
+import com.purpose.metrics.RedisMetrics;
+/**
+ * 记录编解码耗时和字节数的包装,用来把序列化时间和网络时间分开统计
+ * @version V1.0
+ */
+public class MetricsCodec implements Codec {
+
+	private final Codec delegate;
+
+	private final LatencyHistogram encodeLatency;
+
+	private final LatencyHistogram decodeLatency;
+
+	private final LongAdder encodedBytes;
+
+	private final LongAdder decodedBytes;
+
+	/**
+	 * @param delegate 实际的编解码
+	 * @param metrics
+	 * @param prefix 指标名前缀,例如codec
+	 */
+	public MetricsCodec(Codec delegate, RedisMetrics metrics, String prefix) {
+		this.delegate = delegate;
+		this.encodeLatency = metrics.histogram(prefix + ".encode");
+		this.decodeLatency = metrics.histogram(prefix + ".decode");
+		this.encodedBytes = metrics.counter(prefix + ".encode.bytes");
+		this.decodedBytes = metrics.counter(prefix + ".decode.bytes");
+	}
+
+	@Override
+	public byte[] encode(Object value) {
+		long start = System.nanoTime();
+		byte[] bytes = delegate.encode(value);
+		encodeLatency.recordSince(start);
+		if (bytes != null) {
+			encodedBytes.add(bytes.length);
+		}
+		return bytes;
+	}
+
+	@Override
+	public Object decode(byte[] bytes) {
+		long start = System.nanoTime();
+		Object value = delegate.decode(bytes);
+		decodeLatency.recordSince(start);
+		if (bytes != null) {
+			decodedBytes.add(bytes.length);
+		}
+		return value;
+	}
+
+	@Override
+	public Object decode(byte[] bytes, int offset, int length) {
+		long start = System.nanoTime();
+		Object value = delegate.decode(bytes, offset, length);
+		decodeLatency.recordSince(start);
+		decodedBytes.add(length);
+		return value;
+	}
+
+	/**
+	 * 被包装的编解码
+	 * @return
+	 */
+	public Codec getDelegate() {
+		return delegate;
+	}
+
+}
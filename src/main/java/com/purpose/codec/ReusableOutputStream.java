@@ -0,0 +1,92 @@
+package com.purpose.codec;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+/**
+ * 可以复用的字节输出流,与ByteArrayOutputStream相同但不加锁,可以直接访问内部缓冲区。
+ * 通常每个线程一个,由codec在编码时借用:tryAcquire成功后使用,用完调用release。
+ * release时超过maxRetained的缓冲区被丢弃,避免一次大值让线程长期占用大块内存。非线程安全。
+ * @version V1.0
+ */
+public class ReusableOutputStream extends OutputStream {
+
+	private final int initialCapacity;
+
+	private final int maxRetained;
+
+	private byte[] buffer;
+
+	private int size;
+
+	private boolean inUse;
+
+	/**
+	 * @param initialCapacity 初始大小
+	 * @param maxRetained release时保留的最大缓冲区大小
+	 */
+	public ReusableOutputStream(int initialCapacity, int maxRetained) {
+		this.initialCapacity = initialCapacity;
+		this.maxRetained = maxRetained;
+		this.buffer = new byte[initialCapacity];
+	}
+
+	/**
+	 * 借用,已经被借用(同一线程中嵌套编码)时返回false
+	 * @return
+	 */
+	public boolean tryAcquire() {
+		if (inUse) {
+			return false;
+		}
+		inUse = true;
+		size = 0;
+		return true;
+	}
+
+	/**
+	 * 归还,之后内容不再有效
+	 */
+	public void release() {
+		inUse = false;
+		size = 0;
+		if (buffer.length > maxRetained) {
+			buffer = new byte[initialCapacity];
+		}
+	}
+
+	@Override
+	public void write(int b) {
+		ensure(1);
+		buffer[size++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) {
+		ensure(length);
+		System.arraycopy(bytes, offset, buffer, size, length);
+		size += length;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * 内部缓冲区,有效数据为[0, size)
+	 * @return
+	 */
+	public byte[] buffer() {
+		return buffer;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, size);
+	}
+
+	private void ensure(int extra) {
+		if (size + extra > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + extra));
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.purpose.codec;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
+/**
+ * SimpleAuthorizationInfo的序列化器,角色和字符串权限直接写字符串,对象权限按普通对象写入
+ * @version V1.0
+ */
+public class SimpleAuthorizationInfoSerializer implements TypeSerializer<SimpleAuthorizationInfo> {
+
+	@Override
+	public Class<SimpleAuthorizationInfo> getType() {
+		return SimpleAuthorizationInfo.class;
+	}
+
+	@Override
+	public void write(CompactWriter writer, SimpleAuthorizationInfo info) {
+		writeStrings(writer, info.getRoles());
+		writeStrings(writer, info.getStringPermissions());
+		Collection<Permission> permissions = info.getObjectPermissions();
+		if (permissions == null) {
+			writer.writeVarInt(0);
+		} else {
+			writer.writeVarInt(permissions.size() + 1);
+			for (Permission permission : permissions) {
+				writer.writeObject(permission);
+			}
+		}
+	}
+
+	@Override
+	public SimpleAuthorizationInfo read(CompactReader reader) {
+		SimpleAuthorizationInfo info = new SimpleAuthorizationInfo();
+		info.setRoles(readStrings(reader));
+		info.setStringPermissions(readStrings(reader));
+		int size = reader.readVarInt();
+		if (size > 0) {
+			size--;
+			Set<Permission> permissions = new HashSet<Permission>();
+			for (int i = 0; i < size; i++) {
+				permissions.add((Permission) reader.readObject());
+			}
+			info.setObjectPermissions(permissions);
+		}
+		return info;
+	}
+
+	//0表示null,否则为元素个数加1
+	private static void writeStrings(CompactWriter writer, Collection<String> values) {
+		if (values == null) {
+			writer.writeVarInt(0);
+			return;
+		}
+		writer.writeVarInt(values.size() + 1);
+		for (String value : values) {
+			writer.writeString(value);
+		}
+	}
+
+	private static Set<String> readStrings(CompactReader reader) {
+		int size = reader.readVarInt();
+		if (size == 0) {
+			return null;
+		}
+		size--;
+		Set<String> values = new HashSet<String>();
+		for (int i = 0; i < size; i++) {
+			values.add(reader.readString());
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,49 @@
+package com.purpose.codec;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+/**
+ * SimplePrincipalCollection的序列化器,按realm依次写入principal
+ * @version V1.0
+ */
+public class SimplePrincipalCollectionSerializer implements TypeSerializer<SimplePrincipalCollection> {
+
+	@Override
+	public Class<SimplePrincipalCollection> getType() {
+		return SimplePrincipalCollection.class;
+	}
+
+	@Override
+	public void write(CompactWriter writer, SimplePrincipalCollection principals) {
+		Set<String> realmNames = principals.getRealmNames();
+		writer.writeVarInt(realmNames.size());
+		for (String realmName : realmNames) {
+			Collection<?> realmPrincipals = principals.fromRealm(realmName);
+			writer.writeString(realmName);
+			writer.writeVarInt(realmPrincipals.size());
+			for (Object principal : realmPrincipals) {
+				writer.writeObject(principal);
+			}
+		}
+	}
+
+	@Override
+	public SimplePrincipalCollection read(CompactReader reader) {
+		SimplePrincipalCollection principals = new SimplePrincipalCollection();
+		int realms = reader.readVarInt();
+		for (int i = 0; i < realms; i++) {
+			String realmName = reader.readString();
+			int size = reader.readVarInt();
+			List<Object> realmPrincipals = new ArrayList<Object>(Math.min(size, 16));
+			for (int j = 0; j < size; j++) {
+				realmPrincipals.add(reader.readObject());
+			}
+			principals.addAll(realmPrincipals, realmName);
+		}
+		return principals;
+	}
+
+}
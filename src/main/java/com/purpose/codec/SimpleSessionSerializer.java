@@ -0,0 +1,106 @@
+package com.purpose.codec;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.shiro.session.mgt.SimpleSession;
+/**
+ * SimpleSession的手写序列化器,只写字段值,没有java序列化的类描述
+ * @version V1.0
+ */
+public class SimpleSessionSerializer implements TypeSerializer<SimpleSession> {
+
+	private static final int HAS_STOP_TIMESTAMP = 1;
+	private static final int HAS_LAST_ACCESS_TIME = 1 << 1;
+	private static final int EXPIRED = 1 << 2;
+
+	@Override
+	public Class<SimpleSession> getType() {
+		return SimpleSession.class;
+	}
+
+	@Override
+	public void write(CompactWriter writer, SimpleSession session) {
+		writeFields(writer, session);
+	}
+
+	@Override
+	public SimpleSession read(CompactReader reader) {
+		SimpleSession session = new SimpleSession();
+		readFields(reader, session);
+		return session;
+	}
+
+	/**
+	 * 写入SimpleSession的所有字段,子类的序列化器可以复用
+	 * @param writer
+	 * @param session
+	 */
+	protected void writeFields(CompactWriter writer, SimpleSession session) {
+		int flags = 0;
+		if (session.getStopTimestamp() != null)
+			flags |= HAS_STOP_TIMESTAMP;
+		if (session.getLastAccessTime() != null)
+			flags |= HAS_LAST_ACCESS_TIME;
+		if (session.isExpired())
+			flags |= EXPIRED;
+		writer.writeByte(flags);
+		writer.writeObject(session.getId());
+		writer.writeSignedVarLong(time(session.getStartTimestamp()));
+		if (session.getStopTimestamp() != null)
+			writer.writeSignedVarLong(session.getStopTimestamp().getTime());
+		if (session.getLastAccessTime() != null)
+			writer.writeSignedVarLong(session.getLastAccessTime().getTime());
+		writer.writeSignedVarLong(session.getTimeout());
+		writer.writeNullableString(session.getHost());
+		Map<Object, Object> attributes = session.getAttributes();
+		if (attributes == null) {
+			writer.writeVarInt(0);
+		} else {
+			writer.writeVarInt(attributes.size() + 1);
+			if (attributes instanceof LazyAttributes) {
+				((LazyAttributes) attributes).write(writer);
+				return;
+			}
+			for (Map.Entry<Object, Object> entry : attributes.entrySet()) {
+				writer.writeObject(entry.getKey());
+				writer.writeObject(entry.getValue());
+			}
+		}
+	}
+
+	protected void readFields(CompactReader reader, SimpleSession session) {
+		int flags = reader.readByte();
+		session.setId((Serializable) reader.readObject());
+		session.setStartTimestamp(new Date(reader.readSignedVarLong()));
+		if ((flags & HAS_STOP_TIMESTAMP) != 0)
+			session.setStopTimestamp(new Date(reader.readSignedVarLong()));
+		session.setLastAccessTime((flags & HAS_LAST_ACCESS_TIME) != 0 ? new Date(reader.readSignedVarLong()) : null);
+		session.setExpired((flags & EXPIRED) != 0);
+		session.setTimeout(reader.readSignedVarLong());
+		session.setHost(reader.readNullableString());
+		int size = reader.readVarInt();
+		if (size > 0) {
+			size--;
+			CompactCodec codec = reader.codec();
+			if (codec.isLazySessionAttributes()) {
+				session.setAttributes(codec.readLazyEntries(reader, size));
+				return;
+			}
+			Map<Object, Object> attributes = new LinkedHashMap<Object, Object>();
+			for (int i = 0; i < size; i++) {
+				Object key = reader.readObject();
+				attributes.put(key, reader.readObject());
+			}
+			session.setAttributes(attributes);
+		} else {
+			session.setAttributes(null);
+		}
+	}
+
+	private static long time(Date date) {
+		return date == null ? 0 : date.getTime();
+	}
+
+}
@@ -0,0 +1,30 @@
+package com.purpose.codec;
+
+import com.purpose.shiro.session.TrackedSession;
+/**
+ * TrackedSession的序列化器,格式与SimpleSession相同,读出的session不是dirty
+ * @version V1.0
+ */
+public class TrackedSessionSerializer implements TypeSerializer<TrackedSession> {
+
+	private final SimpleSessionSerializer fields = new SimpleSessionSerializer();
+
+	@Override
+	public Class<TrackedSession> getType() {
+		return TrackedSession.class;
+	}
+
+	@Override
+	public void write(CompactWriter writer, TrackedSession session) {
+		fields.writeFields(writer, session);
+	}
+
+	@Override
+	public TrackedSession read(CompactReader reader) {
+		TrackedSession session = new TrackedSession();
+		fields.readFields(reader, session);
+		session.clearDirty();
+		return session;
+	}
+
+}
@@ -0,0 +1,19 @@
+package com.purpose.codec;
+
+/**
+ * CompactCodec中注册类型的序列化器,手工读写对象的字段
+ * @version V1.0
+ */
+public interface TypeSerializer<T> {
+
+	/**
+	 * 序列化的类型,只匹配这个类本身,不匹配子类
+	 * @return
+	 */
+	Class<T> getType();
+
+	void write(CompactWriter writer, T value);
+
+	T read(CompactReader reader);
+
+}
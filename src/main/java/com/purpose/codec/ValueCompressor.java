@@ -0,0 +1,358 @@
+package com.purpose.codec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+/**
+ * 大值压缩,位于编码之后、写入redis之前。
+ * 超过threshold字节的值用Deflate压缩,压缩后的值以MARKER和算法字节开头;
+ * 未压缩的值保持原样写入,只有恰好以MARKER开头时才加上"未压缩"的头,
+ * 因此压缩和未压缩的值(包括启用前写入的值)可以共存。
+ * 按key前缀统计压缩率。
+ * @version V1.0
+ */
+public class ValueCompressor {
+
+	static final byte MARKER = (byte) 0x1F;
+
+	static final byte STORED = 0;
+
+	static final byte DEFLATE = 1;
+
+	//Deflate能达到的最大压缩比约为1032:1,超过这个比例的长度一定是损坏的
+	private static final int MAX_DEFLATE_RATIO = 1032;
+
+	//不匹配任何前缀的key的统计名
+	public static final String OTHER_PREFIX = "other";
+
+	//超过这个大小(字节)才压缩
+	private int threshold = 4096;
+
+	//Deflater的压缩级别,默认最快
+	private int level = Deflater.BEST_SPEED;
+
+	//解压后的最大大小(字节),压缩头中记录的长度超过它时按数据损坏处理,避免损坏的数据导致分配巨大的数组
+	private int maxDecompressedSize = 64 << 20;
+
+	//统计压缩率的key前缀,按顺序匹配第一个
+	private List<String> prefixes = Arrays.asList("shiro-session", "shiro-cache");
+
+	private volatile Map<String, Stats> stats = createStats(prefixes);
+
+	//池中最多保留的Deflater和Inflater数量
+	private static final int MAX_POOLED = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+	//空闲的Deflater和Inflater,它们持有zlib的本地内存,不在池中的用完立即end,destroy时池中的全部end
+	private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<Deflater>(MAX_POOLED);
+
+	private final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<Inflater>(MAX_POOLED);
+
+	private volatile boolean destroyed = false;
+
+	//压缩输出的临时缓冲区,超过MAX_RETAINED_OUTPUT时用完丢弃
+	private final ThreadLocal<byte[]> outputs = new ThreadLocal<byte[]>();
+
+	private static final int MAX_RETAINED_OUTPUT = 64 << 10;
+
+
+	/**
+	 * 压缩要写入的值
+	 * @param key 用于按前缀统计
+	 * @param value
+	 * @return
+	 */
+	public byte[] compress(byte[] key, byte[] value) {
+		if (value == null) {
+			return null;
+		}
+		Stats stat = stats(key);
+		if (value.length > threshold) {
+			byte[] compressed = deflate(value);
+			if (compressed != null) {
+				stat.record(value.length, compressed.length);
+				return compressed;
+			}
+		}
+		stat.skipped.incrementAndGet();
+		if (value.length > 0 && value[0] == MARKER) {
+			byte[] stored = new byte[value.length + 2];
+			stored[0] = MARKER;
+			stored[1] = STORED;
+			System.arraycopy(value, 0, stored, 2, value.length);
+			return stored;
+		}
+		return value;
+	}
+
+	/**
+	 * 还原从redis读到的值
+	 * @param value
+	 * @return
+	 * @throws CodecException 压缩数据损坏或解压后超过maxDecompressedSize时抛出
+	 */
+	public byte[] decompress(byte[] value) {
+		if (value == null || value.length < 2 || value[0] != MARKER) {
+			return value;
+		}
+		if (value[1] == STORED) {
+			return Arrays.copyOfRange(value, 2, value.length);
+		}
+		if (value[1] != DEFLATE) {
+			throw new CodecException("无法识别的压缩算法:" + value[1]);
+		}
+		int length = 0;
+		int position = 2;
+		for (int shift = 0;; shift += 7) {
+			if (position >= value.length || shift > 28) {
+				throw new CodecException("压缩数据头损坏");
+			}
+			int b = value[position++];
+			length |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+		}
+		if (length < 0 || length > maxDecompressedSize || length > (long) (value.length - position) * MAX_DEFLATE_RATIO) {
+			throw new CodecException("压缩数据头损坏,解压后长度为" + length);
+		}
+		byte[] result = new byte[length];
+		Inflater inflater = inflaters.poll();
+		if (inflater == null) {
+			inflater = new Inflater();
+		}
+		inflater.setInput(value, position, value.length - position);
+		try {
+			int read = 0;
+			while (read < length && !inflater.finished()) {
+				int n = inflater.inflate(result, read, length - read);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				read += n;
+			}
+			if (read != length) {
+				throw new CodecException("压缩数据不完整");
+			}
+		} catch (DataFormatException e) {
+			throw new CodecException("压缩数据损坏", e);
+		} finally {
+			inflater.reset();
+			if (destroyed || !inflaters.offer(inflater)) {
+				inflater.end();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 释放池中Deflater和Inflater的本地内存,应用关闭或重新部署时调用;之后仍可使用,只是不再复用
+	 */
+	public void destroy() {
+		destroyed = true;
+		for (Deflater deflater; (deflater = deflaters.poll()) != null;) {
+			deflater.end();
+		}
+		for (Inflater inflater; (inflater = inflaters.poll()) != null;) {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * 各前缀的压缩统计,key为前缀
+	 * @return
+	 */
+	public Map<String, Stats> getStats() {
+		return Collections.unmodifiableMap(stats);
+	}
+
+	/**
+	 * 压缩后不小于原始大小时返回null
+	 * @param value
+	 * @return
+	 */
+	private byte[] deflate(byte[] value) {
+		byte[] header = new byte[7];
+		header[0] = MARKER;
+		header[1] = DEFLATE;
+		int headerLength = 2;
+		int length = value.length;
+		while ((length & ~0x7F) != 0) {
+			header[headerLength++] = (byte) ((length & 0x7F) | 0x80);
+			length >>>= 7;
+		}
+		header[headerLength++] = (byte) length;
+		//输出最多与原始值一样大,放不下说明压缩没有意义
+		byte[] output = outputs.get();
+		if (output == null || output.length < value.length) {
+			output = new byte[Math.max(value.length, threshold + 1)];
+			if (output.length <= MAX_RETAINED_OUTPUT) {
+				outputs.set(output);
+			}
+		}
+		int limit = value.length;
+		System.arraycopy(header, 0, output, 0, headerLength);
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			deflater = new Deflater(level);
+		}
+		try {
+			deflater.setLevel(level);
+			deflater.setInput(value);
+			deflater.finish();
+			int written = headerLength;
+			while (!deflater.finished() && written < limit) {
+				written += deflater.deflate(output, written, limit - written);
+			}
+			if (!deflater.finished()) {
+				return null;
+			}
+			return Arrays.copyOf(output, written);
+		} finally {
+			deflater.reset();
+			if (destroyed || !deflaters.offer(deflater)) {
+				deflater.end();
+			}
+		}
+	}
+
+	private Stats stats(byte[] key) {
+		Map<String, Stats> current = stats;
+		if (key != null) {
+			for (Map.Entry<String, Stats> entry : current.entrySet()) {
+				if (entry.getValue().matches(key)) {
+					return entry.getValue();
+				}
+			}
+		}
+		return current.get(OTHER_PREFIX);
+	}
+
+	private static Map<String, Stats> createStats(List<String> prefixes) {
+		Map<String, Stats> result = new LinkedHashMap<String, Stats>();
+		for (String prefix : prefixes) {
+			result.put(prefix, new Stats(prefix));
+		}
+		result.put(OTHER_PREFIX, new Stats(null));
+		return result;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public void setThreshold(int threshold) {
+		this.threshold = threshold;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	public int getMaxDecompressedSize() {
+		return maxDecompressedSize;
+	}
+
+	public void setMaxDecompressedSize(int maxDecompressedSize) {
+		this.maxDecompressedSize = maxDecompressedSize;
+	}
+
+	public List<String> getPrefixes() {
+		return prefixes;
+	}
+
+	public void setPrefixes(List<String> prefixes) {
+		this.prefixes = new ArrayList<String>(prefixes);
+		this.stats = createStats(this.prefixes);
+	}
+
+	/**
+	 * 单个前缀的压缩统计
+	 */
+	public static class Stats {
+
+		private final byte[] prefix;
+
+		private final AtomicLong compressed = new AtomicLong();
+
+		private final AtomicLong skipped = new AtomicLong();
+
+		private final AtomicLong originalBytes = new AtomicLong();
+
+		private final AtomicLong compressedBytes = new AtomicLong();
+
+		Stats(String prefix) {
+			this.prefix = prefix == null ? null : prefix.getBytes();
+		}
+
+		boolean matches(byte[] key) {
+			if (prefix == null || key.length < prefix.length) {
+				return false;
+			}
+			for (int i = 0; i < prefix.length; i++) {
+				if (key[i] != prefix[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void record(int original, int result) {
+			compressed.incrementAndGet();
+			originalBytes.addAndGet(original);
+			compressedBytes.addAndGet(result);
+		}
+
+		/**
+		 * 被压缩的值的数量
+		 * @return
+		 */
+		public long getCompressedCount() {
+			return compressed.get();
+		}
+
+		/**
+		 * 低于阈值或压缩无效而原样写入的值的数量
+		 * @return
+		 */
+		public long getSkippedCount() {
+			return skipped.get();
+		}
+
+		public long getOriginalBytes() {
+			return originalBytes.get();
+		}
+
+		public long getCompressedBytes() {
+			return compressedBytes.get();
+		}
+
+		/**
+		 * 压缩后大小与原始大小之比,没有压缩过时返回1
+		 * @return
+		 */
+		public double getRatio() {
+			long original = originalBytes.get();
+			return original == 0 ? 1 : (double) compressedBytes.get() / original;
+		}
+
+		@Override
+		public String toString() {
+			return "compressed=" + compressed.get() + ", skipped=" + skipped.get() + ", ratio=" + getRatio();
+		}
+
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.purpose.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+/**
+ * 命中/未命中计数
+ * @version V1.0
+ */
+public class HitRatio {
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	public void hit() {
+		hits.increment();
+	}
+
+	public void miss() {
+		misses.increment();
+	}
+
+	/**
+	 * 按查询结果记一次命中或未命中
+	 * @param found
+	 */
+	public void record(boolean found) {
+		if (found) {
+			hits.increment();
+		} else {
+			misses.increment();
+		}
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * 命中率,没有任何查询时返回0
+	 * @return
+	 */
+	public double getRatio() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0d : (double) h / total;
+	}
+
+	public void reset() {
+		hits.reset();
+		misses.reset();
+	}
+
+}
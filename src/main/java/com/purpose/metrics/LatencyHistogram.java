@@ -0,0 +1,135 @@
+package com.purpose.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+/**
+ * 无锁的延迟直方图。按2的幂分段、每段16个桶记录纳秒值,相对误差不超过1/16,
+ * 记录时只做原子加,不分配对象;读取分位数时遍历所有桶,读到的是近似一致的快照。
+ * @version V1.0
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	//超过2^40纳秒(约18分钟)的值记在最后一个桶
+	private static final int MAX_EXPONENT = 39;
+
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder total = new LongAdder();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * 记录一次耗时
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets.incrementAndGet(index(nanos));
+		count.increment();
+		total.add(nanos);
+		long current = max.get();
+		while (nanos > current && !max.compareAndSet(current, nanos)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * 记录从start(System.nanoTime())到现在的耗时
+	 * @param start
+	 */
+	public void recordSince(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * 平均值(纳秒)
+	 * @return
+	 */
+	public long getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : total.sum() / n;
+	}
+
+	/**
+	 * 最大值(纳秒)
+	 * @return
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * 分位数(纳秒),返回所在桶的上界
+	 * @param quantile 0到1之间,例如0.99
+	 * @return
+	 */
+	public long getPercentile(double quantile) {
+		long n = 0;
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			n += counts[i];
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(quantile * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * 清空所有记录,与并发的record之间不保证原子性
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.reset();
+		total.reset();
+		max.set(0);
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+		if (exponent == MAX_EXPONENT && value >= (1L << (MAX_EXPONENT + 1))) {
+			return BUCKETS - 1;
+		}
+		int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS));
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa - SUB_BUCKETS;
+	}
+
+	static long upperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((mantissa + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+}
@@ -0,0 +1,42 @@
+package com.purpose.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+/**
+ * 把指标快照写入日志
+ * @version V1.0
+ */
+public class LoggingMetricsSink implements MetricsSink {
+
+	private static final Logger logger = LoggerFactory.getLogger(LoggingMetricsSink.class);
+
+	//只输出以此开头的指标,为空时全部输出
+	private String prefix;
+
+	@Override
+	public void report(SortedMap<String, Number> snapshot) {
+		if (!logger.isInfoEnabled()) {
+			return;
+		}
+		StringBuilder sb = new StringBuilder("redis指标:");
+		for (Map.Entry<String, Number> entry : snapshot.entrySet()) {
+			if (prefix != null && !entry.getKey().startsWith(prefix)) {
+				continue;
+			}
+			sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+		}
+		logger.info(sb.toString());
+	}
+
+	public String getPrefix() {
+		return prefix;
+	}
+
+	public void setPrefix(String prefix) {
+		this.prefix = prefix;
+	}
+
+}
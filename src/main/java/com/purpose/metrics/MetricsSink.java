@@ -0,0 +1,16 @@
+package com.purpose.metrics;
+
+import java.util.SortedMap;
+/**
+ * 指标输出接口,用于把快照推送到日志、监控系统等
+ * @version V1.0
+ */
+public interface MetricsSink {
+
+	/**
+	 * 输出一次指标快照
+	 * @param snapshot 指标名到值的映射,按名称排序
+	 */
+	void report(SortedMap<String, Number> snapshot);
+
+}
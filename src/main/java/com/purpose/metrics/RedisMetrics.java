@@ -0,0 +1,283 @@
+package com.purpose.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+/**
+ * Redis相关指标的注册中心。
+ * 直方图、计数器在组件初始化时按名称创建一次并由组件持有,调用路径上只做原子加;
+ * 读取时通过{@link #snapshot()}汇总,可注册为JMX MBean,也可定时推送给{@link MetricsSink}
+ * @version V1.0
+ */
+public class RedisMetrics {
+
+	private static final Logger logger = LoggerFactory.getLogger(RedisMetrics.class);
+
+	public static final String DEFAULT_OBJECT_NAME = "com.purpose.redis:type=RedisMetrics";
+
+	/**
+	 * 瞬时值
+	 */
+	public interface Gauge {
+		Number get();
+	}
+
+	private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	private final ConcurrentMap<String, HitRatio> hitRatios = new ConcurrentHashMap<String, HitRatio>();
+
+	private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+
+	private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+	//JMX对象名,为空时不注册
+	private String objectName = DEFAULT_OBJECT_NAME;
+
+	//定时推送的目标
+	private List<MetricsSink> sinks;
+
+	//推送间隔(秒),小于等于0时不推送
+	private int reportInterval = 60;
+
+	private ObjectName registeredName;
+
+	private ScheduledExecutorService reporter;
+
+	/**
+	 * 注册JMX并启动定时推送
+	 */
+	public synchronized void init() {
+		if (objectName != null && !objectName.isEmpty() && registeredName == null) {
+			try {
+				ObjectName name = new ObjectName(objectName);
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				if (!server.isRegistered(name)) {
+					server.registerMBean(new RedisMetricsMBean(this), name);
+					registeredName = name;
+				}
+			} catch (Exception e) {
+				logger.warn("注册redis指标的MBean失败:" + objectName, e);
+			}
+		}
+		if (sinks != null && !sinks.isEmpty() && reportInterval > 0 && reporter == null) {
+			reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "redis-metrics-reporter");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			reporter.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					report();
+				}
+			}, reportInterval, reportInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * 注销JMX并停止推送
+	 */
+	public synchronized void destroy() {
+		if (reporter != null) {
+			reporter.shutdownNow();
+			reporter = null;
+		}
+		if (registeredName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+			} catch (Exception e) {
+				logger.warn("注销redis指标的MBean失败:" + registeredName, e);
+			}
+			registeredName = null;
+		}
+	}
+
+	/**
+	 * 获取或创建延迟直方图
+	 * @param name
+	 * @return
+	 */
+	public LatencyHistogram histogram(String name) {
+		LatencyHistogram histogram = histograms.get(name);
+		if (histogram == null) {
+			LatencyHistogram created = new LatencyHistogram();
+			histogram = histograms.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * 以指定名称登记一个已有的直方图,名称已存在时返回已登记的
+	 * @param name
+	 * @param histogram
+	 * @return
+	 */
+	public LatencyHistogram histogram(String name, LatencyHistogram histogram) {
+		LatencyHistogram existing = histograms.putIfAbsent(name, histogram);
+		return existing == null ? histogram : existing;
+	}
+
+	/**
+	 * 获取或创建命中率计数
+	 * @param name
+	 * @return
+	 */
+	public HitRatio hitRatio(String name) {
+		HitRatio ratio = hitRatios.get(name);
+		if (ratio == null) {
+			HitRatio created = new HitRatio();
+			ratio = hitRatios.putIfAbsent(name, created);
+			if (ratio == null) {
+				ratio = created;
+			}
+		}
+		return ratio;
+	}
+
+	/**
+	 * 获取或创建计数器
+	 * @param name
+	 * @return
+	 */
+	public LongAdder counter(String name) {
+		LongAdder counter = counters.get(name);
+		if (counter == null) {
+			LongAdder created = new LongAdder();
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * 登记瞬时值,同名的会被替换
+	 * @param name
+	 * @param gauge
+	 */
+	public void gauge(String name, Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * 汇总当前所有指标。延迟类指标以微秒为单位
+	 * @return
+	 */
+	public SortedMap<String, Number> snapshot() {
+		SortedMap<String, Number> snapshot = new TreeMap<String, Number>();
+		for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+			String name = entry.getKey();
+			LatencyHistogram histogram = entry.getValue();
+			snapshot.put(name + ".count", histogram.getCount());
+			snapshot.put(name + ".meanMicros", toMicros(histogram.getMean()));
+			snapshot.put(name + ".p50Micros", toMicros(histogram.getPercentile(0.5)));
+			snapshot.put(name + ".p99Micros", toMicros(histogram.getPercentile(0.99)));
+			snapshot.put(name + ".p999Micros", toMicros(histogram.getPercentile(0.999)));
+			snapshot.put(name + ".maxMicros", toMicros(histogram.getMax()));
+		}
+		for (Map.Entry<String, HitRatio> entry : hitRatios.entrySet()) {
+			String name = entry.getKey();
+			HitRatio ratio = entry.getValue();
+			snapshot.put(name + ".hits", ratio.getHits());
+			snapshot.put(name + ".misses", ratio.getMisses());
+			snapshot.put(name + ".hitRatio", ratio.getRatio());
+		}
+		for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().sum());
+		}
+		for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+			try {
+				Number value = entry.getValue().get();
+				if (value != null) {
+					snapshot.put(entry.getKey(), value);
+				}
+			} catch (RuntimeException e) {
+				logger.debug("读取指标失败:" + entry.getKey(), e);
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * 立即向所有sink推送一次快照
+	 */
+	public void report() {
+		if (sinks == null || sinks.isEmpty()) {
+			return;
+		}
+		SortedMap<String, Number> snapshot = snapshot();
+		for (MetricsSink sink : sinks) {
+			try {
+				sink.report(snapshot);
+			} catch (RuntimeException e) {
+				logger.warn("输出redis指标失败", e);
+			}
+		}
+	}
+
+	/**
+	 * 清空直方图、命中率和计数器,瞬时值不受影响
+	 */
+	public void reset() {
+		for (LatencyHistogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+		for (HitRatio ratio : hitRatios.values()) {
+			ratio.reset();
+		}
+		for (LongAdder counter : counters.values()) {
+			counter.reset();
+		}
+	}
+
+	private static long toMicros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	public String getObjectName() {
+		return objectName;
+	}
+
+	public void setObjectName(String objectName) {
+		this.objectName = objectName;
+	}
+
+	public List<MetricsSink> getSinks() {
+		return sinks;
+	}
+
+	public void setSinks(List<MetricsSink> sinks) {
+		this.sinks = sinks;
+	}
+
+	public int getReportInterval() {
+		return reportInterval;
+	}
+
+	public void setReportInterval(int reportInterval) {
+		this.reportInterval = reportInterval;
+	}
+
+}
@@ -0,0 +1,84 @@
+package com.purpose.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+/**
+ * 把{@link RedisMetrics}的快照暴露为只读的JMX属性,另提供reset操作
+ * @version V1.0
+ */
+public class RedisMetricsMBean implements DynamicMBean {
+
+	private final RedisMetrics metrics;
+
+	public RedisMetricsMBean(RedisMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Number value = metrics.snapshot().get(attribute);
+		if (value == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return value;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("只读属性:" + attribute.getName());
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		SortedMap<String, Number> snapshot = metrics.snapshot();
+		AttributeList list = new AttributeList();
+		for (String name : attributes) {
+			Number value = snapshot.get(name);
+			if (value != null) {
+				list.add(new Attribute(name, value));
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		if ("reset".equals(actionName)) {
+			metrics.reset();
+			return null;
+		}
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (Map.Entry<String, Number> entry : metrics.snapshot().entrySet()) {
+			attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+					entry.getKey(), true, false, false));
+		}
+		MBeanOperationInfo reset = new MBeanOperationInfo("reset", "清空直方图和计数器",
+				new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+		return new MBeanInfo(RedisMetrics.class.getName(), "Redis metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+				new MBeanOperationInfo[] { reset }, null);
+	}
+
+}
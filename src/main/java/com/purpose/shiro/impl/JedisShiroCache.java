@@ -1,14 +1,24 @@
 package com.purpose.shiro.impl;
 
+import java.util.AbstractCollection;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Set;
+import java.util.function.Supplier;
 import org.apache.shiro.cache.Cache;
 import org.apache.shiro.cache.CacheException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.purpose.cache.LoadResult;
+import com.purpose.cache.LoadedValue;
+import com.purpose.cache.NearCache;
 import com.purpose.cache.RedisManager;
-import com.purpose.utils.SerializeUtils;
+import com.purpose.cache.SingleFlight;
+import com.purpose.codec.Codec;
+import com.purpose.codec.CodecException;
+import com.purpose.metrics.HitRatio;
+import com.purpose.utils.DecodingIterator;
 /**
  * 获取缓存类
  * @author: Yuanbo
@@ -16,6 +26,8 @@ import com.purpose.utils.SerializeUtils;
  * @version V1.0
  */
 public class JedisShiroCache<K, V> implements Cache<K, V> {
+
+	private static final Logger logger = LoggerFactory.getLogger(JedisShiroCache.class);
 	
 	private final String REDIS_SHIRO_CACHE = "shiro-cache";
 
@@ -23,9 +35,46 @@ public class JedisShiroCache<K, V> implements Cache<K, V> {
 
 	private String name;
 
+	private Codec codec;
+
+	//一级缓存,为null时不启用
+	private NearCache<V> nearCache;
+
+	private NearCacheInvalidator invalidator;
+
+	//命中率统计,为null时不统计
+	private HitRatio hitRatio;
+
+	//是否把缓存名作为hash tag,即key形如shiro-cache{name}:key;在redis cluster中同一缓存的key都在一个槽,
+	//clear等批量删除不需要按槽拆分,代价是整个缓存落在同一个节点上
+	private boolean hashTag = false;
+
+	//并发读取同一个key时共享一次redis往返和解码,与一级缓存一样多个线程拿到同一个值对象
+	private final SingleFlight<String, V> reads = new SingleFlight<String, V>();
+
 	public JedisShiroCache(RedisManager redisManager, String name) {
+		this(redisManager, name, redisManager.getCodec());
+	}
+
+	public JedisShiroCache(RedisManager redisManager, String name, Codec codec) {
 		this.redisManager = redisManager;
 		this.name = name;
+		this.codec = codec;
+	}
+
+	/**
+	 * 带一级缓存的构造方法,写操作会通过invalidator通知其他节点失效
+	 * @param redisManager
+	 * @param name
+	 * @param codec
+	 * @param nearCache
+	 * @param invalidator
+	 */
+	public JedisShiroCache(RedisManager redisManager, String name, Codec codec, NearCache<V> nearCache,
+			NearCacheInvalidator invalidator) {
+		this(redisManager, name, codec);
+		this.nearCache = nearCache;
+		this.invalidator = invalidator;
 	}
 
 	public String getName() {
@@ -42,27 +91,106 @@ public class JedisShiroCache<K, V> implements Cache<K, V> {
 	@Override
 	public void clear() throws CacheException {
 		redisManager.init();
-		String keysPattern = this.REDIS_SHIRO_CACHE + "*";
-		redisManager.flushDB();
+		redisManager.dels(getKeysPattern());
+		reads.forgetAll();
+		if (nearCache != null) {
+			nearCache.invalidateAll();
+			invalidator.publishClear(getName());
+		}
 	}
 
 	@Override
 	public V get(K key) throws CacheException {
+		V value = lookup(key);
+		if (hitRatio != null) {
+			hitRatio.record(value != null);
+		}
+		return value;
+	}
+
+	/**
+	 * 读取缓存,不存在或需要刷新时通过loader加载,整个集群同一时间只有一个调用方加载,
+	 * 其他调用方得到旧值或等待,详见RedisManager.getOrLoad。加载后通知其他节点的一级缓存失效。
+	 * 通过getOrLoad写入的值也可以用get读取
+	 * @param key
+	 * @param ttl 逻辑存活时间(秒)
+	 * @param loader 返回null时不写入
+	 * @return
+	 */
+	public V getOrLoad(K key, int ttl, Supplier<V> loader) {
+		String cacheKey = getCacheKey(key);
+		if (nearCache != null) {
+			V value = nearCache.get(cacheKey);
+			if (value != null) {
+				if (hitRatio != null)
+					hitRatio.record(true);
+				return value;
+			}
+		}
 		redisManager.init();
-		byte[] byteKey = getCacheKey(key).getBytes();
-		byte[] byteValue = redisManager.get(byteKey);
-		if (null == byteValue)
+		long version = nearCache != null ? nearCache.version() : 0;
+		boolean[] loaded = new boolean[1];
+		LoadResult result = redisManager.getOrLoadResult(cacheKey.getBytes(), ttl, () -> {
+			V value = loader.get();
+			if (value == null)
+				return null;
+			loaded[0] = true;
+			return codec.encode(value);
+		});
+		//等待其他调用方加载得到的值不算命中,提前刷新仍然存在的值不算未命中
+		if (hitRatio != null)
+			hitRatio.record(result.isHit());
+		byte[] payload = result.getValue();
+		if (payload == null)
 			return null;
-		return (V) SerializeUtils.deserialize(byteValue);
+		if (loaded[0]) {
+			reads.forget(cacheKey);
+			invalidate(key);
+			//自己写入的是最新的值,失效本节点后重新取序号,之后收到的其他节点的失效仍然会阻止填充
+			version = nearCache != null ? nearCache.version() : 0;
+		}
+		V value = decode(payload);
+		fill(cacheKey, value, version);
+		return value;
+	}
+
+	/**
+	 * 依次查一级缓存和redis,不计入命中率
+	 * @param key
+	 * @return
+	 */
+	private V lookup(K key) {
+		String cacheKey = getCacheKey(key);
+		if (nearCache != null) {
+			V value = nearCache.get(cacheKey);
+			if (value != null)
+				return value;
+		}
+		redisManager.init();
+		return reads.load(cacheKey, () -> {
+			//读取期间发生过失效时读到的值可能已经过时,不填充一级缓存
+			long version = nearCache != null ? nearCache.version() : 0;
+			byte[] byteValue = redisManager.get(cacheKey.getBytes());
+			if (null == byteValue)
+				return null;
+			V value = decode(byteValue);
+			fill(cacheKey, value, version);
+			return value;
+		});
 	}
 
+	/**
+	 * 返回的元素总是String,是缓存key的字符串形式(put时key.toString()的结果),不是原来的K对象;
+	 * K不是String时使用元素前需要按String处理
+	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	public Set<K> keys() {
 		redisManager.init();
-		Set<byte[]> byteSet = redisManager.keys(this.REDIS_SHIRO_CACHE + "*");
+		int prefixLength = getCacheKey("").length();
 		Set<K> keys = new HashSet<K>();
-		for (byte[] bs : byteSet) {
-			keys.add((K) SerializeUtils.deserialize(bs));
+		for (byte[] bs : redisManager.scan(getKeysPattern())) {
+			keys.add((K) new String(bs).substring(prefixLength));
 		}
 		return keys;
 	}
@@ -70,39 +198,147 @@ public class JedisShiroCache<K, V> implements Cache<K, V> {
 	@Override
 	public V put(K key, V value) throws CacheException {
 		redisManager.init();
-		V previos = get(key);
-		redisManager.set(getCacheKey(key).getBytes(), SerializeUtils.serialize(value),1800);
+		V previos = lookup(key);
+		redisManager.set(getCacheKey(key).getBytes(), codec.encode(value),1800);
+		reads.forget(getCacheKey(key));
+		invalidate(key);
 		return previos;
 	}
 
 	@Override
 	public V remove(K key) throws CacheException {
 		redisManager.init();
-		V previos = get(key);
+		V previos = lookup(key);
 		redisManager.del(getCacheKey(key).getBytes());
+		reads.forget(getCacheKey(key));
+		invalidate(key);
 		return previos;
 	}
 
 	@Override
 	public int size() {
 		redisManager.init();
-		if (keys() == null)
-			return 0;
-		return keys().size();
+		return (int) redisManager.count(getKeysPattern());
 	}
 
+	/**
+	 * 返回的集合是惰性的:遍历时才通过SCAN逐页取出值,size()需要完整扫描一遍key,isEmpty()只取到第一个值。
+	 * SCAN可能返回重复的key,因此同一个值可能被遍历到多次,遍历到的个数可能与size()不同
+	 */
 	@Override
 	public Collection<V> values() {
-		Set<byte[]> byteSet = redisManager.keys(this.REDIS_SHIRO_CACHE + "*");
-		List<V> result = new LinkedList<V>();
-		for (byte[] bs : byteSet) {
-			result.add((V) SerializeUtils.deserialize(redisManager.get(bs)));
+		redisManager.init();
+		final String pattern = getKeysPattern();
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				return new DecodingIterator<V>(redisManager.scanValues(pattern).iterator()) {
+					@Override
+					protected V decode(byte[] bytes) {
+						return JedisShiroCache.this.decode(bytes);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return (int) redisManager.count(pattern);
+			}
+
+			@Override
+			public boolean isEmpty() {
+				return !iterator().hasNext();
+			}
+		};
+	}
+
+	/**
+	 * 一级缓存
+	 * @return 未启用时返回null
+	 */
+	public NearCache<V> getNearCache() {
+		return nearCache;
+	}
+
+	public HitRatio getHitRatio() {
+		return hitRatio;
+	}
+
+	/**
+	 * 设置命中率统计,只统计get和getOrLoad调用,put/remove内部读取旧值不计入
+	 * @param hitRatio
+	 */
+	public void setHitRatio(HitRatio hitRatio) {
+		this.hitRatio = hitRatio;
+	}
+
+	/**
+	 * 合并读取的统计
+	 * @return
+	 */
+	public SingleFlight<String, V> getReads() {
+		return reads;
+	}
+
+	public boolean isHashTag() {
+		return hashTag;
+	}
+
+	public void setHashTag(boolean hashTag) {
+		this.hashTag = hashTag;
+	}
+
+	/**
+	 * 解码缓存值,getOrLoad写入的值去掉过期信息后解码,数据无法解码时按未命中处理
+	 * @param bytes
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private V decode(byte[] bytes) {
+		try {
+			return (V) LoadedValue.parse(bytes).decode(codec);
+		} catch (CodecException e) {
+			logger.error("缓存" + getName() + "的值无法解码,按未命中处理", e);
+			return null;
+		}
+	}
+
+	/**
+	 * 用redis中读到的值填充一级缓存。失效订阅无效时可能错过其他节点的失效消息,不填充
+	 * @param cacheKey
+	 * @param value
+	 * @param version 读取redis之前一级缓存的失效序号
+	 */
+	private void fill(String cacheKey, V value, long version) {
+		if (nearCache != null && invalidator.isSubscribed())
+			nearCache.putIfNotInvalidatedSince(cacheKey, value, version);
+	}
+
+	/**
+	 * 使本节点和其他节点一级缓存中的key失效
+	 * @param key
+	 */
+	private void invalidate(K key) {
+		if (nearCache != null) {
+			String cacheKey = getCacheKey(key);
+			nearCache.invalidate(cacheKey);
+			invalidator.publish(getName(), cacheKey);
 		}
-		return result;
 	}
 
 	private String getCacheKey(Object key) {
+		if (hashTag) {
+			return this.REDIS_SHIRO_CACHE + "{" + getName() + "}:" + key;
+		}
 		return this.REDIS_SHIRO_CACHE + getName() + ":" + key;
 	}
+
+	/**
+	 * 当前缓存所有key的匹配模式
+	 * @return
+	 */
+	private String getKeysPattern() {
+		return getCacheKey("*");
+	}
 	
 }
\ No newline at end of file
@@ -1,7 +1,16 @@
 package com.purpose.shiro.impl;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.apache.shiro.cache.Cache;
+import com.purpose.cache.NearCache;
 import com.purpose.cache.RedisManager;
+import com.purpose.codec.Codec;
+import com.purpose.metrics.RedisMetrics;
 import com.purpose.shiro.ShiroCacheManager;
 /**
  * 缓存处理实现类
@@ -13,6 +22,26 @@ public class JedisShiroCacheManager implements ShiroCacheManager {
 
 	private RedisManager redisManager;
 
+	//缓存值的编解码方式,为null时使用redisManager的codec
+	private Codec codec;
+
+	//启用一级缓存的缓存名,例如realm的authorizationCacheName
+	private Set<String> nearCacheNames = Collections.emptySet();
+	//每个一级缓存的最大条目数
+	private int nearCacheMaxSize = 1000;
+	//一级缓存条目的存活时间(秒),也是错过失效消息时数据不一致的最长时间
+	private int nearCacheTtl = 60;
+	//一级缓存失效消息的频道
+	private String invalidationChannel = "shiro-cache-invalidation";
+	//命中率统计,为null时使用redisManager的metrics,两者都为空时不统计
+	private RedisMetrics metrics;
+	//是否把缓存名作为key的hash tag,见JedisShiroCache.setHashTag
+	private boolean hashTag = false;
+
+	private final ConcurrentMap<String, JedisShiroCache<?, ?>> caches = new ConcurrentHashMap<String, JedisShiroCache<?, ?>>();
+
+	private NearCacheInvalidator invalidator;
+
 	public RedisManager getRedisManager() {
 		return redisManager;
 	}
@@ -21,15 +50,124 @@ public class JedisShiroCacheManager implements ShiroCacheManager {
 		this.redisManager = redisManager;
 	}
 
+	public Codec getCodec() {
+		return codec != null ? codec : redisManager.getCodec();
+	}
+
+	public void setCodec(Codec codec) {
+		this.codec = codec;
+	}
+
+	public Set<String> getNearCacheNames() {
+		return nearCacheNames;
+	}
+
+	public void setNearCacheNames(Set<String> nearCacheNames) {
+		this.nearCacheNames = nearCacheNames;
+	}
+
+	public int getNearCacheMaxSize() {
+		return nearCacheMaxSize;
+	}
+
+	public void setNearCacheMaxSize(int nearCacheMaxSize) {
+		this.nearCacheMaxSize = nearCacheMaxSize;
+	}
+
+	public int getNearCacheTtl() {
+		return nearCacheTtl;
+	}
+
+	public void setNearCacheTtl(int nearCacheTtl) {
+		this.nearCacheTtl = nearCacheTtl;
+	}
+
+	public String getInvalidationChannel() {
+		return invalidationChannel;
+	}
+
+	public void setInvalidationChannel(String invalidationChannel) {
+		this.invalidationChannel = invalidationChannel;
+	}
+
+	public RedisMetrics getMetrics() {
+		return metrics != null ? metrics : redisManager.getMetrics();
+	}
+
+	public void setMetrics(RedisMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public boolean isHashTag() {
+		return hashTag;
+	}
+
+	public void setHashTag(boolean hashTag) {
+		this.hashTag = hashTag;
+	}
+
 	@Override
+	@SuppressWarnings("unchecked")
 	public <K, V> Cache<K, V> getCache(String name) {
-		return new JedisShiroCache<K, V>(redisManager, name);
+		JedisShiroCache<?, ?> cache = caches.get(name);
+		if (cache == null) {
+			//只创建一次,一级缓存注册到invalidator的必须是实际使用的那一个
+			cache = caches.computeIfAbsent(name, this::createCache);
+		}
+		return (Cache<K, V>) cache;
+	}
+
+	/**
+	 * 各个一级缓存的统计信息,key为缓存名
+	 * @return
+	 */
+	public Map<String, NearCache<?>> getNearCaches() {
+		Map<String, NearCache<?>> result = new HashMap<String, NearCache<?>>();
+		for (JedisShiroCache<?, ?> cache : caches.values()) {
+			if (cache.getNearCache() != null) {
+				result.put(cache.getName(), cache.getNearCache());
+			}
+		}
+		return result;
+	}
+
+	private <K, V> JedisShiroCache<K, V> createCache(String name) {
+		JedisShiroCache<K, V> cache;
+		if (nearCacheNames == null || !nearCacheNames.contains(name)) {
+			cache = new JedisShiroCache<K, V>(redisManager, name, getCodec());
+		} else {
+			NearCache<V> nearCache = new NearCache<V>(nearCacheMaxSize, nearCacheTtl * 1000L);
+			NearCacheInvalidator current = getInvalidator();
+			current.register(name, nearCache);
+			cache = new JedisShiroCache<K, V>(redisManager, name, getCodec(), nearCache, current);
+		}
+		cache.setHashTag(hashTag);
+		RedisMetrics current = getMetrics();
+		if (current != null) {
+			cache.setHitRatio(current.hitRatio("cache." + name));
+		}
+		return cache;
+	}
+
+	private synchronized NearCacheInvalidator getInvalidator() {
+		if (invalidator == null) {
+			redisManager.init();
+			invalidator = new NearCacheInvalidator(redisManager, invalidationChannel);
+			invalidator.start();
+		}
+		return invalidator;
 	}
 
 	@Override
 	public void destroy() {
+		synchronized (this) {
+			if (invalidator != null) {
+				invalidator.stop();
+				invalidator = null;
+			}
+		}
 		redisManager.init();
 		redisManager.flushDB();
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,374 @@
+package com.purpose.shiro.impl;
+
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import org.apache.shiro.session.Session;
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.purpose.cache.RedisManager;
+import com.purpose.codec.Codec;
+import com.purpose.codec.CodecException;
+import com.purpose.shiro.ShiroSessionRepository;
+import com.purpose.shiro.session.HashSession;
+import com.purpose.shiro.session.TrackedSession;
+/**
+ * 以redis hash保存session的实现类。
+ * 元数据(id、startTimestamp、stopTimestamp、lastAccessTime、timeout、expired、host)和每个属性各占一个字段,
+ * 读取时一次HMGET取出元数据和eagerAttributes中的属性,其余属性在第一次访问时才读取;
+ * 保存TrackedSession时只写入变化的字段,只是touch时只写lastAccessTime。
+ * 与JedisShiroSessionRepository使用不同的key前缀,两种方式的数据互不兼容。
+ * @version V1.0
+ */
+public class JedisShiroHashSessionRepository implements ShiroSessionRepository {
+
+	private static final Logger logger = LoggerFactory.getLogger(JedisShiroHashSessionRepository.class);
+	//redis session key 前缀
+	private final String REDIS_SHIRO_SESSION = "shiro-hsession";
+
+	private static final byte[] FIELD_ID = "id".getBytes();
+	private static final byte[] FIELD_START_TIMESTAMP = "startTimestamp".getBytes();
+	private static final byte[] FIELD_STOP_TIMESTAMP = "stopTimestamp".getBytes();
+	private static final byte[] FIELD_LAST_ACCESS_TIME = "lastAccessTime".getBytes();
+	private static final byte[] FIELD_TIMEOUT = "timeout".getBytes();
+	private static final byte[] FIELD_EXPIRED = "expired".getBytes();
+	private static final byte[] FIELD_HOST = "host".getBytes();
+	//元数据字段的个数,HMGET时排在属性字段前面
+	private static final int METADATA_FIELDS = 7;
+	//属性字段名的前缀,后面是编码后的属性名
+	private static final byte ATTRIBUTE_PREFIX = 'a';
+
+	private RedisManager redisManager;
+
+	//属性的编解码方式,为null时使用redisManager的codec
+	private Codec codec;
+
+	//读取session时一起读取的属性,默认是每个请求都会用到的身份和认证状态
+	private List<Object> eagerAttributes = Arrays.<Object>asList(DefaultSubjectContext.PRINCIPALS_SESSION_KEY,
+			DefaultSubjectContext.AUTHENTICATED_SESSION_KEY);
+	//是否把sessionId作为hash tag,即key形如shiro-hsession{id},与JedisShiroSessionRepository相同
+	private boolean hashTag = false;
+
+	@Override
+	public void saveSession(Session session) {
+		redisManager.init();
+		if (session == null || session.getId() == null) {
+			logger.error("session或者session ID为空");
+			return;
+		}
+		byte[] key = getRedisSessionKey(session.getId()).getBytes();
+		int expire = getExpire(session);
+		if (session instanceof TrackedSession && !((TrackedSession) session).isAttributesReplaced()) {
+			TrackedSession tracked = (TrackedSession) session;
+			Map<byte[], byte[]> fields = new HashMap<byte[], byte[]>();
+			List<byte[]> removed = new ArrayList<byte[]>();
+			if (tracked.isMetadataChanged()) {
+				writeMetadata(tracked, fields, removed);
+			} else {
+				fields.put(FIELD_LAST_ACCESS_TIME, time(tracked.getLastAccessTime()));
+			}
+			Map<Object, Object> attributes = tracked.getAttributes();
+			for (Object name : tracked.getChangedAttributes()) {
+				Object value = attributes == null ? null : attributes.get(name);
+				if (value == null) {
+					removed.add(attributeField(name));
+				} else {
+					fields.put(attributeField(name), getCodec().encode(value));
+				}
+			}
+			redisManager.hupdate(key, fields, removed, expire);
+			tracked.clearDirty();
+			return;
+		}
+		Map<byte[], byte[]> fields = new HashMap<byte[], byte[]>();
+		writeMetadata(session, fields, new ArrayList<byte[]>());
+		for (Object name : session.getAttributeKeys()) {
+			Object value = session.getAttribute(name);
+			if (value != null)
+				fields.put(attributeField(name), getCodec().encode(value));
+		}
+		redisManager.hreplace(key, fields, expire);
+		if (session instanceof TrackedSession) {
+			((TrackedSession) session).clearDirty();
+		}
+	}
+
+	@Override
+	public void deleteSession(Serializable sessionId) {
+		redisManager.init();
+		if (sessionId == null) {
+			logger.error("sessionId为空");
+			return;
+		}
+		redisManager.del(getRedisSessionKey(sessionId).getBytes());
+	}
+
+	@Override
+	public Session getSession(Serializable sessionId) {
+		redisManager.init();
+		if (null == sessionId) {
+			logger.error("sessionId为空");
+			return null;
+		}
+		byte[] key = getRedisSessionKey(sessionId).getBytes();
+		return toSession(key, redisManager.hmget(key, readFields()));
+	}
+
+	/**
+	 * 返回的集合是惰性的:遍历时才通过SCAN逐页取出session的元数据,属性在访问时才读取。
+	 * size()需要完整扫描一遍key,SCAN可能返回重复的key。
+	 */
+	@Override
+	public Collection<Session> getAllSessions() {
+		redisManager.init();
+		final String pattern = this.REDIS_SHIRO_SESSION + "*";
+		final byte[][] fields = readFields();
+		return new AbstractCollection<Session>() {
+			@Override
+			public Iterator<Session> iterator() {
+				final Iterator<Map.Entry<byte[], List<byte[]>>> source = redisManager.scanHashFields(pattern, fields).iterator();
+				return new Iterator<Session>() {
+					private Session next;
+
+					@Override
+					public boolean hasNext() {
+						while (next == null && source.hasNext()) {
+							Map.Entry<byte[], List<byte[]>> entry = source.next();
+							next = toSession(entry.getKey(), entry.getValue());
+						}
+						return next != null;
+					}
+
+					@Override
+					public Session next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						Session result = next;
+						next = null;
+						return result;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return (int) redisManager.count(pattern);
+			}
+		};
+	}
+
+	/**
+	 * 读取session时HMGET的字段:元数据在前,eagerAttributes在后
+	 * @return
+	 */
+	private byte[][] readFields() {
+		byte[][] fields = new byte[METADATA_FIELDS + eagerAttributes.size()][];
+		fields[0] = FIELD_ID;
+		fields[1] = FIELD_START_TIMESTAMP;
+		fields[2] = FIELD_STOP_TIMESTAMP;
+		fields[3] = FIELD_LAST_ACCESS_TIME;
+		fields[4] = FIELD_TIMEOUT;
+		fields[5] = FIELD_EXPIRED;
+		fields[6] = FIELD_HOST;
+		for (int i = 0; i < eagerAttributes.size(); i++) {
+			fields[METADATA_FIELDS + i] = attributeField(eagerAttributes.get(i));
+		}
+		return fields;
+	}
+
+	/**
+	 * 由readFields的结果构造session
+	 * @param key
+	 * @param values
+	 * @return 不存在或数据不完整时返回null
+	 */
+	private Session toSession(byte[] key, List<byte[]> values) {
+		//只有部分字段的hash可能是session过期之后的touch写入的,当作不存在
+		if (values.get(0) == null || values.get(1) == null) {
+			return null;
+		}
+		try {
+			HashSession session = new HashSession();
+			session.setId((Serializable) getCodec().decode(values.get(0)));
+			session.setStartTimestamp(date(values.get(1)));
+			session.setStopTimestamp(date(values.get(2)));
+			session.setLastAccessTime(date(values.get(3)));
+			session.setTimeout(values.get(4) == null ? 0 : Long.parseLong(new String(values.get(4))));
+			session.setExpired(values.get(5) != null && values.get(5).length == 1 && values.get(5)[0] == '1');
+			session.setHost(values.get(6) == null ? null : new String(values.get(6), "UTF-8"));
+			session.setAttributeLoader(new RedisAttributeLoader(key));
+			for (int i = 0; i < eagerAttributes.size(); i++) {
+				byte[] value = values.get(METADATA_FIELDS + i);
+				session.preload(eagerAttributes.get(i), value == null ? null : getCodec().decode(value));
+			}
+			session.clearDirty();
+			return session;
+		} catch (Exception e) {
+			logger.error("session无法解码:" + new String(key), e);
+			return null;
+		}
+	}
+
+	/**
+	 * 元数据字段,值为null的字段放入removed
+	 * @param session
+	 * @param fields
+	 * @param removed
+	 */
+	private void writeMetadata(Session session, Map<byte[], byte[]> fields, List<byte[]> removed) {
+		fields.put(FIELD_ID, getCodec().encode(session.getId()));
+		fields.put(FIELD_START_TIMESTAMP, time(session.getStartTimestamp()));
+		fields.put(FIELD_LAST_ACCESS_TIME, time(session.getLastAccessTime()));
+		fields.put(FIELD_TIMEOUT, String.valueOf(session.getTimeout()).getBytes());
+		Date stopTimestamp = null;
+		boolean expired = false;
+		if (session instanceof SimpleSession) {
+			stopTimestamp = ((SimpleSession) session).getStopTimestamp();
+			expired = ((SimpleSession) session).isExpired();
+		}
+		if (stopTimestamp != null) {
+			fields.put(FIELD_STOP_TIMESTAMP, time(stopTimestamp));
+		} else {
+			removed.add(FIELD_STOP_TIMESTAMP);
+		}
+		fields.put(FIELD_EXPIRED, expired ? new byte[] { '1' } : new byte[] { '0' });
+		if (session.getHost() != null) {
+			try {
+				fields.put(FIELD_HOST, session.getHost().getBytes("UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				throw new CodecException("不支持UTF-8", e);
+			}
+		} else {
+			removed.add(FIELD_HOST);
+		}
+	}
+
+	/**
+	 * 属性对应的hash字段名
+	 * @param name
+	 * @return
+	 */
+	private byte[] attributeField(Object name) {
+		byte[] encoded = getCodec().encode(name);
+		byte[] field = new byte[encoded.length + 1];
+		field[0] = ATTRIBUTE_PREFIX;
+		System.arraycopy(encoded, 0, field, 1, encoded.length);
+		return field;
+	}
+
+	private static byte[] time(Date date) {
+		return String.valueOf(date == null ? 0 : date.getTime()).getBytes();
+	}
+
+	private static Date date(byte[] value) {
+		return value == null ? null : new Date(Long.parseLong(new String(value)));
+	}
+
+	/**
+	 * session在redis中的过期时间(秒),不过期的session返回0
+	 * @param session
+	 * @return
+	 */
+	private int getExpire(Session session) {
+		long timeout = session.getTimeout() / 1000;
+		if (timeout <= 0) {
+			return 0;
+		}
+		return (int) Math.min(timeout, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * 获取redis中的session key
+	 * @param sessionId
+	 * @return
+	 */
+	private String getRedisSessionKey(Serializable sessionId) {
+		return hashTag ? this.REDIS_SHIRO_SESSION + "{" + sessionId + "}" : this.REDIS_SHIRO_SESSION + sessionId;
+	}
+
+	/**
+	 * 从session对应的hash中按需读取属性
+	 */
+	private class RedisAttributeLoader implements HashSession.AttributeLoader {
+
+		private final byte[] key;
+
+		RedisAttributeLoader(byte[] key) {
+			this.key = key;
+		}
+
+		@Override
+		public Object load(Object name) {
+			byte[] value = redisManager.hget(key, attributeField(name));
+			return value == null ? null : getCodec().decode(value);
+		}
+
+		@Override
+		public Map<Object, Object> loadAll() {
+			Map<Object, Object> attributes = new HashMap<Object, Object>();
+			for (Map.Entry<byte[], byte[]> entry : redisManager.hgetAll(key).entrySet()) {
+				byte[] field = entry.getKey();
+				if (field.length > 1 && field[0] == ATTRIBUTE_PREFIX) {
+					Object name = getCodec().decode(Arrays.copyOfRange(field, 1, field.length));
+					attributes.put(name, getCodec().decode(entry.getValue()));
+				}
+			}
+			return attributes;
+		}
+
+	}
+
+	public Codec getCodec() {
+		return codec != null ? codec : redisManager.getCodec();
+	}
+
+	public void setCodec(Codec codec) {
+		this.codec = codec;
+	}
+
+	public List<Object> getEagerAttributes() {
+		return eagerAttributes;
+	}
+
+	public void setEagerAttributes(List<Object> eagerAttributes) {
+		this.eagerAttributes = eagerAttributes;
+	}
+
+	public boolean isHashTag() {
+		return hashTag;
+	}
+
+	public void setHashTag(boolean hashTag) {
+		this.hashTag = hashTag;
+	}
+
+	public RedisManager getRedisManager() {
+		return redisManager;
+	}
+
+	public void setRedisManager(RedisManager redisManager) {
+		this.redisManager = redisManager;
+	}
+
+	public JedisShiroHashSessionRepository() {
+
+	}
+
+}
@@ -1,15 +1,25 @@
 package com.purpose.shiro.impl;
 
 import java.io.Serializable;
+import java.util.AbstractCollection;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.apache.shiro.session.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import com.purpose.cache.ExpiringValue;
 import com.purpose.cache.RedisManager;
+import com.purpose.cache.SingleFlight;
 import com.purpose.shiro.ShiroSessionRepository;
-import com.purpose.utils.SerializeUtils;
+import com.purpose.shiro.session.Sessions;
+import com.purpose.shiro.session.TrackedSession;
+import com.purpose.codec.Codec;
+import com.purpose.codec.CodecException;
+import com.purpose.utils.DecodingIterator;
 /**
  * Session操作实现类
  * @author: Yuanbo
@@ -21,19 +31,58 @@ public class JedisShiroSessionRepository implements ShiroSessionRepository {
 	private static final Logger logger = LoggerFactory.getLogger(JedisShiroSessionRepository.class);
 	//redis session key 前缀
 	private final String REDIS_SHIRO_SESSION = "shiro-session";
+	//lastRefresh超过这个数量时清理过期的记录
+	private static final int MAX_TRACKED_REFRESHES = 100000;
 
 	private RedisManager redisManager;
 
+	//session的编解码方式,为null时使用redisManager的codec
+	private Codec codec;
+
+	//是否只在session被修改时完整写入,需要SessionManager使用TrackedSessionFactory
+	private boolean dirtyTracking = false;
+	//只有访问时间变化时,同一个session两次刷新过期时间的最小间隔(毫秒)
+	private long touchInterval = 30000;
+	//是否把sessionId作为hash tag,即key形如shiro-session{id};在redis cluster或分片时同一session的相关key落在同一个槽。修改后原有的session读不到
+	private boolean hashTag = false;
+	//最近一次刷新过期时间的时刻,key为sessionId
+	private final ConcurrentMap<Serializable, Long> lastRefresh = new ConcurrentHashMap<Serializable, Long>();
+	//是否合并同一个session并发的读取:一次redis往返和一次解码,每个请求得到各自的副本
+	private boolean coalesceReads = true;
+
+	private final SingleFlight<Serializable, Session> reads = new SingleFlight<Serializable, Session>();
+
 	@Override
 	public void saveSession(Session session) {
 		redisManager.init();
 		if (session == null || session.getId() == null) {
 			logger.error("session或者session ID为空");
+			return;
 		}
 		byte[] key = getRedisSessionKey(session.getId()).getBytes();
-		byte[] value = SerializeUtils.serialize(session);
-		Long timeOut = session.getTimeout() / 1000;
-		redisManager.set(key, value, Integer.parseInt(timeOut.toString()));
+		int expire = getExpire(session);
+		if (dirtyTracking && session instanceof TrackedSession && !((TrackedSession) session).isDirty()) {
+			//只是touch,在间隔内已经刷新过的直接跳过,否则只刷新过期时间
+			long now = System.currentTimeMillis();
+			Long last = lastRefresh.get(session.getId());
+			if (last != null && now - last < touchInterval) {
+				return;
+			}
+			if (expire > 0 && redisManager.expire(key, expire) > 0) {
+				refreshed(session.getId(), now);
+				return;
+			}
+			//key已经不存在,需要完整写入
+		}
+		byte[] value = getCodec().encode(session);
+		redisManager.set(key, value, expire);
+		reads.forget(session.getId());
+		if (session instanceof TrackedSession) {
+			((TrackedSession) session).clearDirty();
+			if (dirtyTracking) {
+				refreshed(session.getId(), System.currentTimeMillis());
+			}
+		}
 	}
 
 	@Override
@@ -41,8 +90,11 @@ public class JedisShiroSessionRepository implements ShiroSessionRepository {
 		redisManager.init();
 		if (sessionId == null) {
 			logger.error("sessionId为空");
+			return;
 		}
+		lastRefresh.remove(sessionId);
 		redisManager.del(getRedisSessionKey(sessionId).getBytes());
+		reads.forget(sessionId);
 	}
 
 	@Override
@@ -52,26 +104,158 @@ public class JedisShiroSessionRepository implements ShiroSessionRepository {
 			logger.error("sessionId为空");
 			return null;
 		}
-		Session session = null;
-		byte[] value = redisManager.get(getRedisSessionKey(sessionId).getBytes());
-		if (null == value)
+		if (coalesceReads) {
+			return reads.load(sessionId, () -> readSession(sessionId), this::copy);
+		}
+		return readSession(sessionId);
+	}
+
+	private Session readSession(Serializable sessionId) {
+		byte[] key = getRedisSessionKey(sessionId).getBytes();
+		if (!dirtyTracking) {
+			byte[] value = redisManager.get(key);
+			if (null == value)
+				return null;
+			return decode(value);
+		}
+		ExpiringValue value = redisManager.getWithTtl(key);
+		if (null == value.getValue())
 			return null;
-		session = (Session) SerializeUtils.deserialize(value);
+		Session session = decode(value.getValue());
+		if (session instanceof TrackedSession && value.getTtl() > 0) {
+			restoreLastAccessTime((TrackedSession) session, value.getTtl());
+		}
 		return session;
 	}
 
+	/**
+	 * 合并读取时给每个请求的副本,无法直接复制的session类型通过codec编码再解码
+	 * @param session
+	 * @return
+	 */
+	private Session copy(Session session) {
+		Session copy = Sessions.copyOf(session);
+		return copy != null ? copy : decode(getCodec().encode(session));
+	}
+
+	/**
+	 * 只刷新过期时间时不会写入最后访问时间,redis中保存的值会落后。
+	 * 最后一次刷新时过期时间被设为timeout,由剩余存活时间可以算出刷新的时刻,
+	 * 用它修正最后访问时间,避免session校验把仍在使用的session当作超时(误差不超过touchInterval)。
+	 * @param session
+	 * @param ttl 剩余存活时间(毫秒)
+	 */
+	private void restoreLastAccessTime(TrackedSession session, long ttl) {
+		long refreshedAt = System.currentTimeMillis() + ttl - session.getTimeout();
+		Date lastAccessTime = session.getLastAccessTime();
+		if (lastAccessTime == null || lastAccessTime.getTime() < refreshedAt) {
+			session.setLastAccessTime(new Date(refreshedAt));
+		}
+	}
+
+	/**
+	 * 解码session并修正最后访问时间的迭代器,解码失败的session会被跳过
+	 */
+	private class TrackedSessionIterator implements Iterator<Session> {
+
+		private final Iterator<ExpiringValue> source;
+
+		private Session next;
+
+		TrackedSessionIterator(Iterator<ExpiringValue> source) {
+			this.source = source;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null && source.hasNext()) {
+				ExpiringValue value = source.next();
+				next = decode(value.getValue());
+				if (next instanceof TrackedSession && value.getTtl() > 0) {
+					restoreLastAccessTime((TrackedSession) next, value.getTtl());
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public Session next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Session result = next;
+			next = null;
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+	/**
+	 * 记录刷新时间,记录过多时清理已经超过间隔的记录
+	 * @param sessionId
+	 * @param now
+	 */
+	private void refreshed(Serializable sessionId, long now) {
+		lastRefresh.put(sessionId, now);
+		if (lastRefresh.size() > MAX_TRACKED_REFRESHES) {
+			for (Iterator<Long> it = lastRefresh.values().iterator(); it.hasNext();) {
+				if (now - it.next() >= touchInterval) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * session在redis中的过期时间(秒),不过期的session返回0
+	 * @param session
+	 * @return
+	 */
+	private int getExpire(Session session) {
+		long timeout = session.getTimeout() / 1000;
+		if (timeout <= 0) {
+			return 0;
+		}
+		return (int) Math.min(timeout, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * 返回的集合是惰性的:遍历时才通过SCAN逐页取出session,size()需要完整扫描一遍key,isEmpty()只取到第一个session。
+	 * SCAN可能返回重复的key,因此同一个session可能被遍历到多次,遍历到的个数可能与size()不同。
+	 */
 	@Override
 	public Collection<Session> getAllSessions() {
 		redisManager.init();
-		Set<Session> sessions = new HashSet<Session>();
-		Set<byte[]> byteKeys = redisManager.keys(this.REDIS_SHIRO_SESSION + "*");
-		if (byteKeys != null && byteKeys.size() > 0) {
-			for (byte[] bs : byteKeys) {
-				Session s = (Session) SerializeUtils.deserialize(redisManager.get(bs));
-				sessions.add(s);
+		final String pattern = this.REDIS_SHIRO_SESSION + "*";
+		return new AbstractCollection<Session>() {
+			@Override
+			public Iterator<Session> iterator() {
+				if (dirtyTracking) {
+					return new TrackedSessionIterator(redisManager.scanValuesWithTtl(pattern).iterator());
+				}
+				return new DecodingIterator<Session>(redisManager.scanValues(pattern).iterator()) {
+					@Override
+					protected Session decode(byte[] bytes) {
+						return JedisShiroSessionRepository.this.decode(bytes);
+					}
+				};
 			}
-		}
-		return sessions;
+
+			@Override
+			public int size() {
+				return (int) redisManager.count(pattern);
+			}
+
+			@Override
+			public boolean isEmpty() {
+				return !iterator().hasNext();
+			}
+		};
 	}
 
 	/**
@@ -80,7 +264,69 @@ public class JedisShiroSessionRepository implements ShiroSessionRepository {
 	 * @return
 	 */
 	private String getRedisSessionKey(Serializable sessionId) {
-		return this.REDIS_SHIRO_SESSION + sessionId;
+		return hashTag ? this.REDIS_SHIRO_SESSION + "{" + sessionId + "}" : this.REDIS_SHIRO_SESSION + sessionId;
+	}
+
+	/**
+	 * 解码session,数据无法解码时当作session不存在
+	 * @param bytes
+	 * @return
+	 */
+	private Session decode(byte[] bytes) {
+		try {
+			return (Session) getCodec().decode(bytes);
+		} catch (CodecException e) {
+			logger.error("session无法解码", e);
+			return null;
+		}
+	}
+
+	public Codec getCodec() {
+		return codec != null ? codec : redisManager.getCodec();
+	}
+
+	public void setCodec(Codec codec) {
+		this.codec = codec;
+	}
+
+	public boolean isDirtyTracking() {
+		return dirtyTracking;
+	}
+
+	public void setDirtyTracking(boolean dirtyTracking) {
+		this.dirtyTracking = dirtyTracking;
+	}
+
+	public long getTouchInterval() {
+		return touchInterval;
+	}
+
+	public void setTouchInterval(long touchInterval) {
+		this.touchInterval = touchInterval;
+	}
+
+	public boolean isHashTag() {
+		return hashTag;
+	}
+
+	public void setHashTag(boolean hashTag) {
+		this.hashTag = hashTag;
+	}
+
+	public boolean isCoalesceReads() {
+		return coalesceReads;
+	}
+
+	public void setCoalesceReads(boolean coalesceReads) {
+		this.coalesceReads = coalesceReads;
+	}
+
+	/**
+	 * 合并读取的统计
+	 * @return
+	 */
+	public SingleFlight<Serializable, Session> getReads() {
+		return reads;
 	}
 
 	public RedisManager getRedisManager() {
@@ -0,0 +1,177 @@
+package com.purpose.shiro.impl;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.purpose.cache.NearCache;
+import com.purpose.cache.RedisManager;
+import redis.clients.jedis.JedisPubSub;
+/**
+ * 通过redis发布订阅在节点之间同步一级缓存的失效。
+ * 消息格式为 节点ID|缓存名|缓存key,缓存key为空表示清空整个缓存;自己发出的消息会被忽略。
+ * 没有订阅成功时(启动后订阅完成前、断开后重连完成前)收不到失效消息,这期间一级缓存不应填充,见isSubscribed。
+ * @version V1.0
+ */
+public class NearCacheInvalidator {
+
+	private static final Logger logger = LoggerFactory.getLogger(NearCacheInvalidator.class);
+
+	private static final char SEPARATOR = '|';
+
+	//订阅断开后重连的间隔(毫秒)
+	private static final long RECONNECT_INTERVAL = 5000;
+
+	private final String nodeId = UUID.randomUUID().toString();
+
+	private final ConcurrentMap<String, NearCache<?>> caches = new ConcurrentHashMap<String, NearCache<?>>();
+
+	private final RedisManager redisManager;
+
+	private final String channel;
+
+	private volatile boolean running = false;
+
+	private volatile JedisPubSub subscriber;
+
+	//订阅是否有效,无效期间的失效消息会丢失
+	private volatile boolean subscribed = false;
+
+	private Thread thread;
+
+	public NearCacheInvalidator(RedisManager redisManager, String channel) {
+		this.redisManager = redisManager;
+		this.channel = channel;
+	}
+
+	/**
+	 * 注册需要接收失效通知的一级缓存
+	 * @param name
+	 * @param cache
+	 */
+	public void register(String name, NearCache<?> cache) {
+		caches.put(name, cache);
+	}
+
+	/**
+	 * 通知其他节点某个key已失效
+	 * @param name
+	 * @param key
+	 */
+	public void publish(String name, String key) {
+		try {
+			redisManager.publish(channel, nodeId + SEPARATOR + name + SEPARATOR + key);
+		} catch (Exception e) {
+			logger.error("发布缓存失效消息失败,其他节点将在ttl到期后失效", e);
+		}
+	}
+
+	/**
+	 * 通知其他节点清空某个缓存
+	 * @param name
+	 */
+	public void publishClear(String name) {
+		publish(name, "");
+	}
+
+	/**
+	 * 订阅是否有效。为false时可能错过了失效消息,一级缓存不能用redis中读到的值填充
+	 * @return
+	 */
+	public boolean isSubscribed() {
+		return subscribed;
+	}
+
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				listen();
+			}
+		}, "near-cache-invalidator");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		running = false;
+		JedisPubSub current = subscriber;
+		if (current != null && current.isSubscribed()) {
+			current.unsubscribe();
+		}
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	private void listen() {
+		while (running) {
+			try {
+				subscriber = new JedisPubSub() {
+					@Override
+					public void onMessage(String channel, String message) {
+						handle(message);
+					}
+
+					@Override
+					public void onSubscribe(String channel, int subscribedChannels) {
+						//订阅之前填充的值可能已经错过了失效消息
+						invalidateAll();
+						subscribed = true;
+					}
+				};
+				redisManager.subscribe(subscriber, channel);
+				subscribed = false;
+			} catch (Exception e) {
+				subscribed = false;
+				if (!running) {
+					break;
+				}
+				logger.error("缓存失效订阅断开," + RECONNECT_INTERVAL + "毫秒后重连", e);
+				//断开期间可能错过失效消息
+				invalidateAll();
+				try {
+					Thread.sleep(RECONNECT_INTERVAL);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+	}
+
+	private void invalidateAll() {
+		for (NearCache<?> cache : caches.values()) {
+			cache.invalidateAll();
+		}
+	}
+
+	private void handle(String message) {
+		int first = message.indexOf(SEPARATOR);
+		int second = first < 0 ? -1 : message.indexOf(SEPARATOR, first + 1);
+		if (second < 0) {
+			logger.warn("无法识别的缓存失效消息:" + message);
+			return;
+		}
+		if (message.regionMatches(0, nodeId, 0, first) && first == nodeId.length()) {
+			return;
+		}
+		NearCache<?> cache = caches.get(message.substring(first + 1, second));
+		if (cache == null) {
+			return;
+		}
+		String key = message.substring(second + 1);
+		if (key.length() == 0) {
+			cache.invalidateAll();
+		} else {
+			cache.invalidate(key);
+		}
+	}
+
+}
@@ -0,0 +1,142 @@
+package com.purpose.shiro.session;
+
+import java.io.ObjectStreamException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+/**
+ * 属性按需加载的session,由JedisShiroHashSessionRepository从redis的hash中读出。
+ * 元数据在读取时就已加载,每个属性在第一次访问时才通过AttributeLoader读取。
+ * @version V1.0
+ */
+public class HashSession extends TrackedSession {
+
+	private static final long serialVersionUID = 6702913387325012766L;
+
+	/**
+	 * 从存储中读取属性
+	 */
+	public interface AttributeLoader {
+
+		/**
+		 * 读取单个属性
+		 * @param key
+		 * @return 不存在时返回null
+		 */
+		Object load(Object key);
+
+		/**
+		 * 读取所有属性
+		 * @return
+		 */
+		Map<Object, Object> loadAll();
+
+	}
+
+	//为null时所有属性都已在本地
+	private transient AttributeLoader loader;
+
+	//已经加载过(包括确认不存在)的属性名
+	private transient Set<Object> loaded;
+
+	public HashSession() {
+		super();
+	}
+
+	/**
+	 * 设置加载器,之后未加载的属性在访问时从存储读取
+	 * @param loader
+	 */
+	public void setAttributeLoader(AttributeLoader loader) {
+		this.loader = loader;
+		this.loaded = new HashSet<Object>();
+	}
+
+	/**
+	 * 放入已经读取到的属性值,不算修改
+	 * @param key
+	 * @param value 为null表示确认不存在
+	 */
+	public void preload(Object key, Object value) {
+		if (value != null) {
+			putAttributeSilently(key, value);
+		}
+		if (loaded != null) {
+			loaded.add(key);
+		}
+	}
+
+	/**
+	 * 属性是否已经在本地
+	 * @param key
+	 * @return
+	 */
+	public boolean isLoaded(Object key) {
+		return loader == null || loaded.contains(key);
+	}
+
+	@Override
+	public Object getAttribute(Object key) {
+		ensureLoaded(key);
+		return super.getAttribute(key);
+	}
+
+	@Override
+	public Collection<Object> getAttributeKeys() {
+		ensureAllLoaded();
+		return super.getAttributeKeys();
+	}
+
+	@Override
+	public void setAttribute(Object key, Object value) {
+		if (loaded != null) {
+			loaded.add(key);
+		}
+		super.setAttribute(key, value);
+	}
+
+	@Override
+	public Object removeAttribute(Object key) {
+		//需要返回原来的值,并且只有原来存在时才需要删除
+		ensureLoaded(key);
+		return super.removeAttribute(key);
+	}
+
+	/**
+	 * 加载所有未加载的属性,之后不再访问存储
+	 */
+	public void ensureAllLoaded() {
+		if (loader == null) {
+			return;
+		}
+		for (Map.Entry<Object, Object> entry : loader.loadAll().entrySet()) {
+			if (!loaded.contains(entry.getKey())) {
+				putAttributeSilently(entry.getKey(), entry.getValue());
+			}
+		}
+		loader = null;
+		loaded = null;
+	}
+
+	private void ensureLoaded(Object key) {
+		if (loader != null && !loaded.contains(key)) {
+			loaded.add(key);
+			Object value = loader.load(key);
+			if (value != null) {
+				putAttributeSilently(key, value);
+			}
+		}
+	}
+
+	/**
+	 * 序列化之前加载所有属性,避免丢失未加载的属性
+	 * @return
+	 * @throws ObjectStreamException
+	 */
+	protected Object writeReplace() throws ObjectStreamException {
+		ensureAllLoaded();
+		return this;
+	}
+
+}
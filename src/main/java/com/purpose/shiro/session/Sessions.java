@@ -0,0 +1,53 @@
+package com.purpose.shiro.session;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.shiro.session.Session;
+import org.apache.shiro.session.mgt.SimpleSession;
+import com.purpose.codec.LazyAttributes;
+/**
+ * session的复制
+ * @version V1.0
+ */
+public final class Sessions {
+
+	private Sessions() {
+
+	}
+
+	/**
+	 * 复制元数据和属性表,属性值本身不复制。副本与原session互不影响地增删属性,TrackedSession的副本没有修改记录。
+	 * 按需解码的属性表复制后仍未解码,各副本访问时各自解码
+	 * @param session
+	 * @return SimpleSession或TrackedSession之外的类型返回null
+	 */
+	public static SimpleSession copyOf(Session session) {
+		SimpleSession copy;
+		if (session.getClass() == TrackedSession.class) {
+			copy = new TrackedSession();
+		} else if (session.getClass() == SimpleSession.class) {
+			copy = new SimpleSession();
+		} else {
+			return null;
+		}
+		SimpleSession source = (SimpleSession) session;
+		copy.setId(source.getId());
+		copy.setStartTimestamp(source.getStartTimestamp());
+		copy.setStopTimestamp(source.getStopTimestamp());
+		copy.setLastAccessTime(source.getLastAccessTime());
+		copy.setTimeout(source.getTimeout());
+		copy.setExpired(source.isExpired());
+		copy.setHost(source.getHost());
+		Map<Object, Object> attributes = source.getAttributes();
+		if (attributes instanceof LazyAttributes) {
+			copy.setAttributes(((LazyAttributes) attributes).copy());
+		} else {
+			copy.setAttributes(attributes == null ? null : new HashMap<Object, Object>(attributes));
+		}
+		if (copy instanceof TrackedSession) {
+			((TrackedSession) copy).clearDirty();
+		}
+		return copy;
+	}
+
+}
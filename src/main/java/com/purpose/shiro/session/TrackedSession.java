@@ -0,0 +1,166 @@
+package com.purpose.shiro.session;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.apache.shiro.session.mgt.SimpleSession;
+/**
+ * 记录是否被修改过的session。
+ * 属性、超时时间、host、停止/过期状态的修改会把session标记为dirty;
+ * touch()只更新最后访问时间,不算修改,保存时只需要刷新过期时间。
+ * 同时记录被修改或删除的属性名和元数据是否修改,支持只写入变化的部分。
+ * 注意:直接修改属性对象内部的状态(不调用setAttribute)不会被发现。
+ * @version V1.0
+ */
+public class TrackedSession extends SimpleSession {
+
+	private static final long serialVersionUID = -3416547310328217419L;
+
+	//id、时间戳、超时时间、host、过期状态是否修改过。新建的session还没有保存过,初始为true;反序列化得到的session为false
+	private transient boolean metadataChanged;
+
+	//是否通过setAttributes整体替换了属性
+	private transient boolean attributesReplaced;
+
+	//上次保存之后设置或删除过的属性名
+	private transient Set<Object> changedAttributes;
+
+	public TrackedSession() {
+		super();
+		this.metadataChanged = true;
+	}
+
+	public TrackedSession(String host) {
+		super(host);
+		this.metadataChanged = true;
+	}
+
+	/**
+	 * 上次保存之后是否有需要写入的修改
+	 * @return
+	 */
+	public boolean isDirty() {
+		return metadataChanged || attributesReplaced || (changedAttributes != null && !changedAttributes.isEmpty());
+	}
+
+	public boolean isMetadataChanged() {
+		return metadataChanged;
+	}
+
+	public boolean isAttributesReplaced() {
+		return attributesReplaced;
+	}
+
+	/**
+	 * 上次保存之后设置或删除过的属性名,当前值为null的表示已删除
+	 * @return
+	 */
+	public Set<Object> getChangedAttributes() {
+		if (changedAttributes == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(changedAttributes);
+	}
+
+	/**
+	 * 保存之后调用
+	 */
+	public void clearDirty() {
+		metadataChanged = false;
+		attributesReplaced = false;
+		changedAttributes = null;
+	}
+
+	protected void markDirty() {
+		metadataChanged = true;
+	}
+
+	protected void markAttributeChanged(Object key) {
+		if (changedAttributes == null) {
+			changedAttributes = new HashSet<Object>();
+		}
+		changedAttributes.add(key);
+	}
+
+	/**
+	 * 不记录修改地放入属性值,用于从存储中加载属性
+	 * @param key
+	 * @param value
+	 */
+	protected void putAttributeSilently(Object key, Object value) {
+		Map<Object, Object> attributes = getAttributes();
+		if (attributes == null) {
+			attributes = new HashMap<Object, Object>();
+			super.setAttributes(attributes);
+		}
+		attributes.put(key, value);
+	}
+
+	@Override
+	public void setId(Serializable id) {
+		super.setId(id);
+		markDirty();
+	}
+
+	@Override
+	public void setStartTimestamp(Date startTimestamp) {
+		super.setStartTimestamp(startTimestamp);
+		markDirty();
+	}
+
+	@Override
+	public void setStopTimestamp(Date stopTimestamp) {
+		super.setStopTimestamp(stopTimestamp);
+		markDirty();
+	}
+
+	@Override
+	public void setExpired(boolean expired) {
+		super.setExpired(expired);
+		markDirty();
+	}
+
+	@Override
+	public void setTimeout(long timeout) {
+		super.setTimeout(timeout);
+		markDirty();
+	}
+
+	@Override
+	public void setHost(String host) {
+		super.setHost(host);
+		markDirty();
+	}
+
+	@Override
+	public void setAttributes(Map<Object, Object> attributes) {
+		super.setAttributes(attributes);
+		attributesReplaced = true;
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		markDirty();
+	}
+
+	@Override
+	public void setAttribute(Object key, Object value) {
+		super.setAttribute(key, value);
+		markAttributeChanged(key);
+	}
+
+	@Override
+	public Object removeAttribute(Object key) {
+		Object removed = super.removeAttribute(key);
+		if (removed != null) {
+			markAttributeChanged(key);
+		}
+		return removed;
+	}
+
+}
@@ -0,0 +1,23 @@
+package com.purpose.shiro.session;
+
+import org.apache.shiro.session.Session;
+import org.apache.shiro.session.mgt.SessionContext;
+import org.apache.shiro.session.mgt.SessionFactory;
+/**
+ * 创建TrackedSession的工厂,配置到SessionManager的sessionFactory属性上
+ * @version V1.0
+ */
+public class TrackedSessionFactory implements SessionFactory {
+
+	@Override
+	public Session createSession(SessionContext initData) {
+		if (initData != null) {
+			String host = initData.getHost();
+			if (host != null) {
+				return new TrackedSession(host);
+			}
+		}
+		return new TrackedSession();
+	}
+
+}
@@ -0,0 +1,504 @@
+package com.purpose.transport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.JedisClusterCRC16;
+import redis.clients.util.SafeEncoder;
+/**
+ * redis cluster的传输层:按CRC16(key) mod 16384计算槽,通过CLUSTER SLOTS得到的槽表把命令直接发给槽所在的主节点,
+ * key中含有{tag}时只用tag计算槽。每个主节点一个传输层,由NodeFactory按需创建。
+ * 收到MOVED时立即更新这个槽并重发,同时在后台刷新整个槽表;收到ASK时只对这一条命令先发ASKING再重发,不修改槽表。
+ * pipeline按节点分组后并行发送,只重发其中被重定向的命令,其余回复不受影响;MULTI到EXEC之间的命令按第一个key所在的槽整体发送。
+ * MGET和多key的DEL/EXISTS按槽拆分后通过pipeline发送再合并,所有key在同一个槽时不拆分。
+ * FLUSHDB、DBSIZE作用于所有主节点;SCAN依次遍历各主节点,游标形如"节点序号:节点游标",遍历期间拓扑变化可能遗漏或重复key;
+ * PUBLISH和其他没有key的命令发给第一个主节点。集群只有0号库。
+ * @version V1.0
+ */
+public class ClusterTransport implements RedisTransport {
+
+	private static final Logger logger = LoggerFactory.getLogger(ClusterTransport.class);
+
+	private static final int SLOTS = 16384;
+
+	//一条命令最多跟随的重定向次数,槽正在迁移时可能先MOVED再ASK
+	private static final int MAX_REDIRECTS = 5;
+
+	private static final byte[] ZERO_CURSOR = SafeEncoder.encode("0");
+
+	private final NodeFactory factory;
+
+	private final List<HostAndPort> seeds;
+
+	//host:port到节点传输层,下线的节点保留到close时再关闭,避免关闭正在使用的连接
+	private final ConcurrentMap<String, RedisTransport> nodes = new ConcurrentHashMap<String, RedisTransport>();
+
+	private final AtomicReferenceArray<RedisTransport> slots = new AtomicReferenceArray<RedisTransport>(SLOTS);
+
+	//主节点名,按槽的顺序排列
+	private volatile List<String> masters = Collections.emptyList();
+
+	private final AtomicBoolean refreshPending = new AtomicBoolean();
+
+	private final ScheduledExecutorService refresher;
+
+	private final ExecutorService executor;
+
+	/**
+	 * 创建时同步读取一次槽表,之后每隔refreshIntervalMillis在后台刷新
+	 * @param seeds 用于读取槽表的初始节点,任意一个可用即可
+	 * @param factory 创建单个节点的传输层
+	 * @param refreshIntervalMillis 定期刷新槽表的间隔,为0时只在MOVED和连接失败时刷新
+	 */
+	public ClusterTransport(List<HostAndPort> seeds, NodeFactory factory, long refreshIntervalMillis) {
+		if (seeds.isEmpty()) {
+			throw new IllegalArgumentException("至少需要一个集群节点");
+		}
+		this.seeds = new ArrayList<HostAndPort>(seeds);
+		this.factory = factory;
+		this.executor = Fanout.newExecutor("redis-cluster-");
+		this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "redis-cluster-refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			refresh();
+		} catch (RuntimeException e) {
+			close();
+			throw e;
+		}
+		if (refreshIntervalMillis > 0) {
+			refresher.scheduleWithFixedDelay(this::refreshQuietly, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public Object execute(byte[]... command) {
+		byte[] name = command[0];
+		if (Arrays.equals(name, Commands.FLUSHDB)) {
+			return broadcast(command).get(0);
+		}
+		if (Arrays.equals(name, Commands.DBSIZE)) {
+			long size = 0;
+			for (Object reply : broadcast(command)) {
+				size += RedisReplies.asLong(reply);
+			}
+			return size;
+		}
+		if (Arrays.equals(name, Commands.SCAN)) {
+			return scan(command);
+		}
+		if ((Arrays.equals(name, Commands.MGET) || Arrays.equals(name, Commands.DEL) || Arrays.equals(name, Commands.EXISTS))
+				&& command.length > 2) {
+			return multiKey(command);
+		}
+		if (command.length < 2 || Arrays.equals(name, Commands.PUBLISH)) {
+			return firstMaster().execute(command);
+		}
+		return routed(command);
+	}
+
+	@Override
+	public List<Object> pipeline(List<byte[][]> commands) {
+		//切分成单条命令或MULTI...EXEC块,按块的目标节点分组
+		List<int[]> units = new ArrayList<int[]>();
+		Map<RedisTransport, List<int[]>> byNode = new IdentityHashMap<RedisTransport, List<int[]>>();
+		int i = 0;
+		while (i < commands.size()) {
+			int end = i + 1;
+			int slot = -1;
+			if (Arrays.equals(commands.get(i)[0], Commands.MULTI)) {
+				while (end < commands.size() && !Arrays.equals(commands.get(end - 1)[0], Commands.EXEC)) {
+					if (slot < 0 && commands.get(end).length > 1 && !Arrays.equals(commands.get(end)[0], Commands.EXEC)) {
+						slot = JedisClusterCRC16.getSlot(Commands.routingKey(commands.get(end)));
+					}
+					end++;
+				}
+			} else if (commands.get(i).length > 1 && !Arrays.equals(commands.get(i)[0], Commands.PUBLISH)) {
+				slot = JedisClusterCRC16.getSlot(Commands.routingKey(commands.get(i)));
+			}
+			RedisTransport target = slot < 0 ? firstMaster() : owner(slot);
+			int[] unit = { i, end };
+			units.add(unit);
+			List<int[]> group = byNode.get(target);
+			if (group == null) {
+				group = new ArrayList<int[]>();
+				byNode.put(target, group);
+			}
+			group.add(unit);
+			i = end;
+		}
+		final List<Object> replies = new ArrayList<Object>(Collections.nCopies(commands.size(), null));
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(byNode.size());
+		for (final Map.Entry<RedisTransport, List<int[]>> entry : byNode.entrySet()) {
+			final List<byte[][]> group = new ArrayList<byte[][]>();
+			for (int[] unit : entry.getValue()) {
+				group.addAll(commands.subList(unit[0], unit[1]));
+			}
+			tasks.add(() -> {
+				List<Object> result = entry.getKey().pipeline(group);
+				int k = 0;
+				for (int[] unit : entry.getValue()) {
+					for (int j = unit[0]; j < unit[1]; j++) {
+						replies.set(j, result.get(k++));
+					}
+				}
+				return null;
+			});
+		}
+		try {
+			Fanout.run(executor, tasks);
+		} catch (JedisConnectionException e) {
+			refreshLater();
+			throw e;
+		}
+		//只重发被重定向的命令或块
+		for (int[] unit : units) {
+			JedisRedirectionException redirect = null;
+			for (int j = unit[0]; j < unit[1] && redirect == null; j++) {
+				if (replies.get(j) instanceof JedisRedirectionException) {
+					redirect = (JedisRedirectionException) replies.get(j);
+				}
+			}
+			if (redirect == null) {
+				continue;
+			}
+			if (unit[1] - unit[0] == 1) {
+				try {
+					replies.set(unit[0], redirect(commands.get(unit[0]), redirect));
+				} catch (JedisDataException e) {
+					replies.set(unit[0], e);
+				}
+			} else {
+				List<Object> result = redirect(commands.subList(unit[0], unit[1]), redirect);
+				for (int j = unit[0]; j < unit[1]; j++) {
+					replies.set(j, result.get(j - unit[0]));
+				}
+			}
+		}
+		return replies;
+	}
+
+	@Override
+	public void close() {
+		refresher.shutdownNow();
+		executor.shutdownNow();
+		for (RedisTransport node : nodes.values()) {
+			node.close();
+		}
+	}
+
+	/**
+	 * key所在的槽
+	 * @param key
+	 * @return
+	 */
+	public static int slot(byte[] key) {
+		return JedisClusterCRC16.getSlot(key);
+	}
+
+	/**
+	 * 当前的主节点,形如host:port
+	 * @return
+	 */
+	public List<String> getMasters() {
+		return masters;
+	}
+
+	/**
+	 * 重新读取槽表,依次尝试已知的主节点和初始节点
+	 */
+	public void refresh() {
+		Set<String> candidates = new LinkedHashSet<String>(masters);
+		for (HostAndPort seed : seeds) {
+			candidates.add(seed.getHost() + ":" + seed.getPort());
+		}
+		RuntimeException failure = null;
+		for (String candidate : candidates) {
+			try {
+				apply((List<?>) node(candidate).execute(Commands.CLUSTER, Commands.SLOTS), candidate);
+				return;
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+		}
+		throw new JedisConnectionException("无法从任何节点读取集群槽表:" + candidates, failure);
+	}
+
+	private void refreshQuietly() {
+		try {
+			refresh();
+		} catch (RuntimeException e) {
+			logger.warn("刷新redis集群槽表失败", e);
+		} finally {
+			refreshPending.set(false);
+		}
+	}
+
+	/**
+	 * 在后台刷新槽表,已经有刷新在排队时不重复提交
+	 */
+	private void refreshLater() {
+		if (refreshPending.compareAndSet(false, true)) {
+			try {
+				refresher.execute(this::refreshQuietly);
+			} catch (RuntimeException e) {
+				//已经关闭
+				refreshPending.set(false);
+			}
+		}
+	}
+
+	/**
+	 * 应用CLUSTER SLOTS的回复:每项为[起始槽, 结束槽, [主节点host, port, id], 从节点...]
+	 * @param reply
+	 * @param source 回复来自的节点,主节点host为空时使用它的host
+	 */
+	private void apply(List<?> reply, String source) {
+		RedisTransport[] owners = new RedisTransport[SLOTS];
+		List<String> names = new ArrayList<String>();
+		for (Object item : reply) {
+			List<?> range = (List<?>) item;
+			List<?> master = (List<?>) range.get(2);
+			String host = SafeEncoder.encode((byte[]) master.get(0));
+			if (host.isEmpty()) {
+				host = source.substring(0, source.lastIndexOf(':'));
+			}
+			String name = host + ":" + RedisReplies.asLong(master.get(1));
+			RedisTransport node = node(name);
+			for (long slot = RedisReplies.asLong(range.get(0)); slot <= RedisReplies.asLong(range.get(1)); slot++) {
+				owners[(int) slot] = node;
+			}
+			if (!names.contains(name)) {
+				names.add(name);
+			}
+		}
+		for (int slot = 0; slot < SLOTS; slot++) {
+			slots.set(slot, owners[slot]);
+		}
+		if (!names.equals(masters)) {
+			logger.info("redis集群主节点:" + names);
+		}
+		masters = Collections.unmodifiableList(names);
+	}
+
+	private RedisTransport node(String name) {
+		RedisTransport node = nodes.get(name);
+		if (node == null) {
+			int colon = name.lastIndexOf(':');
+			synchronized (nodes) {
+				node = nodes.get(name);
+				if (node == null) {
+					node = factory.create(name.substring(0, colon), Integer.parseInt(name.substring(colon + 1)));
+					nodes.put(name, node);
+				}
+			}
+		}
+		return node;
+	}
+
+	private RedisTransport node(HostAndPort hostAndPort) {
+		return node(hostAndPort.getHost() + ":" + hostAndPort.getPort());
+	}
+
+	/**
+	 * 槽所在的节点,槽表中没有时发给第一个主节点,由它返回MOVED
+	 */
+	private RedisTransport owner(int slot) {
+		RedisTransport node = slots.get(slot);
+		return node == null ? firstMaster() : node;
+	}
+
+	private RedisTransport firstMaster() {
+		List<String> current = masters;
+		if (current.isEmpty()) {
+			throw new JedisConnectionException("redis集群没有可用的主节点");
+		}
+		return node(current.get(0));
+	}
+
+	/**
+	 * 按第一个key的槽发送,需要时跟随重定向
+	 */
+	private Object routed(byte[][] command) {
+		RedisTransport target = owner(JedisClusterCRC16.getSlot(Commands.routingKey(command)));
+		try {
+			return target.execute(command);
+		} catch (JedisRedirectionException e) {
+			return redirect(command, e);
+		} catch (JedisConnectionException e) {
+			refreshLater();
+			throw e;
+		}
+	}
+
+	/**
+	 * 跟随重定向重发一条命令
+	 */
+	private Object redirect(byte[][] command, JedisRedirectionException redirect) {
+		for (int attempt = 1;; attempt++) {
+			RedisTransport target = node(redirect.getTargetNode());
+			try {
+				if (redirect instanceof JedisAskDataException) {
+					Object reply = target.pipeline(Arrays.asList(Commands.of(Commands.ASKING), command)).get(1);
+					if (reply instanceof JedisDataException) {
+						throw (JedisDataException) reply;
+					}
+					return reply;
+				}
+				slots.set(redirect.getSlot(), target);
+				refreshLater();
+				return target.execute(command);
+			} catch (JedisRedirectionException e) {
+				if (attempt >= MAX_REDIRECTS) {
+					throw e;
+				}
+				redirect = e;
+			}
+		}
+	}
+
+	/**
+	 * 把MULTI...EXEC块整体重发到重定向的节点,只重发一次
+	 */
+	private List<Object> redirect(List<byte[][]> block, JedisRedirectionException redirect) {
+		RedisTransport target = node(redirect.getTargetNode());
+		if (redirect instanceof JedisAskDataException) {
+			List<byte[][]> asking = new ArrayList<byte[][]>(block.size() + 1);
+			asking.add(Commands.of(Commands.ASKING));
+			asking.addAll(block);
+			return target.pipeline(asking).subList(1, asking.size());
+		}
+		slots.set(redirect.getSlot(), target);
+		refreshLater();
+		return target.pipeline(block);
+	}
+
+	private List<Object> broadcast(final byte[][] command) {
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (String master : masters) {
+			final RedisTransport node = node(master);
+			tasks.add(() -> node.execute(command));
+		}
+		return Fanout.run(executor, tasks);
+	}
+
+	/**
+	 * SCAN依次遍历各个主节点,一次只扫描一个节点的一页
+	 */
+	private Object scan(byte[][] command) {
+		List<String> current = masters;
+		int node = 0;
+		byte[] cursor = command[1];
+		if (!Arrays.equals(cursor, ZERO_CURSOR)) {
+			String value = SafeEncoder.encode(cursor);
+			int index = value.indexOf(':');
+			if (index <= 0) {
+				throw new JedisDataException("无效的集群游标:" + value);
+			}
+			node = Integer.parseInt(value.substring(0, index));
+			cursor = SafeEncoder.encode(value.substring(index + 1));
+		}
+		if (node >= current.size()) {
+			return Arrays.<Object>asList(ZERO_CURSOR, Collections.emptyList());
+		}
+		byte[][] nodeCommand = command.clone();
+		nodeCommand[1] = cursor;
+		List<?> reply = (List<?>) node(current.get(node)).execute(nodeCommand);
+		byte[] next = (byte[]) reply.get(0);
+		if (Arrays.equals(next, ZERO_CURSOR)) {
+			next = node + 1 < current.size() ? SafeEncoder.encode((node + 1) + ":0") : ZERO_CURSOR;
+		} else {
+			next = SafeEncoder.encode(node + ":" + SafeEncoder.encode(next));
+		}
+		return Arrays.<Object>asList(next, reply.get(1));
+	}
+
+	/**
+	 * 多key命令按槽拆分,MGET合并值,DEL/EXISTS累加数量
+	 */
+	private Object multiKey(byte[][] command) {
+		Map<Integer, List<Integer>> bySlot = new TreeMap<Integer, List<Integer>>();
+		for (int i = 1; i < command.length; i++) {
+			int slot = JedisClusterCRC16.getSlot(command[i]);
+			List<Integer> indexes = bySlot.get(slot);
+			if (indexes == null) {
+				indexes = new ArrayList<Integer>();
+				bySlot.put(slot, indexes);
+			}
+			indexes.add(i);
+		}
+		if (bySlot.size() == 1) {
+			return routed(command);
+		}
+		List<byte[][]> subCommands = new ArrayList<byte[][]>(bySlot.size());
+		for (List<Integer> indexes : bySlot.values()) {
+			byte[][] sub = new byte[indexes.size() + 1][];
+			sub[0] = command[0];
+			for (int j = 0; j < indexes.size(); j++) {
+				sub[j + 1] = command[indexes.get(j)];
+			}
+			subCommands.add(sub);
+		}
+		List<Object> results = pipeline(subCommands);
+		boolean mget = Arrays.equals(command[0], Commands.MGET);
+		Object[] values = new Object[command.length - 1];
+		long count = 0;
+		int k = 0;
+		for (List<Integer> indexes : bySlot.values()) {
+			Object result = results.get(k++);
+			if (result instanceof JedisDataException) {
+				throw (JedisDataException) result;
+			}
+			if (mget) {
+				List<?> list = (List<?>) result;
+				for (int j = 0; j < indexes.size(); j++) {
+					values[indexes.get(j) - 1] = list.get(j);
+				}
+			} else {
+				count += RedisReplies.asLong(result);
+			}
+		}
+		return mget ? Arrays.asList(values) : (Object) count;
+	}
+
+	/**
+	 * 创建单个集群节点的传输层
+	 */
+	public interface NodeFactory {
+
+		/**
+		 * @param host
+		 * @param port
+		 * @return 固定在0号库的传输层
+		 */
+		RedisTransport create(String host, int port);
+
+	}
+
+}
@@ -0,0 +1,127 @@
+package com.purpose.transport;
+
+import java.util.Arrays;
+
+import redis.clients.util.SafeEncoder;
+/**
+ * 命令名常量和命令的构造
+ * @version V1.0
+ */
+public final class Commands {
+
+	public static final byte[] AUTH = SafeEncoder.encode("AUTH");
+	public static final byte[] SELECT = SafeEncoder.encode("SELECT");
+	public static final byte[] PING = SafeEncoder.encode("PING");
+	public static final byte[] GET = SafeEncoder.encode("GET");
+	public static final byte[] SET = SafeEncoder.encode("SET");
+	public static final byte[] SETEX = SafeEncoder.encode("SETEX");
+	public static final byte[] DEL = SafeEncoder.encode("DEL");
+	public static final byte[] EXISTS = SafeEncoder.encode("EXISTS");
+	public static final byte[] EXPIRE = SafeEncoder.encode("EXPIRE");
+	public static final byte[] INCRBY = SafeEncoder.encode("INCRBY");
+	public static final byte[] INCRBYFLOAT = SafeEncoder.encode("INCRBYFLOAT");
+	public static final byte[] EVAL = SafeEncoder.encode("EVAL");
+	public static final byte[] PTTL = SafeEncoder.encode("PTTL");
+	public static final byte[] MGET = SafeEncoder.encode("MGET");
+	public static final byte[] HGET = SafeEncoder.encode("HGET");
+	public static final byte[] HMGET = SafeEncoder.encode("HMGET");
+	public static final byte[] HMSET = SafeEncoder.encode("HMSET");
+	public static final byte[] HSET = SafeEncoder.encode("HSET");
+	public static final byte[] HINCRBY = SafeEncoder.encode("HINCRBY");
+	public static final byte[] HGETALL = SafeEncoder.encode("HGETALL");
+	public static final byte[] HDEL = SafeEncoder.encode("HDEL");
+	public static final byte[] HEXISTS = SafeEncoder.encode("HEXISTS");
+	public static final byte[] HLEN = SafeEncoder.encode("HLEN");
+	public static final byte[] HSCAN = SafeEncoder.encode("HSCAN");
+	public static final byte[] LPUSH = SafeEncoder.encode("LPUSH");
+	public static final byte[] RPUSH = SafeEncoder.encode("RPUSH");
+	public static final byte[] LTRIM = SafeEncoder.encode("LTRIM");
+	public static final byte[] LRANGE = SafeEncoder.encode("LRANGE");
+	public static final byte[] MULTI = SafeEncoder.encode("MULTI");
+	public static final byte[] EXEC = SafeEncoder.encode("EXEC");
+	public static final byte[] SCAN = SafeEncoder.encode("SCAN");
+	public static final byte[] FLUSHDB = SafeEncoder.encode("FLUSHDB");
+	public static final byte[] DBSIZE = SafeEncoder.encode("DBSIZE");
+	public static final byte[] PUBLISH = SafeEncoder.encode("PUBLISH");
+	public static final byte[] INFO = SafeEncoder.encode("INFO");
+	public static final byte[] CLUSTER = SafeEncoder.encode("CLUSTER");
+	public static final byte[] ASKING = SafeEncoder.encode("ASKING");
+
+	public static final byte[] MATCH = SafeEncoder.encode("MATCH");
+	public static final byte[] COUNT = SafeEncoder.encode("COUNT");
+	public static final byte[] SLOTS = SafeEncoder.encode("SLOTS");
+	public static final byte[] NX = SafeEncoder.encode("NX");
+	public static final byte[] PX = SafeEncoder.encode("PX");
+
+	//只读命令,可以发给从节点或重复发送
+	private static final byte[][] READ_ONLY = { GET, MGET, PTTL, EXISTS, HGET, HMGET, HGETALL, HEXISTS, HLEN, HSCAN,
+			LRANGE, SCAN, DBSIZE };
+
+	private Commands() {
+
+	}
+
+	/**
+	 * 是否为只读命令
+	 * @param name 命令名
+	 * @return
+	 */
+	public static boolean isReadOnly(byte[] name) {
+		for (byte[] read : READ_ONLY) {
+			if (name == read || Arrays.equals(name, read)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 构造命令
+	 * @param name
+	 * @param args
+	 * @return
+	 */
+	public static byte[][] of(byte[] name, byte[]... args) {
+		byte[][] command = new byte[args.length + 1][];
+		command[0] = name;
+		System.arraycopy(args, 0, command, 1, args.length);
+		return command;
+	}
+
+	/**
+	 * 用于路由的key:通常是第一个参数,EVAL的key在脚本和key的个数之后
+	 * @param command 至少有一个参数
+	 * @return
+	 */
+	public static byte[] routingKey(byte[][] command) {
+		if (command.length > 3 && Arrays.equals(command[0], EVAL) && !(command[2].length == 1 && command[2][0] == '0')) {
+			return command[3];
+		}
+		return command[1];
+	}
+
+	/**
+	 * 构造参数为一个key加上多个值的命令,例如HMGET、HDEL、LPUSH
+	 * @param name
+	 * @param key
+	 * @param rest
+	 * @return
+	 */
+	public static byte[][] withKey(byte[] name, byte[] key, byte[][] rest) {
+		byte[][] command = new byte[rest.length + 2][];
+		command[0] = name;
+		command[1] = key;
+		System.arraycopy(rest, 0, command, 2, rest.length);
+		return command;
+	}
+
+	/**
+	 * 整数参数
+	 * @param value
+	 * @return
+	 */
+	public static byte[] toBytes(long value) {
+		return SafeEncoder.encode(String.valueOf(value));
+	}
+
+}
@@ -0,0 +1,282 @@
+package com.purpose.transport;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.purpose.metrics.LatencyHistogram;
+
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+/**
+ * 给每次调用加上截止时间并对只读命令做对冲请求的传输层包装。
+ * 超过截止时间仍未返回时抛出JedisConnectionException,调用线程不再等待socket超时;迟到的回复被丢弃。
+ * 开启对冲时,只读的单条命令(GET、HGET等)在对冲延迟内没有返回就再发一次,取先成功返回的结果;
+ * 第二次请求经过同一个被包装的传输层,在ReplicaTransport下会落到另一个从节点,在连接池或多条nio连接下会使用另一条连接。
+ * 对冲延迟为最近一段时间只读命令耗时的p95,不小于minHedgeDelay,每秒重新计算一次,对冲请求因此大约占读请求的5%。
+ * 被包装的是NioTransport时直接使用它的异步接口;其他传输层是阻塞的,命令在后台线程中执行,
+ * 超时的命令会一直占用线程直到socket超时。后台线程最多maxThreads个(与连接池大小相同),
+ * redis卡住时线程全部被占用,之后的调用立即失败而不是继续创建线程。
+ * @version V1.0
+ */
+public class DeadlineTransport implements RedisTransport {
+
+	private static final double HEDGE_PERCENTILE = 0.95;
+
+	//计算对冲延迟所用的耗时样本每隔这么久清空一次
+	private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	private static final long RECOMPUTE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	//样本少于这个数量时沿用之前的对冲延迟
+	private static final long MIN_SAMPLES = 20;
+
+	private final RedisTransport delegate;
+
+	private final long deadlineNanos;
+
+	private final boolean hedge;
+
+	private final long minHedgeDelayNanos;
+
+	private final ExecutorService executor;
+
+	private final LongAdder timeouts = new LongAdder();
+
+	private final LongAdder hedges = new LongAdder();
+
+	private final LongAdder hedgeWins = new LongAdder();
+
+	private final LongAdder rejections = new LongAdder();
+
+	private volatile LatencyHistogram window = new LatencyHistogram();
+
+	private volatile long windowStart = System.nanoTime();
+
+	private volatile long lastRecompute = System.nanoTime();
+
+	private volatile long hedgeDelayNanos;
+
+	/**
+	 * @param delegate 实际的传输层
+	 * @param deadlineMillis 每次调用的截止时间,为0时不限制(仍受socket超时限制)
+	 * @param hedge 是否对只读命令发送对冲请求
+	 * @param minHedgeDelayMillis 对冲延迟的下限
+	 * @param maxThreads 被包装的传输层是阻塞的时,执行命令的最大线程数
+	 */
+	public DeadlineTransport(RedisTransport delegate, long deadlineMillis, boolean hedge, long minHedgeDelayMillis,
+			int maxThreads) {
+		this.delegate = delegate;
+		this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+		this.hedge = hedge;
+		this.minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(minHedgeDelayMillis);
+		this.hedgeDelayNanos = minHedgeDelayNanos;
+		this.executor = delegate instanceof NioTransport ? null
+				: Fanout.newBoundedExecutor("redis-deadline-", Math.max(1, maxThreads));
+	}
+
+	@Override
+	public Object execute(final byte[]... command) {
+		boolean hedgeable = hedge && Commands.isReadOnly(command[0]);
+		if (deadlineNanos <= 0 && !hedgeable) {
+			return delegate.execute(command);
+		}
+		final long start = System.nanoTime();
+		long deadline = deadlineNanos > 0 ? start + deadlineNanos : Long.MAX_VALUE;
+		CompletableFuture<Object> primary = executeAsync(command);
+		if (!hedgeable) {
+			return await(primary, deadline);
+		}
+		primary.whenComplete((reply, failure) -> {
+			if (failure == null) {
+				record(System.nanoTime() - start);
+			}
+		});
+		long hedgeAt = start + hedgeDelayNanos;
+		if (hedgeAt - deadline >= 0) {
+			return await(primary, deadline);
+		}
+		try {
+			return primary.get(Math.max(0, hedgeAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			//到了对冲延迟仍未返回,再发一次
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JedisConnectionException("等待redis回复时被中断", e);
+		} catch (ExecutionException e) {
+			throw unwrap(e);
+		}
+		CompletableFuture<Object> secondary;
+		try {
+			secondary = executeAsync(command);
+		} catch (JedisConnectionException e) {
+			//没有空闲线程发送对冲请求,继续等待原请求
+			return await(primary, deadline);
+		}
+		hedges.increment();
+		return await(firstSuccessful(primary, secondary), deadline);
+	}
+
+	@Override
+	public List<Object> pipeline(final List<byte[][]> commands) {
+		if (deadlineNanos <= 0) {
+			return delegate.pipeline(commands);
+		}
+		long deadline = System.nanoTime() + deadlineNanos;
+		CompletableFuture<List<Object>> future = delegate instanceof NioTransport
+				? ((NioTransport) delegate).pipelineAsync(commands)
+				: submit(() -> delegate.pipeline(commands));
+		return await(future, deadline);
+	}
+
+	@Override
+	public void close() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+		delegate.close();
+	}
+
+	public RedisTransport getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * 超过截止时间的调用次数
+	 * @return
+	 */
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+
+	/**
+	 * 因为线程全部被占用而立即失败的调用次数
+	 * @return
+	 */
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	/**
+	 * 发出的对冲请求数
+	 * @return
+	 */
+	public long getHedges() {
+		return hedges.sum();
+	}
+
+	/**
+	 * 对冲请求先于原请求返回的次数
+	 * @return
+	 */
+	public long getHedgeWins() {
+		return hedgeWins.sum();
+	}
+
+	/**
+	 * 当前的对冲延迟(微秒)
+	 * @return
+	 */
+	public long getHedgeDelayMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(hedgeDelayNanos);
+	}
+
+	private CompletableFuture<Object> executeAsync(final byte[][] command) {
+		if (executor == null) {
+			return ((NioTransport) delegate).executeAsync(command);
+		}
+		return submit(() -> delegate.execute(command));
+	}
+
+	/**
+	 * 在后台线程中执行,线程都被占用时立即失败
+	 */
+	private <T> CompletableFuture<T> submit(Supplier<T> task) {
+		try {
+			return CompletableFuture.supplyAsync(task, executor);
+		} catch (RejectedExecutionException e) {
+			rejections.increment();
+			throw new JedisConnectionException("执行redis命令的线程已全部被占用", e);
+		}
+	}
+
+	/**
+	 * 两个请求中先成功的结果,都失败时以后失败的异常结束
+	 */
+	private CompletableFuture<Object> firstSuccessful(CompletableFuture<Object> primary, CompletableFuture<Object> secondary) {
+		final CompletableFuture<Object> result = new CompletableFuture<Object>();
+		final AtomicInteger failures = new AtomicInteger();
+		primary.whenComplete((reply, failure) -> {
+			if (failure == null) {
+				result.complete(reply);
+			} else if (failures.incrementAndGet() == 2) {
+				result.completeExceptionally(failure);
+			}
+		});
+		secondary.whenComplete((reply, failure) -> {
+			if (failure == null) {
+				if (result.complete(reply)) {
+					hedgeWins.increment();
+				}
+			} else if (failures.incrementAndGet() == 2) {
+				result.completeExceptionally(failure);
+			}
+		});
+		return result;
+	}
+
+	private <T> T await(CompletableFuture<T> future, long deadline) {
+		try {
+			return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			timeouts.increment();
+			throw new JedisConnectionException("redis命令超过" + TimeUnit.NANOSECONDS.toMillis(deadlineNanos) + "毫秒未返回");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JedisConnectionException("等待redis回复时被中断", e);
+		} catch (ExecutionException e) {
+			throw unwrap(e);
+		}
+	}
+
+	private static RuntimeException unwrap(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof JedisException) {
+			return (JedisException) cause;
+		}
+		return cause instanceof RuntimeException ? (RuntimeException) cause : new JedisConnectionException(cause);
+	}
+
+	/**
+	 * 记录只读命令的耗时,每秒按最近的样本重新计算一次对冲延迟
+	 */
+	private void record(long nanos) {
+		LatencyHistogram current = window;
+		current.record(nanos);
+		long now = System.nanoTime();
+		if (now - lastRecompute < RECOMPUTE_NANOS) {
+			return;
+		}
+		synchronized (this) {
+			if (now - lastRecompute < RECOMPUTE_NANOS) {
+				return;
+			}
+			lastRecompute = now;
+			if (current.getCount() >= MIN_SAMPLES) {
+				hedgeDelayNanos = Math.max(minHedgeDelayNanos, current.getPercentile(HEDGE_PERCENTILE));
+			}
+			if (now - windowStart >= WINDOW_NANOS) {
+				window = new LatencyHistogram();
+				windowStart = now;
+			}
+		}
+	}
+
+}
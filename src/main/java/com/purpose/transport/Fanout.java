@@ -0,0 +1,109 @@
+package com.purpose.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import redis.clients.jedis.exceptions.JedisConnectionException;
+/**
+ * 分片和集群传输层共用的并行执行:把发往多个节点的命令同时发出,等全部回复后再返回
+ * @version V1.0
+ */
+final class Fanout {
+
+	private Fanout() {
+
+	}
+
+	/**
+	 * 线程按需创建、空闲后回收的守护线程池
+	 * @param prefix 线程名前缀
+	 * @return
+	 */
+	static ExecutorService newExecutor(final String prefix) {
+		final AtomicInteger threads = new AtomicInteger();
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + threads.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * 最多maxThreads个线程的守护线程池,不排队:线程都在忙时立即拒绝,空闲的线程60秒后回收
+	 * @param prefix 线程名前缀
+	 * @param maxThreads
+	 * @return
+	 */
+	static ExecutorService newBoundedExecutor(final String prefix, int maxThreads) {
+		final AtomicInteger threads = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, prefix + threads.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * 并行执行,最后一个任务在当前线程执行;只有一个任务时不切换线程。
+	 * 任何一个任务失败时等其余任务结束后抛出第一个异常
+	 * @param executor
+	 * @param tasks
+	 * @return 与任务顺序一一对应的结果
+	 */
+	static <T> List<T> run(ExecutorService executor, List<Callable<T>> tasks) {
+		List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+		for (int i = 0; i < tasks.size() - 1; i++) {
+			futures.add(executor.submit(tasks.get(i)));
+		}
+		List<T> results = new ArrayList<T>(tasks.size());
+		RuntimeException failure = null;
+		T last = null;
+		try {
+			last = tasks.get(tasks.size() - 1).call();
+		} catch (RuntimeException e) {
+			failure = e;
+		} catch (Exception e) {
+			failure = new JedisConnectionException(e);
+		}
+		for (Future<T> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+							: new JedisConnectionException(e.getCause());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (failure == null) {
+					failure = new JedisConnectionException("等待节点回复时被中断", e);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		results.add(last);
+		return results;
+	}
+
+}
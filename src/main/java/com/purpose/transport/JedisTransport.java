@@ -0,0 +1,226 @@
+package com.purpose.transport;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import com.purpose.metrics.LatencyHistogram;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
+/**
+ * 基于jedis连接的阻塞传输层,与原来的JedisPool相同:每个命令(或一次pipeline)独占一条池中的连接直到读完回复。
+ * 连接在创建时完成auth和select。
+ * @version V1.0
+ */
+public class JedisTransport implements RedisTransport {
+
+	private static final Map<String, Protocol.Command> COMMANDS = new HashMap<String, Protocol.Command>();
+
+	static {
+		for (Protocol.Command command : Protocol.Command.values()) {
+			COMMANDS.put(command.name(), command);
+		}
+	}
+
+	private final GenericObjectPool<RawConnection> pool;
+
+	//从池中借用连接的等待时间
+	private final LatencyHistogram borrowWait = new LatencyHistogram();
+
+	/**
+	 * @param config 连接池配置
+	 * @param host
+	 * @param port
+	 * @param timeout 连接和读写超时(毫秒)
+	 * @param password 为null时不认证
+	 * @param database
+	 */
+	public JedisTransport(GenericObjectPoolConfig config, String host, int port, int timeout, String password, int database) {
+		this.pool = new GenericObjectPool<RawConnection>(new ConnectionFactory(host, port, timeout, password, database), config);
+	}
+
+	@Override
+	public Object execute(byte[]... command) {
+		RawConnection connection = borrow();
+		boolean broken = false;
+		try {
+			return connection.execute(command);
+		} catch (JedisConnectionException e) {
+			broken = true;
+			throw e;
+		} finally {
+			release(connection, broken);
+		}
+	}
+
+	@Override
+	public List<Object> pipeline(List<byte[][]> commands) {
+		RawConnection connection = borrow();
+		boolean broken = false;
+		try {
+			return connection.pipeline(commands);
+		} catch (JedisConnectionException e) {
+			broken = true;
+			throw e;
+		} finally {
+			release(connection, broken);
+		}
+	}
+
+	@Override
+	public void close() {
+		pool.close();
+	}
+
+	/**
+	 * 底层连接池,用于查看借用等待和活动/空闲连接数
+	 * @return
+	 */
+	public GenericObjectPool<?> getPool() {
+		return pool;
+	}
+
+	/**
+	 * 借用连接的等待时间分布
+	 * @return
+	 */
+	public LatencyHistogram getBorrowWait() {
+		return borrowWait;
+	}
+
+	private RawConnection borrow() {
+		long start = System.nanoTime();
+		try {
+			return pool.borrowObject();
+		} catch (JedisException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new JedisConnectionException("无法从连接池获取连接", e);
+		} finally {
+			borrowWait.recordSince(start);
+		}
+	}
+
+	private void release(RawConnection connection, boolean broken) {
+		if (broken || connection.isBroken()) {
+			try {
+				pool.invalidateObject(connection);
+			} catch (Exception e) {
+				//连接已经不可用,忽略关闭时的错误
+			}
+		} else {
+			pool.returnObject(connection);
+		}
+	}
+
+	/**
+	 * 可以发送任意命令的jedis连接
+	 */
+	static class RawConnection extends Connection {
+
+		RawConnection(String host, int port) {
+			super(host, port);
+		}
+
+		Object execute(byte[][] command) {
+			sendCommand(resolve(command), Arrays.copyOfRange(command, 1, command.length));
+			return getOne();
+		}
+
+		List<Object> pipeline(List<byte[][]> commands) {
+			//先检查所有命令,避免发送了一部分之后失败
+			Protocol.Command[] names = new Protocol.Command[commands.size()];
+			for (int i = 0; i < names.length; i++) {
+				names[i] = resolve(commands.get(i));
+			}
+			for (int i = 0; i < names.length; i++) {
+				byte[][] command = commands.get(i);
+				sendCommand(names[i], Arrays.copyOfRange(command, 1, command.length));
+			}
+			return getAll();
+		}
+
+		private static Protocol.Command resolve(byte[][] command) {
+			Protocol.Command name = COMMANDS.get(SafeEncoder.encode(command[0]).toUpperCase());
+			if (name == null) {
+				throw new JedisDataException("不支持的命令:" + SafeEncoder.encode(command[0]));
+			}
+			return name;
+		}
+
+	}
+
+	/**
+	 * 创建、校验和销毁连接
+	 */
+	private static class ConnectionFactory extends BasePooledObjectFactory<RawConnection> {
+
+		private final String host;
+
+		private final int port;
+
+		private final int timeout;
+
+		private final String password;
+
+		private final int database;
+
+		ConnectionFactory(String host, int port, int timeout, String password, int database) {
+			this.host = host;
+			this.port = port;
+			this.timeout = timeout;
+			this.password = password;
+			this.database = database;
+		}
+
+		@Override
+		public RawConnection create() throws Exception {
+			RawConnection connection = new RawConnection(host, port);
+			connection.setConnectionTimeout(timeout);
+			connection.setSoTimeout(timeout);
+			try {
+				connection.connect();
+				if (password != null) {
+					connection.execute(Commands.of(Commands.AUTH, SafeEncoder.encode(password)));
+				}
+				if (database != 0) {
+					connection.execute(Commands.of(Commands.SELECT, Commands.toBytes(database)));
+				}
+			} catch (JedisException e) {
+				connection.disconnect();
+				throw e;
+			}
+			return connection;
+		}
+
+		@Override
+		public PooledObject<RawConnection> wrap(RawConnection connection) {
+			return new DefaultPooledObject<RawConnection>(connection);
+		}
+
+		@Override
+		public boolean validateObject(PooledObject<RawConnection> pooled) {
+			try {
+				return "PONG".equals(RedisReplies.asStatus(pooled.getObject().execute(Commands.of(Commands.PING))));
+			} catch (JedisException e) {
+				return false;
+			}
+		}
+
+		@Override
+		public void destroyObject(PooledObject<RawConnection> pooled) {
+			pooled.getObject().disconnect();
+		}
+
+	}
+
+}
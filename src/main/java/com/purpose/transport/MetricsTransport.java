@@ -0,0 +1,224 @@
+package com.purpose.transport;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.pool2.impl.GenericObjectPool;
+
+import com.purpose.metrics.LatencyHistogram;
+import com.purpose.metrics.RedisMetrics;
+
+import redis.clients.util.SafeEncoder;
+/**
+ * 记录指标的传输层包装:每种命令一个延迟直方图,pipeline单独一个,另外统计发送/接收的字节数和错误数。
+ * 包装的是JedisTransport时同时登记连接池的活动/空闲连接数和借用等待时间,连接池在DeadlineTransport、
+ * ReplicaTransport(主节点)或ShardedTransport(每个节点,名称加上.node序号)之下时同样登记;
+ * 包装的是ReplicaTransport时登记主从节点各自的读命令数以及每个从节点的健康状态和复制落后量;
+ * 包装的是DeadlineTransport时登记超时次数、拒绝次数、对冲请求数和当前的对冲延迟。
+ * 直方图按命令名数组的引用查找(Commands中的常量总是同一个数组),调用路径上不分配对象。
+ * 字节数按RESP编码估算,不含TCP开销。
+ * @version V1.0
+ */
+public class MetricsTransport implements RedisTransport {
+
+	//按引用缓存的命令名数量上限,防止调用方每次新建命令名数组时无限增长
+	private static final int MAX_IDENTITY_ENTRIES = 256;
+
+	private final RedisTransport delegate;
+
+	private final RedisMetrics metrics;
+
+	private final String prefix;
+
+	private final ConcurrentMap<byte[], LatencyHistogram> byIdentity = new ConcurrentHashMap<byte[], LatencyHistogram>();
+
+	private final LatencyHistogram pipelineLatency;
+
+	private final LongAdder bytesOut;
+
+	private final LongAdder bytesIn;
+
+	private final LongAdder errors;
+
+	/**
+	 * @param delegate 实际的传输层
+	 * @param metrics
+	 * @param prefix 指标名前缀,例如redis.index
+	 */
+	public MetricsTransport(RedisTransport delegate, RedisMetrics metrics, String prefix) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+		this.prefix = prefix;
+		this.pipelineLatency = metrics.histogram(prefix + ".pipeline");
+		this.bytesOut = metrics.counter(prefix + ".bytesOut");
+		this.bytesIn = metrics.counter(prefix + ".bytesIn");
+		this.errors = metrics.counter(prefix + ".errors");
+		if (delegate instanceof DeadlineTransport) {
+			registerDeadline((DeadlineTransport) delegate);
+		}
+		RedisTransport inner = delegate instanceof DeadlineTransport ? ((DeadlineTransport) delegate).getDelegate() : delegate;
+		registerPools(inner, prefix);
+		if (inner instanceof ReplicaTransport) {
+			registerReplicas((ReplicaTransport) inner);
+		}
+	}
+
+	private void registerDeadline(final DeadlineTransport deadlineTransport) {
+		metrics.gauge(prefix + ".deadline.timeouts", () -> deadlineTransport.getTimeouts());
+		metrics.gauge(prefix + ".deadline.rejections", () -> deadlineTransport.getRejections());
+		metrics.gauge(prefix + ".hedge.sent", () -> deadlineTransport.getHedges());
+		metrics.gauge(prefix + ".hedge.wins", () -> deadlineTransport.getHedgeWins());
+		metrics.gauge(prefix + ".hedge.delayMicros", () -> deadlineTransport.getHedgeDelayMicros());
+	}
+
+	/**
+	 * 找出包装在内的连接池并登记
+	 * @param transport
+	 * @param name 指标名前缀
+	 */
+	private void registerPools(RedisTransport transport, String name) {
+		if (transport instanceof DeadlineTransport) {
+			registerPools(((DeadlineTransport) transport).getDelegate(), name);
+		} else if (transport instanceof ReplicaTransport) {
+			registerPools(((ReplicaTransport) transport).getMaster(), name);
+		} else if (transport instanceof ShardedTransport) {
+			List<RedisTransport> nodes = ((ShardedTransport) transport).getNodes();
+			for (int i = 0; i < nodes.size(); i++) {
+				registerPools(nodes.get(i), name + ".node" + i);
+			}
+		} else if (transport instanceof JedisTransport) {
+			registerPool((JedisTransport) transport, name);
+		}
+	}
+
+	private void registerPool(JedisTransport jedisTransport, String name) {
+		final GenericObjectPool<?> pool = jedisTransport.getPool();
+		metrics.histogram(name + ".pool.borrowWait", jedisTransport.getBorrowWait());
+		metrics.gauge(name + ".pool.active", () -> pool.getNumActive());
+		metrics.gauge(name + ".pool.idle", () -> pool.getNumIdle());
+		metrics.gauge(name + ".pool.waiters", () -> pool.getNumWaiters());
+		metrics.gauge(name + ".pool.maxBorrowWaitMillis", () -> pool.getMaxBorrowWaitTimeMillis());
+	}
+
+	private void registerReplicas(final ReplicaTransport replicaTransport) {
+		metrics.gauge(prefix + ".reads.replica", () -> replicaTransport.getReplicaReads());
+		metrics.gauge(prefix + ".reads.master", () -> replicaTransport.getMasterReads());
+		for (final ReplicaTransport.Replica replica : replicaTransport.getReplicas()) {
+			String name = prefix + ".replica." + replica.getName();
+			metrics.gauge(name + ".healthy", () -> replica.isHealthy() ? 1 : 0);
+			metrics.gauge(name + ".lagBytes", () -> replica.getLagBytes());
+		}
+	}
+
+	@Override
+	public Object execute(byte[]... command) {
+		LatencyHistogram latency = latency(command[0]);
+		bytesOut.add(commandSize(command));
+		long start = System.nanoTime();
+		try {
+			Object reply = delegate.execute(command);
+			bytesIn.add(replySize(reply));
+			return reply;
+		} catch (RuntimeException e) {
+			errors.increment();
+			throw e;
+		} finally {
+			latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public List<Object> pipeline(List<byte[][]> commands) {
+		long out = 0;
+		for (int i = 0; i < commands.size(); i++) {
+			out += commandSize(commands.get(i));
+		}
+		bytesOut.add(out);
+		long start = System.nanoTime();
+		try {
+			List<Object> replies = delegate.pipeline(commands);
+			bytesIn.add(replySize(replies));
+			return replies;
+		} catch (RuntimeException e) {
+			errors.increment();
+			throw e;
+		} finally {
+			pipelineLatency.recordSince(start);
+		}
+	}
+
+	@Override
+	public void close() {
+		delegate.close();
+	}
+
+	/**
+	 * 被包装的传输层
+	 * @return
+	 */
+	public RedisTransport getDelegate() {
+		return delegate;
+	}
+
+	private LatencyHistogram latency(byte[] name) {
+		LatencyHistogram latency = byIdentity.get(name);
+		if (latency == null) {
+			latency = metrics.histogram(histogramName(SafeEncoder.encode(name)));
+			if (byIdentity.size() < MAX_IDENTITY_ENTRIES) {
+				byIdentity.putIfAbsent(name, latency);
+			}
+		}
+		return latency;
+	}
+
+	private String histogramName(String name) {
+		return prefix + ".command." + name.toUpperCase();
+	}
+
+	private static long commandSize(byte[][] command) {
+		//*N\r\n 加上每个参数的 $len\r\n...\r\n
+		long size = 3 + digits(command.length);
+		for (byte[] arg : command) {
+			size += 5 + digits(arg.length) + arg.length;
+		}
+		return size;
+	}
+
+	private static long replySize(Object reply) {
+		if (reply == null) {
+			return 5;
+		}
+		if (reply instanceof byte[]) {
+			int length = ((byte[]) reply).length;
+			return 5 + digits(length) + length;
+		}
+		if (reply instanceof Long) {
+			return 3 + digits(Math.abs((Long) reply));
+		}
+		if (reply instanceof List) {
+			List<?> list = (List<?>) reply;
+			long size = 3 + digits(list.size());
+			for (int i = 0; i < list.size(); i++) {
+				size += replySize(list.get(i));
+			}
+			return size;
+		}
+		if (reply instanceof Throwable) {
+			String message = ((Throwable) reply).getMessage();
+			return 3 + (message == null ? 0 : message.length());
+		}
+		return 0;
+	}
+
+	private static int digits(long value) {
+		int digits = 1;
+		while (value >= 10) {
+			value /= 10;
+			digits++;
+		}
+		return digits;
+	}
+
+}
@@ -0,0 +1,499 @@
+package com.purpose.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
+/**
+ * 基于NIO的非阻塞传输层:少量长连接被所有调用方共享,一个IO线程负责所有连接的读写。
+ * 调用方把编码好的命令追加到连接的发送缓冲区,按发送顺序排队等待回复(RESP的回复与命令顺序一致);
+ * IO线程一次写出缓冲区中积累的所有命令,因此并发的命令会自动合并成pipeline。
+ * 每条连接的读写各使用一个复用的直接缓冲区。
+ * 等待回复超过timeout时抛出JedisConnectionException,连接不会因此关闭,迟到的回复会被丢弃。
+ * 连接断开时所有等待中的命令失败,下一个命令会重新连接。不支持订阅,订阅仍然使用RedisManager.subscribe。
+ * @version V1.0
+ */
+public class NioTransport implements RedisTransport {
+
+	private static final Logger logger = LoggerFactory.getLogger(NioTransport.class);
+
+	private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final String host;
+
+	private final int port;
+
+	private final int timeout;
+
+	private final String password;
+
+	private final int database;
+
+	private final NioConnection[] connections;
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	private final Selector selector;
+
+	//需要在IO线程中执行的操作,例如注册新连接
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	private final Thread ioThread;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * @param host
+	 * @param port
+	 * @param timeout 连接和等待回复的超时(毫秒)
+	 * @param password 为null时不认证
+	 * @param database
+	 * @param connections 连接数
+	 */
+	public NioTransport(String host, int port, int timeout, String password, int database, int connections) {
+		this.host = host;
+		this.port = port;
+		this.timeout = timeout;
+		this.password = password;
+		this.database = database;
+		this.connections = new NioConnection[Math.max(1, connections)];
+		for (int i = 0; i < this.connections.length; i++) {
+			this.connections[i] = new NioConnection();
+		}
+		try {
+			this.selector = Selector.open();
+		} catch (IOException e) {
+			throw new JedisConnectionException("无法创建selector", e);
+		}
+		this.ioThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, "redis-nio-" + THREAD_NUMBER.incrementAndGet());
+		this.ioThread.setDaemon(true);
+		this.ioThread.start();
+	}
+
+	@Override
+	public Object execute(byte[]... command) {
+		CompletableFuture<Object> future = connection().send(Collections.singletonList(command)).get(0);
+		Object reply = await(future, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+		if (reply instanceof JedisDataException) {
+			throw (JedisDataException) reply;
+		}
+		return reply;
+	}
+
+	@Override
+	public List<Object> pipeline(List<byte[][]> commands) {
+		if (commands.isEmpty()) {
+			return new ArrayList<Object>();
+		}
+		List<CompletableFuture<Object>> futures = connection().send(commands);
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		List<Object> replies = new ArrayList<Object>(futures.size());
+		for (CompletableFuture<Object> future : futures) {
+			replies.add(await(future, deadline));
+		}
+		return replies;
+	}
+
+	/**
+	 * 异步执行一条命令,redis返回错误时future以JedisDataException失败。不受timeout限制
+	 * @param command
+	 * @return
+	 */
+	public CompletableFuture<Object> executeAsync(byte[]... command) {
+		return connection().send(Collections.singletonList(command)).get(0).thenApply(reply -> {
+			if (reply instanceof JedisDataException) {
+				throw (JedisDataException) reply;
+			}
+			return reply;
+		});
+	}
+
+	/**
+	 * 异步执行pipeline,redis返回的错误放在对应位置而不是让future失败。不受timeout限制
+	 * @param commands
+	 * @return
+	 */
+	public CompletableFuture<List<Object>> pipelineAsync(List<byte[][]> commands) {
+		if (commands.isEmpty()) {
+			return CompletableFuture.completedFuture((List<Object>) new ArrayList<Object>());
+		}
+		final List<CompletableFuture<Object>> futures = connection().send(commands);
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).thenApply(done -> {
+			List<Object> replies = new ArrayList<Object>(futures.size());
+			for (CompletableFuture<Object> future : futures) {
+				replies.add(future.join());
+			}
+			return replies;
+		});
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		selector.wakeup();
+		try {
+			ioThread.join(timeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (NioConnection connection : connections) {
+			connection.close();
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			logger.warn("关闭selector出错", e);
+		}
+	}
+
+	private NioConnection connection() {
+		if (closed) {
+			throw new JedisConnectionException("连接已关闭");
+		}
+		return connections[(next.getAndIncrement() & Integer.MAX_VALUE) % connections.length];
+	}
+
+	private static Object await(CompletableFuture<Object> future, long deadline) {
+		try {
+			return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			throw new JedisConnectionException("等待redis回复超时");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JedisConnectionException("等待redis回复时被中断", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof JedisException) {
+				throw (JedisException) e.getCause();
+			}
+			throw new JedisConnectionException(e.getCause());
+		}
+	}
+
+	/**
+	 * IO线程:执行任务,处理就绪的连接
+	 */
+	private void loop() {
+		while (!closed) {
+			try {
+				selector.select();
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					((NioConnection.Link) key.attachment()).handle(key);
+				}
+			} catch (ClosedSelectorException e) {
+				return;
+			} catch (IOException e) {
+				logger.error("redis selector出错", e);
+			} catch (RuntimeException e) {
+				logger.error("redis IO线程出错", e);
+			}
+		}
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				//已经失败的连接,忽略关闭时的错误
+			}
+		}
+	}
+
+	/**
+	 * 一条共享的连接,断开后在下一次发送时重新建立
+	 */
+	private class NioConnection {
+
+		//IO线程写出和读入时复用的直接缓冲区
+		private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		//当前的底层连接,断开后为null
+		private Link current;
+
+		/**
+		 * 追加命令,返回的future与命令一一对应,完成值为回复(错误回复为JedisDataException)
+		 * @param commands
+		 * @return
+		 */
+		synchronized List<CompletableFuture<Object>> send(List<byte[][]> commands) {
+			for (byte[][] command : commands) {
+				for (byte[] arg : command) {
+					if (arg == null) {
+						throw new JedisDataException("命令参数不能为null");
+					}
+				}
+			}
+			if (current == null) {
+				current = connect();
+			}
+			List<CompletableFuture<Object>> futures = new ArrayList<CompletableFuture<Object>>(commands.size());
+			for (byte[][] command : commands) {
+				futures.add(current.enqueue(command));
+			}
+			current.scheduleWrite();
+			return futures;
+		}
+
+		void close() {
+			Link link;
+			synchronized (this) {
+				link = current;
+			}
+			if (link != null) {
+				link.fail(new JedisConnectionException("连接已关闭"));
+			}
+		}
+
+		/**
+		 * 在调用线程中阻塞地建立连接,认证和选择库的命令排在最前面,注册到selector的操作交给IO线程
+		 * @return
+		 */
+		private Link connect() {
+			SocketChannel channel = null;
+			try {
+				channel = SocketChannel.open();
+				channel.socket().setTcpNoDelay(true);
+				channel.socket().setKeepAlive(true);
+				channel.socket().connect(new InetSocketAddress(host, port), timeout);
+				channel.configureBlocking(false);
+			} catch (IOException e) {
+				closeQuietly(channel);
+				throw new JedisConnectionException("无法连接redis:" + host + ":" + port, e);
+			}
+			final Link link = new Link(channel);
+			if (password != null) {
+				link.handshake(Commands.of(Commands.AUTH, SafeEncoder.encode(password)));
+			}
+			if (database != 0) {
+				link.handshake(Commands.of(Commands.SELECT, Commands.toBytes(database)));
+			}
+			tasks.add(new Runnable() {
+				@Override
+				public void run() {
+					link.register();
+				}
+			});
+			selector.wakeup();
+			return link;
+		}
+
+		/**
+		 * 一次TCP连接的状态。发送缓冲区和等待队列由NioConnection的锁保护,
+		 * 正在写出的缓冲区和解析器只在IO线程中使用
+		 */
+		private class Link {
+
+			private final SocketChannel channel;
+
+			private SelectionKey key;
+
+			//调用方追加命令的缓冲区
+			private RespWriter out = new RespWriter(BUFFER_SIZE);
+
+			//IO线程正在写出的缓冲区,写完后与out交换
+			private RespWriter flushing = new RespWriter(BUFFER_SIZE);
+
+			private final RespReader reader = new RespReader(BUFFER_SIZE);
+
+			private final ArrayDeque<CompletableFuture<Object>> pending = new ArrayDeque<CompletableFuture<Object>>();
+
+			//是否已经请求IO线程写出,注册之前为true,注册时会关注写事件
+			private boolean writeScheduled = true;
+
+			private boolean failed = false;
+
+			Link(SocketChannel channel) {
+				this.channel = channel;
+			}
+
+			CompletableFuture<Object> enqueue(byte[][] command) {
+				out.writeCommand(command);
+				CompletableFuture<Object> future = new CompletableFuture<Object>();
+				pending.add(future);
+				return future;
+			}
+
+			void handshake(byte[][] command) {
+				enqueue(command).thenAccept(reply -> {
+					if (reply instanceof JedisDataException) {
+						fail(new JedisConnectionException("redis认证或选择库失败:" + ((JedisDataException) reply).getMessage()));
+					}
+				});
+			}
+
+			void scheduleWrite() {
+				if (!writeScheduled) {
+					writeScheduled = true;
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					selector.wakeup();
+				}
+			}
+
+			void register() {
+				synchronized (NioConnection.this) {
+					if (failed) {
+						return;
+					}
+					try {
+						key = channel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+						return;
+					} catch (ClosedChannelException e) {
+						//在锁外处理
+					}
+				}
+				fail(new JedisConnectionException("连接已关闭"));
+			}
+
+			void handle(SelectionKey key) {
+				try {
+					if (key.isValid() && key.isReadable()) {
+						read();
+					}
+					if (key.isValid() && key.isWritable()) {
+						write();
+					}
+				} catch (CancelledKeyException e) {
+					//连接已经失败
+				} catch (IOException e) {
+					fail(e);
+				} catch (JedisConnectionException e) {
+					fail(e);
+				}
+			}
+
+			private void read() throws IOException {
+				for (;;) {
+					readBuffer.clear();
+					int n = channel.read(readBuffer);
+					if (n < 0) {
+						throw new EOFException("redis关闭了连接");
+					}
+					if (n == 0) {
+						return;
+					}
+					readBuffer.flip();
+					reader.feed(readBuffer);
+					Object reply;
+					while ((reply = reader.next()) != RespReader.INCOMPLETE) {
+						CompletableFuture<Object> future;
+						synchronized (NioConnection.this) {
+							if (failed) {
+								return;
+							}
+							future = pending.poll();
+						}
+						if (future == null) {
+							throw new JedisConnectionException("收到了多余的回复");
+						}
+						future.complete(reply);
+					}
+				}
+			}
+
+			private void write() throws IOException {
+				for (;;) {
+					synchronized (NioConnection.this) {
+						if (failed) {
+							return;
+						}
+						if (flushing.isEmpty()) {
+							if (out.isEmpty()) {
+								writeScheduled = false;
+								key.interestOps(SelectionKey.OP_READ);
+								return;
+							}
+							RespWriter drained = flushing;
+							drained.reset();
+							flushing = out;
+							out = drained;
+						}
+					}
+					writeBuffer.clear();
+					flushing.drainTo(writeBuffer);
+					writeBuffer.flip();
+					channel.write(writeBuffer);
+					if (writeBuffer.hasRemaining()) {
+						//socket缓冲区已满,等待下一次可写
+						flushing.unread(writeBuffer.remaining());
+						return;
+					}
+				}
+			}
+
+			/**
+			 * 关闭连接,所有等待中的命令失败
+			 * @param cause
+			 */
+			void fail(Throwable cause) {
+				List<CompletableFuture<Object>> waiting;
+				SelectionKey registered;
+				synchronized (NioConnection.this) {
+					if (failed) {
+						return;
+					}
+					failed = true;
+					if (current == this) {
+						current = null;
+					}
+					waiting = new ArrayList<CompletableFuture<Object>>(pending);
+					pending.clear();
+					registered = key;
+				}
+				if (registered != null) {
+					registered.cancel();
+				}
+				closeQuietly(channel);
+				if (!closed) {
+					logger.warn("redis连接断开:" + host + ":" + port, cause);
+				}
+				JedisConnectionException error = cause instanceof JedisConnectionException ? (JedisConnectionException) cause
+						: new JedisConnectionException(cause);
+				for (CompletableFuture<Object> future : waiting) {
+					future.completeExceptionally(error);
+				}
+			}
+
+		}
+
+	}
+
+}
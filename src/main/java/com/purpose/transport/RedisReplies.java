@@ -0,0 +1,98 @@
+package com.purpose.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.JedisByteHashMap;
+import redis.clients.util.SafeEncoder;
+/**
+ * 把RedisTransport返回的回复转换成具体类型
+ * @version V1.0
+ */
+public final class RedisReplies {
+
+	private RedisReplies() {
+
+	}
+
+	public static byte[] asBytes(Object reply) {
+		return (byte[]) reply;
+	}
+
+	public static Long asLong(Object reply) {
+		return (Long) reply;
+	}
+
+	/**
+	 * 状态回复,例如"OK"
+	 * @param reply
+	 * @return
+	 */
+	public static String asStatus(Object reply) {
+		if (reply == null) {
+			return null;
+		}
+		return reply instanceof byte[] ? SafeEncoder.encode((byte[]) reply) : reply.toString();
+	}
+
+	/**
+	 * 批量回复的数组,例如MGET、HMGET、LRANGE
+	 * @param reply
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<byte[]> asBytesList(Object reply) {
+		if (reply == null) {
+			return null;
+		}
+		List<Object> list = (List<Object>) reply;
+		List<byte[]> result = new ArrayList<byte[]>(list.size());
+		for (Object item : list) {
+			result.add((byte[]) item);
+		}
+		return result;
+	}
+
+	/**
+	 * HGETALL的回复,返回的map可以直接用byte[]查找
+	 * @param reply
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<byte[], byte[]> asMap(Object reply) {
+		List<Object> list = (List<Object>) reply;
+		Map<byte[], byte[]> result = new JedisByteHashMap();
+		for (int i = 0; i + 1 < list.size(); i += 2) {
+			result.put((byte[]) list.get(i), (byte[]) list.get(i + 1));
+		}
+		return result;
+	}
+
+	/**
+	 * SCAN/HSCAN的回复
+	 * @param reply
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static ScanResult<byte[]> asScanResult(Object reply) {
+		List<Object> list = (List<Object>) reply;
+		return new ScanResult<byte[]>((byte[]) list.get(0), asBytesList(list.get(1)));
+	}
+
+	/**
+	 * 检查pipeline的回复,有错误时抛出第一个错误
+	 * @param replies
+	 * @return replies
+	 */
+	public static List<Object> check(List<Object> replies) {
+		for (Object reply : replies) {
+			if (reply instanceof JedisDataException) {
+				throw (JedisDataException) reply;
+			}
+		}
+		return replies;
+	}
+
+}
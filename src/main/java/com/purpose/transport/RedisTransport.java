@@ -0,0 +1,34 @@
+package com.purpose.transport;
+
+import java.util.List;
+/**
+ * redis命令的传输层,RedisManager通过它发送命令,不关心连接如何管理。
+ * 命令是参数数组,第一个元素是命令名,例如Commands.of(Commands.GET, key)。
+ * 回复按RESP类型返回:批量回复为byte[](不存在时为null),整数为Long,状态回复为byte[],数组为List&lt;Object&gt;。
+ * 连接问题抛出JedisConnectionException,redis返回的错误抛出JedisDataException(及其子类),
+ * 两种实现的异常类型相同,调用方无需区分。
+ * @version V1.0
+ */
+public interface RedisTransport {
+
+	/**
+	 * 执行一条命令
+	 * @param command
+	 * @return 回复
+	 */
+	Object execute(byte[]... command);
+
+	/**
+	 * 在同一条连接上连续发送多条命令后再读取回复,MULTI/EXEC可以放在其中。
+	 * 某条命令返回错误时不抛出,对应位置是JedisDataException,由调用方检查
+	 * @param commands
+	 * @return 与命令的顺序一一对应的回复
+	 */
+	List<Object> pipeline(List<byte[][]> commands);
+
+	/**
+	 * 关闭所有连接
+	 */
+	void close();
+
+}
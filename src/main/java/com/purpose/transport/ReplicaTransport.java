@@ -0,0 +1,365 @@
+package com.purpose.transport;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+/**
+ * 主从读写分离的传输层:只读命令轮询发给健康的从节点,其余命令发给主节点。
+ * 只读的pipeline整体发给同一个从节点,含有写命令或MULTI的pipeline发给主节点。
+ * 本进程写过的key在readYourWritesMillis内仍然从主节点读,刚保存的session不会因为复制延迟读到旧值;
+ * 写入时间按key的哈希记在固定大小的数组里,哈希冲突只会让多余的读走主节点,不影响正确性。
+ * 后台线程每隔checkInterval对比主节点的master_repl_offset和从节点的slave_repl_offset,
+ * 复制链路断开、落后超过maxLagBytes或检查失败的从节点不再参与读;从节点读失败时标记为不健康并改从主节点读。
+ * 没有健康的从节点时所有命令都发给主节点。
+ * @version V1.0
+ */
+public class ReplicaTransport implements RedisTransport {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReplicaTransport.class);
+
+	private static final byte[] REPLICATION = SafeEncoder.encode("replication");
+
+	//记录写入时间的槽数,必须是2的幂
+	private static final int WRITE_SLOTS = 4096;
+
+	private final RedisTransport master;
+
+	private final Replica[] replicas;
+
+	private final long readYourWritesMillis;
+
+	private final long maxLagBytes;
+
+	private final AtomicLongArray lastWrites = new AtomicLongArray(WRITE_SLOTS);
+
+	//最近一次FLUSHDB的时间,之后的窗口内所有读都走主节点
+	private volatile long lastFlush;
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	private final LongAdder replicaReads = new LongAdder();
+
+	private final LongAdder masterReads = new LongAdder();
+
+	private final ScheduledExecutorService checker;
+
+	/**
+	 * 创建时同步检查一次从节点状态,之后在后台定期检查
+	 * @param master 主节点
+	 * @param names 从节点名,通常为host:port,用于日志和指标
+	 * @param replicas 与names一一对应的从节点传输层
+	 * @param readYourWritesMillis 写入后从主节点读的时间窗口,为0时不启用
+	 * @param maxLagBytes 从节点落后主节点的复制偏移量超过这个值时不参与读
+	 * @param checkIntervalMillis 检查从节点状态的间隔
+	 */
+	public ReplicaTransport(RedisTransport master, List<String> names, List<RedisTransport> replicas,
+			long readYourWritesMillis, long maxLagBytes, long checkIntervalMillis) {
+		if (names.isEmpty() || names.size() != replicas.size()) {
+			throw new IllegalArgumentException("从节点名和从节点数量不一致");
+		}
+		this.master = master;
+		this.replicas = new Replica[replicas.size()];
+		for (int i = 0; i < this.replicas.length; i++) {
+			this.replicas[i] = new Replica(names.get(i), replicas.get(i));
+		}
+		this.readYourWritesMillis = readYourWritesMillis;
+		this.maxLagBytes = maxLagBytes;
+		checkReplicas();
+		this.checker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "redis-replica-check");
+			thread.setDaemon(true);
+			return thread;
+		});
+		checker.scheduleWithFixedDelay(this::checkReplicas, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public Object execute(byte[]... command) {
+		if (!Commands.isReadOnly(command[0])) {
+			markWritten(command);
+			return master.execute(command);
+		}
+		Replica replica = readTarget(command);
+		if (replica != null) {
+			try {
+				Object reply = replica.transport.execute(command);
+				replicaReads.increment();
+				return reply;
+			} catch (RuntimeException e) {
+				if (!markDownOn(replica, e)) {
+					throw e;
+				}
+			}
+		}
+		masterReads.increment();
+		return master.execute(command);
+	}
+
+	@Override
+	public List<Object> pipeline(List<byte[][]> commands) {
+		boolean readOnly = true;
+		for (int i = 0; i < commands.size() && readOnly; i++) {
+			readOnly = Commands.isReadOnly(commands.get(i)[0]);
+		}
+		if (!readOnly) {
+			for (int i = 0; i < commands.size(); i++) {
+				markWritten(commands.get(i));
+			}
+			return master.pipeline(commands);
+		}
+		Replica replica = null;
+		if (!commands.isEmpty()) {
+			replica = readTarget(commands.get(0));
+			for (int i = 1; i < commands.size() && replica != null; i++) {
+				if (recentlyWritten(commands.get(i))) {
+					replica = null;
+				}
+			}
+		}
+		if (replica != null) {
+			try {
+				List<Object> replies = replica.transport.pipeline(commands);
+				replicaReads.add(commands.size());
+				return replies;
+			} catch (RuntimeException e) {
+				if (!markDownOn(replica, e)) {
+					throw e;
+				}
+			}
+		}
+		masterReads.add(commands.size());
+		return master.pipeline(commands);
+	}
+
+	@Override
+	public void close() {
+		checker.shutdownNow();
+		for (Replica replica : replicas) {
+			replica.transport.close();
+		}
+		master.close();
+	}
+
+	/**
+	 * 从节点的状态
+	 * @return
+	 */
+	public List<Replica> getReplicas() {
+		return Collections.unmodifiableList(Arrays.asList(replicas));
+	}
+
+	public RedisTransport getMaster() {
+		return master;
+	}
+
+	/**
+	 * 发给从节点的读命令数
+	 * @return
+	 */
+	public long getReplicaReads() {
+		return replicaReads.sum();
+	}
+
+	/**
+	 * 因为刚写过、没有健康的从节点或从节点失败而发给主节点的读命令数
+	 * @return
+	 */
+	public long getMasterReads() {
+		return masterReads.sum();
+	}
+
+	/**
+	 * 轮询选择健康的从节点,命令涉及刚写过的key时返回null
+	 */
+	private Replica readTarget(byte[][] command) {
+		if (recentlyWritten(command)) {
+			return null;
+		}
+		int start = next.getAndIncrement() & Integer.MAX_VALUE;
+		for (int i = 0; i < replicas.length; i++) {
+			Replica replica = replicas[(start + i) % replicas.length];
+			if (replica.healthy) {
+				return replica;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 从节点连接失败或正在加载数据时标记为不健康,由调用方改从主节点读
+	 * @return 是否可以改从主节点读
+	 */
+	private boolean markDownOn(Replica replica, RuntimeException e) {
+		boolean retry = e instanceof JedisConnectionException || (e instanceof JedisDataException
+				&& e.getMessage() != null && (e.getMessage().startsWith("LOADING") || e.getMessage().startsWith("MASTERDOWN")));
+		if (retry && replica.healthy) {
+			replica.healthy = false;
+			logger.warn("redis从节点读失败,改从主节点读:" + replica.name, e);
+		}
+		return retry;
+	}
+
+	private boolean recentlyWritten(byte[][] command) {
+		if (readYourWritesMillis <= 0) {
+			return false;
+		}
+		long since = System.currentTimeMillis() - readYourWritesMillis;
+		if (lastFlush > since) {
+			return true;
+		}
+		int end = keyEnd(command);
+		for (int i = 1; i < end; i++) {
+			if (lastWrites.get(slot(command[i])) > since) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void markWritten(byte[][] command) {
+		if (readYourWritesMillis <= 0) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (Arrays.equals(command[0], Commands.FLUSHDB)) {
+			lastFlush = now;
+			return;
+		}
+		int end = keyEnd(command);
+		for (int i = 1; i < end; i++) {
+			lastWrites.set(slot(command[i]), now);
+		}
+	}
+
+	/**
+	 * key参数的结束位置(不含):MGET、EXISTS和DEL的所有参数都是key,SCAN、DBSIZE没有key,其余命令只有第一个参数是key
+	 */
+	private static int keyEnd(byte[][] command) {
+		byte[] name = command[0];
+		if (Arrays.equals(name, Commands.MGET) || Arrays.equals(name, Commands.EXISTS) || Arrays.equals(name, Commands.DEL)) {
+			return command.length;
+		}
+		if (Arrays.equals(name, Commands.SCAN) || Arrays.equals(name, Commands.DBSIZE)) {
+			return 1;
+		}
+		return Math.min(command.length, 2);
+	}
+
+	private static int slot(byte[] key) {
+		int h = Arrays.hashCode(key);
+		return (h ^ (h >>> 16)) & (WRITE_SLOTS - 1);
+	}
+
+	/**
+	 * 检查所有从节点的复制状态和落后量
+	 */
+	private void checkReplicas() {
+		long masterOffset = -1;
+		try {
+			masterOffset = infoLong(info(master), "master_repl_offset");
+		} catch (RuntimeException e) {
+			logger.warn("读取redis主节点复制状态失败", e);
+		}
+		for (Replica replica : replicas) {
+			boolean healthy;
+			String reason = null;
+			try {
+				String info = info(replica.transport);
+				long offset = infoLong(info, "slave_repl_offset");
+				replica.lagBytes = masterOffset < 0 || offset < 0 ? -1 : Math.max(0, masterOffset - offset);
+				if (!"slave".equals(infoValue(info, "role"))) {
+					reason = "不是从节点";
+				} else if (!"up".equals(infoValue(info, "master_link_status"))) {
+					reason = "复制链路断开";
+				} else if (replica.lagBytes > maxLagBytes) {
+					reason = "落后主节点" + replica.lagBytes + "字节";
+				}
+				healthy = reason == null;
+			} catch (RuntimeException e) {
+				healthy = false;
+				replica.lagBytes = -1;
+				reason = e.getMessage();
+			}
+			if (healthy != replica.healthy) {
+				if (healthy) {
+					logger.info("redis从节点恢复读:" + replica.name);
+				} else {
+					logger.warn("redis从节点暂停读:" + replica.name + "," + reason);
+				}
+			}
+			replica.healthy = healthy;
+			replica.lastCheck = System.currentTimeMillis();
+		}
+	}
+
+	private static String info(RedisTransport target) {
+		return SafeEncoder.encode(RedisReplies.asBytes(target.execute(Commands.INFO, REPLICATION)));
+	}
+
+	private static String infoValue(String info, String field) {
+		for (String line : info.split("\r\n")) {
+			if (line.startsWith(field + ":")) {
+				return line.substring(field.length() + 1).trim();
+			}
+		}
+		return null;
+	}
+
+	private static long infoLong(String info, String field) {
+		String value = infoValue(info, field);
+		return value == null ? -1 : Long.parseLong(value);
+	}
+
+	/**
+	 * 从节点及其最近一次检查的结果
+	 */
+	public static class Replica {
+
+		private final String name;
+
+		private final RedisTransport transport;
+
+		private volatile boolean healthy;
+
+		//落后主节点的复制偏移量(字节),未知时为-1
+		private volatile long lagBytes = -1;
+
+		private volatile long lastCheck;
+
+		Replica(String name, RedisTransport transport) {
+			this.name = name;
+			this.transport = transport;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isHealthy() {
+			return healthy;
+		}
+
+		public long getLagBytes() {
+			return lagBytes;
+		}
+
+		public long getLastCheck() {
+			return lastCheck;
+		}
+
+	}
+
+}
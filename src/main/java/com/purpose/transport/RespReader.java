@@ -0,0 +1,200 @@
+package com.purpose.transport;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.util.SafeEncoder;
+/**
+ * 增量解析RESP回复。读到的数据通过feed追加,next每次返回一个完整的回复,数据不够时返回INCOMPLETE,
+ * 已经解析完的数组元素会保留,下次继续,大数组分多次到达时不会重复解析。非线程安全。
+ * 回复的类型与JedisTransport相同,错误回复转换成对应的JedisDataException。
+ * @version V1.0
+ */
+class RespReader {
+
+	static final Object INCOMPLETE = new Object();
+
+	//读到数组头,元素还在后面
+	private static final Object ARRAY_STARTED = new Object();
+
+	private byte[] buffer;
+
+	private int start;
+
+	private int end;
+
+	//正在解析的数组,最内层在栈顶
+	private final ArrayDeque<Frame> frames = new ArrayDeque<Frame>();
+
+	RespReader(int capacity) {
+		this.buffer = new byte[capacity];
+	}
+
+	/**
+	 * 追加从channel读到的数据
+	 * @param source
+	 */
+	void feed(ByteBuffer source) {
+		int n = source.remaining();
+		if (end + n > buffer.length) {
+			//已经解析的部分不再需要
+			int pending = end - start;
+			byte[] target = pending + n > buffer.length ? new byte[Math.max(buffer.length * 2, pending + n)] : buffer;
+			System.arraycopy(buffer, start, target, 0, pending);
+			buffer = target;
+			start = 0;
+			end = pending;
+		}
+		source.get(buffer, end, n);
+		end += n;
+	}
+
+	/**
+	 * 取出下一个完整的回复
+	 * @return 回复,数据不够时返回INCOMPLETE
+	 */
+	Object next() {
+		for (;;) {
+			Object value = readItem();
+			if (value == INCOMPLETE) {
+				return INCOMPLETE;
+			}
+			if (value == ARRAY_STARTED) {
+				continue;
+			}
+			boolean complete = true;
+			while (!frames.isEmpty()) {
+				Frame top = frames.peek();
+				top.items.add(value);
+				if (top.items.size() < top.size) {
+					complete = false;
+					break;
+				}
+				frames.pop();
+				value = top.items;
+			}
+			if (complete) {
+				return value;
+			}
+		}
+	}
+
+	void reset() {
+		start = 0;
+		end = 0;
+		frames.clear();
+	}
+
+	private Object readItem() {
+		if (start >= end) {
+			return INCOMPLETE;
+		}
+		int lineEnd = findLineEnd(start + 1);
+		if (lineEnd < 0) {
+			return INCOMPLETE;
+		}
+		byte type = buffer[start];
+		int next = lineEnd + 2;
+		switch (type) {
+		case '+': {
+			byte[] status = Arrays.copyOfRange(buffer, start + 1, lineEnd);
+			start = next;
+			return status;
+		}
+		case '-': {
+			String message = SafeEncoder.encode(Arrays.copyOfRange(buffer, start + 1, lineEnd));
+			start = next;
+			return error(message);
+		}
+		case ':': {
+			long value = parseLong(start + 1, lineEnd);
+			start = next;
+			return value;
+		}
+		case '$': {
+			int length = (int) parseLong(start + 1, lineEnd);
+			if (length < 0) {
+				start = next;
+				return null;
+			}
+			if (next + length + 2 > end) {
+				return INCOMPLETE;
+			}
+			byte[] value = Arrays.copyOfRange(buffer, next, next + length);
+			start = next + length + 2;
+			return value;
+		}
+		case '*': {
+			int size = (int) parseLong(start + 1, lineEnd);
+			start = next;
+			if (size < 0) {
+				return null;
+			}
+			if (size == 0) {
+				return Collections.emptyList();
+			}
+			frames.push(new Frame(size));
+			return ARRAY_STARTED;
+		}
+		default:
+			throw new JedisConnectionException("无法识别的回复类型:" + (char) type);
+		}
+	}
+
+	private int findLineEnd(int from) {
+		for (int i = from; i + 1 < end; i++) {
+			if (buffer[i] == '\r' && buffer[i + 1] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private long parseLong(int from, int to) {
+		boolean negative = buffer[from] == '-';
+		long value = 0;
+		for (int i = negative ? from + 1 : from; i < to; i++) {
+			value = value * 10 + (buffer[i] - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * 与jedis相同,集群的重定向转换成对应的异常
+	 * @param message
+	 * @return
+	 */
+	private static JedisDataException error(String message) {
+		if (message.startsWith("MOVED ") || message.startsWith("ASK ")) {
+			String[] parts = message.split(" ");
+			int colon = parts[2].lastIndexOf(':');
+			HostAndPort target = new HostAndPort(parts[2].substring(0, colon), Integer.parseInt(parts[2].substring(colon + 1)));
+			int slot = Integer.parseInt(parts[1]);
+			return message.startsWith("MOVED ") ? new JedisMovedDataException(message, target, slot)
+					: new JedisAskDataException(message, target, slot);
+		}
+		return new JedisDataException(message);
+	}
+
+	private static class Frame {
+
+		final int size;
+
+		final List<Object> items;
+
+		Frame(int size) {
+			this.size = size;
+			this.items = new ArrayList<Object>(size);
+		}
+
+	}
+
+}
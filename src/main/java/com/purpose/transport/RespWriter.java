@@ -0,0 +1,99 @@
+package com.purpose.transport;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+/**
+ * 把命令编码成RESP格式,写入可增长的缓冲区,缓冲区在reset之后复用。非线程安全。
+ * @version V1.0
+ */
+class RespWriter {
+
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private byte[] buffer;
+
+	private int size;
+
+	//已经被取走(写入channel)的位置
+	private int position;
+
+	RespWriter(int capacity) {
+		this.buffer = new byte[capacity];
+	}
+
+	/**
+	 * 追加一条命令
+	 * @param command
+	 */
+	void writeCommand(byte[][] command) {
+		writeHeader((byte) '*', command.length);
+		for (byte[] arg : command) {
+			writeHeader((byte) '$', arg.length);
+			write(arg, 0, arg.length);
+			write(CRLF, 0, 2);
+		}
+	}
+
+	/**
+	 * 把尚未取走的数据放入buffer,返回放入的字节数
+	 * @param target
+	 * @return
+	 */
+	int drainTo(ByteBuffer target) {
+		int n = Math.min(target.remaining(), size - position);
+		target.put(buffer, position, n);
+		position += n;
+		return n;
+	}
+
+	/**
+	 * 退回没有写出去的字节
+	 * @param n
+	 */
+	void unread(int n) {
+		position -= n;
+	}
+
+	boolean isEmpty() {
+		return position == size;
+	}
+
+	void reset() {
+		size = 0;
+		position = 0;
+	}
+
+	private void writeHeader(byte type, int value) {
+		ensure(12 + 2 + 1);
+		buffer[size++] = type;
+		if (value == 0) {
+			buffer[size++] = '0';
+		} else {
+			//value不为负数
+			int digits = 0;
+			for (int v = value; v > 0; v /= 10) {
+				digits++;
+			}
+			for (int i = size + digits - 1; i >= size; i--) {
+				buffer[i] = (byte) ('0' + value % 10);
+				value /= 10;
+			}
+			size += digits;
+		}
+		buffer[size++] = '\r';
+		buffer[size++] = '\n';
+	}
+
+	private void write(byte[] bytes, int offset, int length) {
+		ensure(length);
+		System.arraycopy(bytes, offset, buffer, size, length);
+		size += length;
+	}
+
+	private void ensure(int extra) {
+		if (size + extra > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+		}
+	}
+
+}
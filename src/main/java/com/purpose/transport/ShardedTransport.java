@@ -0,0 +1,341 @@
+package com.purpose.transport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.MurmurHash;
+import redis.clients.util.SafeEncoder;
+/**
+ * 把key按一致性哈希分布到多个redis节点的传输层。
+ * 每个节点在哈希环上有160个虚拟节点,虚拟节点由节点名(host:port)生成,与节点在列表中的顺序无关,
+ * 增加一个节点只会迁移大约1/N的key。key中含有{tag}时只用tag计算哈希,可以让相关的key落在同一节点。
+ * 单key命令按第一个参数路由;MGET和多key的DEL/EXISTS按节点拆分后并行执行再合并;
+ * pipeline按节点分组后并行发送,MULTI到EXEC之间的命令作为整体发给其中第一个key所在的节点;
+ * FLUSHDB、DBSIZE作用于所有节点;SCAN依次遍历各节点,游标形如"节点序号:节点游标";
+ * PUBLISH和其他没有key的命令发给第一个节点(订阅也连接第一个节点)。
+ * @version V1.0
+ */
+public class ShardedTransport implements RedisTransport {
+
+	private static final int VIRTUAL_NODES = 160;
+
+	private static final int SEED = 0x1234ABCD;
+
+	private static final byte[] ZERO_CURSOR = SafeEncoder.encode("0");
+
+	private final String[] names;
+
+	private final RedisTransport[] nodes;
+
+	//哈希环:虚拟节点的哈希值(升序)和对应的节点序号
+	private final long[] ringHashes;
+
+	private final int[] ringNodes;
+
+	private final ExecutorService executor;
+
+	/**
+	 * @param names 节点名,通常为host:port,决定虚拟节点在环上的位置
+	 * @param nodes 与names一一对应的传输层
+	 */
+	public ShardedTransport(List<String> names, List<RedisTransport> nodes) {
+		if (names.isEmpty() || names.size() != nodes.size()) {
+			throw new IllegalArgumentException("节点名和节点数量不一致");
+		}
+		this.names = names.toArray(new String[names.size()]);
+		this.nodes = nodes.toArray(new RedisTransport[nodes.size()]);
+		TreeMap<Long, Integer> ring = new TreeMap<Long, Integer>();
+		for (int i = 0; i < this.names.length; i++) {
+			for (int n = 0; n < VIRTUAL_NODES; n++) {
+				ring.put(hash(SafeEncoder.encode(this.names[i] + "*" + n)), i);
+			}
+		}
+		this.ringHashes = new long[ring.size()];
+		this.ringNodes = new int[ring.size()];
+		int position = 0;
+		for (Map.Entry<Long, Integer> entry : ring.entrySet()) {
+			ringHashes[position] = entry.getKey();
+			ringNodes[position++] = entry.getValue();
+		}
+		this.executor = Fanout.newExecutor("redis-shard-");
+	}
+
+	@Override
+	public Object execute(byte[]... command) {
+		byte[] name = command[0];
+		if (Arrays.equals(name, Commands.FLUSHDB)) {
+			return broadcast(command).get(0);
+		}
+		if (Arrays.equals(name, Commands.DBSIZE)) {
+			long size = 0;
+			for (Object reply : broadcast(command)) {
+				size += RedisReplies.asLong(reply);
+			}
+			return size;
+		}
+		if (Arrays.equals(name, Commands.SCAN)) {
+			return scan(command);
+		}
+		if (Arrays.equals(name, Commands.MGET) && command.length > 2) {
+			return multiGet(command);
+		}
+		if ((Arrays.equals(name, Commands.DEL) || Arrays.equals(name, Commands.EXISTS)) && command.length > 2) {
+			return multiKeyCount(command);
+		}
+		return nodes[nodeIndex(command)].execute(command);
+	}
+
+	@Override
+	public List<Object> pipeline(List<byte[][]> commands) {
+		//按节点分组,MULTI...EXEC整体归入块内第一个key所在的节点
+		final List<List<byte[][]>> groups = new ArrayList<List<byte[][]>>(nodes.length);
+		final List<List<Integer>> positions = new ArrayList<List<Integer>>(nodes.length);
+		for (int i = 0; i < nodes.length; i++) {
+			groups.add(null);
+			positions.add(null);
+		}
+		int i = 0;
+		while (i < commands.size()) {
+			int end = i + 1;
+			int node;
+			if (Arrays.equals(commands.get(i)[0], Commands.MULTI)) {
+				node = -1;
+				while (end < commands.size() && !Arrays.equals(commands.get(end - 1)[0], Commands.EXEC)) {
+					if (node < 0 && commands.get(end).length > 1 && !Arrays.equals(commands.get(end)[0], Commands.EXEC)) {
+						node = nodeIndex(commands.get(end));
+					}
+					end++;
+				}
+				node = Math.max(node, 0);
+			} else {
+				node = nodeIndex(commands.get(i));
+			}
+			if (groups.get(node) == null) {
+				groups.set(node, new ArrayList<byte[][]>());
+				positions.set(node, new ArrayList<Integer>());
+			}
+			for (int j = i; j < end; j++) {
+				groups.get(node).add(commands.get(j));
+				positions.get(node).add(j);
+			}
+			i = end;
+		}
+		List<Integer> used = new ArrayList<Integer>();
+		List<Callable<List<Object>>> tasks = new ArrayList<Callable<List<Object>>>();
+		for (int node = 0; node < nodes.length; node++) {
+			final List<byte[][]> group = groups.get(node);
+			if (group == null) {
+				continue;
+			}
+			final RedisTransport target = nodes[node];
+			used.add(node);
+			tasks.add(new Callable<List<Object>>() {
+				@Override
+				public List<Object> call() {
+					return target.pipeline(group);
+				}
+			});
+		}
+		List<List<Object>> results = parallel(tasks);
+		Object[] replies = new Object[commands.size()];
+		for (int k = 0; k < used.size(); k++) {
+			List<Integer> position = positions.get(used.get(k));
+			List<Object> result = results.get(k);
+			for (int j = 0; j < position.size(); j++) {
+				replies[position.get(j)] = result.get(j);
+			}
+		}
+		return Arrays.asList(replies);
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		for (RedisTransport node : nodes) {
+			node.close();
+		}
+	}
+
+	/**
+	 * key所在节点的名称
+	 * @param key
+	 * @return
+	 */
+	public String getNodeName(byte[] key) {
+		return names[nodeIndex(key)];
+	}
+
+	/**
+	 * 各个节点的传输层,顺序与构造时相同
+	 * @return
+	 */
+	public List<RedisTransport> getNodes() {
+		return Collections.unmodifiableList(Arrays.asList(nodes));
+	}
+
+	private List<Object> broadcast(final byte[][] command) {
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nodes.length);
+		for (final RedisTransport node : nodes) {
+			tasks.add(new Callable<Object>() {
+				@Override
+				public Object call() {
+					return node.execute(command);
+				}
+			});
+		}
+		return parallel(tasks);
+	}
+
+	/**
+	 * SCAN依次遍历各个节点,一次只扫描一个节点的一页
+	 */
+	private Object scan(byte[][] command) {
+		int node = 0;
+		byte[] cursor = command[1];
+		if (!Arrays.equals(cursor, ZERO_CURSOR)) {
+			String value = SafeEncoder.encode(cursor);
+			int index = value.indexOf(':');
+			if (index <= 0) {
+				throw new JedisDataException("无效的分片游标:" + value);
+			}
+			node = Integer.parseInt(value.substring(0, index));
+			cursor = SafeEncoder.encode(value.substring(index + 1));
+		}
+		byte[][] nodeCommand = command.clone();
+		nodeCommand[1] = cursor;
+		List<?> reply = (List<?>) nodes[node].execute(nodeCommand);
+		byte[] next = (byte[]) reply.get(0);
+		if (Arrays.equals(next, ZERO_CURSOR)) {
+			next = node + 1 < nodes.length ? SafeEncoder.encode((node + 1) + ":0") : ZERO_CURSOR;
+		} else {
+			next = SafeEncoder.encode(node + ":" + SafeEncoder.encode(next));
+		}
+		return Arrays.<Object>asList(next, reply.get(1));
+	}
+
+	private Object multiGet(byte[][] command) {
+		final Map<Integer, List<Integer>> byNode = groupKeys(command);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(byNode.size());
+		for (final Map.Entry<Integer, List<Integer>> entry : byNode.entrySet()) {
+			final byte[][] nodeCommand = subCommand(command, entry.getValue());
+			final RedisTransport node = nodes[entry.getKey()];
+			tasks.add(new Callable<Object>() {
+				@Override
+				public Object call() {
+					return node.execute(nodeCommand);
+				}
+			});
+		}
+		List<Object> results = parallel(tasks);
+		Object[] values = new Object[command.length - 1];
+		int k = 0;
+		for (List<Integer> indexes : byNode.values()) {
+			List<?> result = (List<?>) results.get(k++);
+			for (int j = 0; j < indexes.size(); j++) {
+				values[indexes.get(j) - 1] = result.get(j);
+			}
+		}
+		return Arrays.asList(values);
+	}
+
+	private Object multiKeyCount(byte[][] command) {
+		Map<Integer, List<Integer>> byNode = groupKeys(command);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(byNode.size());
+		for (Map.Entry<Integer, List<Integer>> entry : byNode.entrySet()) {
+			final byte[][] nodeCommand = subCommand(command, entry.getValue());
+			final RedisTransport node = nodes[entry.getKey()];
+			tasks.add(new Callable<Object>() {
+				@Override
+				public Object call() {
+					return node.execute(nodeCommand);
+				}
+			});
+		}
+		long count = 0;
+		for (Object reply : parallel(tasks)) {
+			count += RedisReplies.asLong(reply);
+		}
+		return count;
+	}
+
+	/**
+	 * 多key命令中每个key的参数位置按节点分组
+	 */
+	private Map<Integer, List<Integer>> groupKeys(byte[][] command) {
+		Map<Integer, List<Integer>> byNode = new TreeMap<Integer, List<Integer>>();
+		for (int i = 1; i < command.length; i++) {
+			int node = nodeIndex(command[i]);
+			List<Integer> indexes = byNode.get(node);
+			if (indexes == null) {
+				indexes = new ArrayList<Integer>();
+				byNode.put(node, indexes);
+			}
+			indexes.add(i);
+		}
+		return byNode;
+	}
+
+	private static byte[][] subCommand(byte[][] command, List<Integer> indexes) {
+		byte[][] sub = new byte[indexes.size() + 1][];
+		sub[0] = command[0];
+		for (int j = 0; j < indexes.size(); j++) {
+			sub[j + 1] = command[indexes.get(j)];
+		}
+		return sub;
+	}
+
+	private <T> List<T> parallel(List<Callable<T>> tasks) {
+		return Fanout.run(executor, tasks);
+	}
+
+	/**
+	 * 命令应发往的节点,没有key的命令发往第一个节点
+	 */
+	private int nodeIndex(byte[][] command) {
+		if (command.length < 2 || Arrays.equals(command[0], Commands.PUBLISH)) {
+			return 0;
+		}
+		return nodeIndex(Commands.routingKey(command));
+	}
+
+	private int nodeIndex(byte[] key) {
+		//顺时针找到第一个哈希值不小于key的虚拟节点
+		int position = Arrays.binarySearch(ringHashes, hashKey(key));
+		if (position < 0) {
+			position = -position - 1;
+		}
+		return ringNodes[position == ringHashes.length ? 0 : position];
+	}
+
+	/**
+	 * 含有非空的{tag}时只对tag计算哈希,与redis cluster的hash tag规则相同
+	 */
+	static long hashKey(byte[] key) {
+		for (int start = 0; start < key.length; start++) {
+			if (key[start] == '{') {
+				for (int end = start + 1; end < key.length; end++) {
+					if (key[end] == '}') {
+						if (end > start + 1) {
+							return MurmurHash.hash64A(key, start + 1, end - start - 1, SEED);
+						}
+						break;
+					}
+				}
+				break;
+			}
+		}
+		return hash(key);
+	}
+
+	private static long hash(byte[] key) {
+		return MurmurHash.hash64A(key, 0, key.length, SEED);
+	}
+
+}
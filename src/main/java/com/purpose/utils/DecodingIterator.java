@@ -0,0 +1,52 @@
+package com.purpose.utils;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+/**
+ * 把redis返回的字节数组逐个解码的迭代器,解码结果为null的元素会被跳过
+ * @version V1.0
+ */
+public abstract class DecodingIterator<T> implements Iterator<T> {
+
+	private final Iterator<byte[]> source;
+
+	private T next;
+
+	public DecodingIterator(Iterator<byte[]> source) {
+		this.source = source;
+	}
+
+	/**
+	 * 解码单个元素
+	 * @param bytes
+	 * @return 返回null时跳过该元素
+	 */
+	protected abstract T decode(byte[] bytes);
+
+	@Override
+	public boolean hasNext() {
+		while (next == null && source.hasNext()) {
+			byte[] bytes = source.next();
+			if (bytes != null) {
+				next = decode(bytes);
+			}
+		}
+		return next != null;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		T result = next;
+		next = null;
+		return result;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+}
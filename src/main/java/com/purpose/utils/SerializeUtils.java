@@ -1,56 +1,45 @@
 package com.purpose.utils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.purpose.codec.Codec;
+import com.purpose.codec.CodecException;
+import com.purpose.codec.JavaSerializationCodec;
 /**
- * 序列化工具类
+ * 序列化工具类,使用java序列化。
+ * RedisManager和Shiro相关的类可以通过setCodec配置其他的编解码方式
  * @author: Yuanbo
  * @date 2016年3月28日 下午2:26:10
  * @version V1.0
  */
 public class SerializeUtils {
 
+	private static final Logger logger = LoggerFactory.getLogger(SerializeUtils.class);
+
+	private static final Codec codec = new JavaSerializationCodec();
+
 	/**
 	 * 序列化
 	 * @param Object
 	 * @return
+	 * @throws CodecException 对象无法序列化时抛出
 	 */
 	public static byte[] serialize(Object o) {
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		try {
-			ObjectOutputStream outo = new ObjectOutputStream(out);
-			outo.writeObject(o);
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		return out.toByteArray();
+		return codec.encode(o);
 	}
 
 	/**
 	 * 反序列化
 	 * @param byte
-	 * @return
+	 * @return 数据无法反序列化时返回null
 	 */
 	public static Object deserialize(byte[] b) {
-		ObjectInputStream oin;
 		try {
-			oin = new ObjectInputStream(new ByteArrayInputStream(b));
-			try {
-				return oin.readObject();
-			} catch (ClassNotFoundException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				return null;
-			}
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			return codec.decode(b);
+		} catch (CodecException e) {
+			logger.error("反序列化失败", e);
 			return null;
 		}
 	}
 	
-}
\ No newline at end of file
+}